@@ -0,0 +1,330 @@
+package classes.controllers;
+
+import java.time.*;
+import java.util.*;
+import classes.entities.*;
+
+/**
+ * AccessScheduler is a concrete class for staggering the access periods of students by cohort, and for working out how
+ * many students may be logged in at any minute.
+ * <p>
+ * Students are grouped into cohorts by the first characters of their matriculation number, e.g. U20 for prefix length 3.
+ * Cohorts are given slots in ascending order, at most maxPerSlot students to a slot, and each slot opens slotMinutes
+ * after the one before it. Every access period closes at the same time, so a later slot only delays when a cohort may
+ * start. Schedules are written with a single rewrite of studentFlatFile.csv.
+ * </p>
+ * <p>
+ * Who may log in is answered from an interval index over every access period, built once and reused until the student
+ * table of the Catalogue changes. Periods are kept sorted by start, with the latest end in each half of the array, so
+ * listing the students who may log in at a minute skips every half that closed earlier. Counting them only needs two
+ * binary searches, since a student may log in at a minute if their period started before it and has not ended by it.
+ * </p>
+ * <p>
+ * Expected sessions assume that the students of a slot log in evenly over the stars.loginSpreadMinutes after it opens,
+ * 15 by default, and each stay for stars.sessionMinutes, 10 by default. Comparing the peak of the curve against
+ * AdmissionManager.getSessionLimit shows whether the flat files can keep up with a schedule.
+ * </p>
+ */
+
+public class AccessScheduler {
+    /**
+     * The minutes after an access period opens over which its students log in
+     */
+    public static final int LOGIN_SPREAD_MINUTES = Math.max(1, Integer.getInteger("stars.loginSpreadMinutes", 15));
+
+    /**
+     * How long a student stays logged in, in minutes
+     */
+    public static final int SESSION_MINUTES = Math.max(1, Integer.getInteger("stars.sessionMinutes", 10));
+
+    /**
+     * The index of every access period, null until first needed
+     */
+    private static AccessIndex index = null;
+
+    /**
+     * The version of the student table the index was built from, null if it was built from the flat file
+     */
+    private static FlatFileTable.Version indexVersion = null;
+
+    /**
+     * Empty Class Constructor
+     */
+    public AccessScheduler() {}
+
+    /**
+     * Groups every student into cohorts by the start of their matriculation number.
+     *
+     * @param prefixLength          the number of leading characters of the matriculation number naming the cohort
+     *
+     * @return                      usernames of the students of each cohort sorted by matriculation number, in cohort order
+     */
+    public static TreeMap<String, ArrayList<String>> getCohorts(int prefixLength) {
+        HashMap<String, String> matricList = Student.getMatricList();
+        ArrayList<String> usernames = new ArrayList<String>(matricList.keySet());
+        usernames.sort(Comparator.comparing((String u) -> matricList.get(u)).thenComparing(u -> u));
+
+        TreeMap<String, ArrayList<String>> cohorts = new TreeMap<String, ArrayList<String>>();
+        for (String username : usernames) {
+            String matric = matricList.get(username);
+            String cohort = matric.substring(0, Math.min(Math.max(prefixLength, 0), matric.length()));
+            cohorts.computeIfAbsent(cohort, c -> new ArrayList<String>()).add(username);
+        }
+        return cohorts;
+    }
+
+    /**
+     * Works out when the access period of every student opens, without changing any access period.
+     *
+     * @param prefixLength          the number of leading characters of the matriculation number naming the cohort
+     * @param firstOpen             when the first slot opens
+     * @param slotMinutes           the minutes between the opening of one slot and the next
+     * @param maxPerSlot            the most students in one slot, 0 for no limit
+     *
+     * @return                      the opening time of each student keyed by username, in slot order
+     */
+    public static LinkedHashMap<String, LocalDateTime> schedule(int prefixLength, LocalDateTime firstOpen, int slotMinutes,
+        int maxPerSlot) {
+        LinkedHashMap<String, LocalDateTime> opens = new LinkedHashMap<String, LocalDateTime>();
+        int slot = 0;
+        for (ArrayList<String> cohort : AccessScheduler.getCohorts(prefixLength).values()) {
+            for (int i = 0; i < cohort.size(); i++) {
+                // a cohort larger than a slot carries on into the following slots
+                if (i > 0 && maxPerSlot > 0 && i % maxPerSlot == 0) slot++;
+                opens.put(cohort.get(i), firstOpen.plusMinutes((long) slot * slotMinutes));
+            }
+            if (!cohort.isEmpty()) slot++;
+        }
+        return opens;
+    }
+
+    /**
+     * Writes a schedule into the access periods of the students.
+     *
+     * @param opens                 the opening time of each student keyed by username
+     * @param close                 when every access period closes
+     *
+     * @return                      <code>true</code> if the operation was successful
+     */
+    public static boolean apply(Map<String, LocalDateTime> opens, LocalDateTime close) {
+        LinkedHashMap<String, LocalDateTime[]> periods = new LinkedHashMap<String, LocalDateTime[]>();
+        for (Map.Entry<String, LocalDateTime> open : opens.entrySet()) {
+            if (!open.getValue().isBefore(close)) return false;
+            periods.put(open.getKey(), new LocalDateTime[] {open.getValue(), close});
+        }
+        return Student.setAccessPeriods(periods);
+    }
+
+    /**
+     * Returns the students whose access period allows them to log in at a given time.
+     *
+     * @param at                    the time being checked
+     *
+     * @return                      usernames of the students who may log in
+     */
+    public static ArrayList<String> mayLogIn(LocalDateTime at) {
+        AccessIndex idx = AccessScheduler.getIndex();
+        ArrayList<String> usernames = new ArrayList<String>();
+        idx.collect(0, idx.starts.length, AccessScheduler.toEpochMinutes(at), usernames);
+        return usernames;
+    }
+
+    /**
+     * Returns the number of students whose access period allows them to log in at a given time.
+     *
+     * @param at                    the time being checked
+     *
+     * @return                      the number of students who may log in
+     */
+    public static int countMayLogIn(LocalDateTime at) {
+        return AccessScheduler.getIndex().count(AccessScheduler.toEpochMinutes(at));
+    }
+
+    /**
+     * Returns the number of students expected to be logged in at a given time.
+     *
+     * @param at                    the time being checked
+     *
+     * @return                      the expected number of concurrent sessions
+     */
+    public static double expectedSessions(LocalDateTime at) {
+        return AccessScheduler.getIndex().expected(AccessScheduler.toEpochMinutes(at));
+    }
+
+    /**
+     * Returns the number of students expected to be logged in at every step over a period.
+     *
+     * @param from                  the start of the period
+     * @param to                    the end of the period
+     * @param stepMinutes           the minutes between two points of the curve
+     *
+     * @return                      the expected number of concurrent sessions at each point, in time order
+     */
+    public static LinkedHashMap<LocalDateTime, Double> sessionCurve(LocalDateTime from, LocalDateTime to, int stepMinutes) {
+        AccessIndex idx = AccessScheduler.getIndex();
+        LinkedHashMap<LocalDateTime, Double> curve = new LinkedHashMap<LocalDateTime, Double>();
+        for (LocalDateTime at = from; !at.isAfter(to); at = at.plusMinutes(Math.max(1, stepMinutes))) {
+            curve.put(at, idx.expected(AccessScheduler.toEpochMinutes(at)));
+        }
+        return curve;
+    }
+
+    /**
+     * Returns the index of every access period, building it again if the students have changed since it was built.
+     * <p>
+     * Without the Catalogue there is no cheap way to tell whether studentFlatFile.csv changed, so the index is built from
+     * the flat file on every call.
+     * </p>
+     *
+     * @return                      the index of every access period
+     */
+    private static synchronized AccessIndex getIndex() {
+        if (!Catalogue.isLoaded()) {
+            AccessScheduler.indexVersion = null;
+            return new AccessIndex(Student.getAccessList());
+        }
+        FlatFileTable.Version version = Catalogue.STUDENTS.snapshot();
+        if (AccessScheduler.index == null || AccessScheduler.indexVersion != version) {
+            AccessScheduler.index = new AccessIndex(Student.getAccessList());
+            AccessScheduler.indexVersion = version;
+        }
+        return AccessScheduler.index;
+    }
+
+    /**
+     * Converts a date to the number of minutes since 01/01/1970 00:00.
+     *
+     * @param date                  the date being converted
+     *
+     * @return                      the date in epoch minutes
+     */
+    private static long toEpochMinutes(LocalDateTime date) {
+        return date.toEpochSecond(ZoneOffset.UTC) / 60;
+    }
+
+    /**
+     * AccessIndex is an immutable interval index over the access periods of every student, in epoch minutes.
+     */
+    private static class AccessIndex {
+        /**
+         * Start of every access period, in ascending order
+         */
+        final long[] starts;
+
+        /**
+         * End of every access period, in the same order as starts
+         */
+        final long[] ends;
+
+        /**
+         * Username of every access period, in the same order as starts
+         */
+        final String[] usernames;
+
+        /**
+         * Latest end among the periods from lo to hi, stored at the middle position (lo + hi) / 2
+         */
+        final long[] maxEnd;
+
+        /**
+         * End of every access period, in ascending order
+         */
+        final long[] sortedEnds;
+
+        /**
+         * Number of access periods starting at each minute
+         */
+        final TreeMap<Long, Integer> startCounts = new TreeMap<Long, Integer>();
+
+        /**
+         * Class Constructor building the index, leaving out periods that end before they start
+         */
+        AccessIndex(Map<String, LocalDateTime[]> accessList) {
+            ArrayList<Object[]> periods = new ArrayList<Object[]>();
+            for (Map.Entry<String, LocalDateTime[]> entry : accessList.entrySet()) {
+                long start = AccessScheduler.toEpochMinutes(entry.getValue()[0]);
+                long end = AccessScheduler.toEpochMinutes(entry.getValue()[1]);
+                if (start < end) periods.add(new Object[] {start, end, entry.getKey()});
+            }
+            periods.sort(Comparator.comparing((Object[] p) -> (Long) p[0]).thenComparing(p -> (String) p[2]));
+
+            int n = periods.size();
+            this.starts = new long[n];
+            this.ends = new long[n];
+            this.usernames = new String[n];
+            for (int i = 0; i < n; i++) {
+                this.starts[i] = (Long) periods.get(i)[0];
+                this.ends[i] = (Long) periods.get(i)[1];
+                this.usernames[i] = (String) periods.get(i)[2];
+                this.startCounts.merge(this.starts[i], 1, Integer::sum);
+            }
+            this.maxEnd = new long[n];
+            this.fillMaxEnd(0, n);
+            this.sortedEnds = this.ends.clone();
+            Arrays.sort(this.sortedEnds);
+        }
+
+        /**
+         * Fills in the latest end of the periods from lo to hi and of every half within them.
+         */
+        private long fillMaxEnd(int lo, int hi) {
+            if (lo >= hi) return Long.MIN_VALUE;
+            int mid = (lo + hi) >>> 1;
+            long max = Math.max(this.ends[mid], Math.max(this.fillMaxEnd(lo, mid), this.fillMaxEnd(mid + 1, hi)));
+            this.maxEnd[mid] = max;
+            return max;
+        }
+
+        /**
+         * Adds the usernames of the periods from lo to hi that are open at a minute.
+         */
+        void collect(int lo, int hi, long minute, ArrayList<String> found) {
+            if (lo >= hi) return;
+            int mid = (lo + hi) >>> 1;
+            // every period here has ended by the minute
+            if (this.maxEnd[mid] <= minute) return;
+            this.collect(lo, mid, minute, found);
+            // periods from mid onwards start at or after the minute
+            if (this.starts[mid] >= minute) return;
+            if (this.ends[mid] > minute) found.add(this.usernames[mid]);
+            this.collect(mid + 1, hi, minute, found);
+        }
+
+        /**
+         * Counts the periods open at a minute, i.e. started before it less those ended by it.
+         */
+        int count(long minute) {
+            return AccessIndex.countBelow(this.starts, minute) - AccessIndex.countBelow(this.sortedEnds, minute + 1);
+        }
+
+        /**
+         * Sums the chance of each student being logged in at a minute, a student logging in evenly over the
+         * LOGIN_SPREAD_MINUTES after their period starts and staying SESSION_MINUTES.
+         */
+        double expected(long minute) {
+            double sessions = 0;
+            // only students who logged in within the last SESSION_MINUTES are still logged in
+            for (Map.Entry<Long, Integer> start : this.startCounts.subMap(
+                minute - SESSION_MINUTES - LOGIN_SPREAD_MINUTES, false, minute, false).entrySet()) {
+                long first = Math.max(start.getKey(), minute - SESSION_MINUTES);
+                long last = Math.min(start.getKey() + LOGIN_SPREAD_MINUTES, minute);
+                if (last > first) sessions += start.getValue() * (double) (last - first) / LOGIN_SPREAD_MINUTES;
+            }
+            return sessions;
+        }
+
+        /**
+         * Returns the number of values in a sorted array that are less than a key.
+         */
+        private static int countBelow(long[] sorted, long key) {
+            int lo = 0;
+            int hi = sorted.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (sorted[mid] < key) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+    }
+}
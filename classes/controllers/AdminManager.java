@@ -80,6 +80,24 @@ public class AdminManager {
         stud.setAccessPeriod(startDate, endDate);
     }
 
+    /**
+     * Staggers the access periods of every student by cohort, so that cohorts open one slot after another
+     * 
+     * @param prefixLength      the number of leading characters of the matriculation number naming the cohort
+     * @param firstOpen         when the first slot opens
+     * @param slotMinutes       the minutes between the opening of one slot and the next
+     * @param maxPerSlot        the most students in one slot, 0 for no limit
+     * @param close             when every access period closes
+     * 
+     * @return                  the opening time of each student keyed by username, or null if the schedule was not written
+     */
+    public LinkedHashMap<String, LocalDateTime> scheduleAccessPeriods(int prefixLength, LocalDateTime firstOpen, int slotMinutes,
+        int maxPerSlot, LocalDateTime close) {
+        LinkedHashMap<String, LocalDateTime> opens = AccessScheduler.schedule(prefixLength, firstOpen, slotMinutes, maxPerSlot);
+        if (!AccessScheduler.apply(opens, close)) return null;
+        return opens;
+    }
+
     /**
      * Adds a new student into the system with certain default parameters
      * 
@@ -210,6 +228,9 @@ public class AdminManager {
 
     /**
      * Modifies the number of vacancies of a course index
+     * <p>
+     * If the number of vacancies goes up, wait-listed students are enrolled into the new vacancies.
+     * </p>
      * 
      * @param courseCode        the course code of the course being changed
      * @param index             the course index of the course being changed
@@ -218,9 +239,13 @@ public class AdminManager {
      * @return                  <code>true</code> if the operation was sucessful
      */
     public boolean changeIndexVacancy(String courseCode, String index, int vacancy) {
-        boolean result = IndexManager.changeIndexVacancy(courseCode, index, vacancy);
-        
-        return result;
+        int added = IndexManager.changeIndexVacancy(courseCode, index, vacancy);
+
+        // only the seats added, as counted by the write that added them, go to the waitlist, as one batch
+        if (added > 0) {
+            WaitlistManager.promoteWaitlist(courseCode, index, added);
+        }
+        return added >= 0;
     }
 
     /**
@@ -239,6 +264,17 @@ public class AdminManager {
         return result;
     }
 
+    /**
+     * Works out which waitlist promotions a set of proposed changes would lead to, without making them
+     * 
+     * @param scenario          the proposed vacancy changes, index drops and new lessons
+     * 
+     * @return                  who would be promoted, left waiting or moved out, and how long it took to work out
+     */
+    public PromotionSimulator.Report simulatePromotions(PromotionSimulator.Scenario scenario) {
+        return PromotionSimulator.simulate(PromotionSimulator.baseline(), scenario);
+    }
+
     /**
      * Calls Index to display a list of all students enrolled in selected course in "Name: , Gender: , Nationality: ," format
      * 
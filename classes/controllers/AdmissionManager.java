@@ -0,0 +1,419 @@
+package classes.controllers;
+
+import java.io.*;
+import java.util.*;
+import java.util.function.*;
+import classes.entities.*;
+
+/**
+ * AdmissionManager is a concrete class running the waiting room in front of the student menu.
+ * <p>
+ * When an access period opens, every student of the cohort logs in within seconds. Instead of letting all of them enrol
+ * at once, each student is given a queue ticket and let in once fewer than the session limit are using the student
+ * menu. Students who are waiting are told their position in the queue and, once students have started to leave, an
+ * estimate of how long they will wait.
+ * </p>
+ * <p>
+ * The queue is kept in admissionFlatFile.csv so that every program sharing the flat files shares the same waiting room.
+ * Each session renews its ticket while it runs, and a ticket not renewed for stars.sessionLeaseSeconds is dropped, so
+ * a program that is killed does not hold its place forever. Only entering, leaving and renewing a ticket write the flat
+ * file, and each of them lets in as many waiting students as the session limit allows once it has made its change.
+ * Looking up a position only reads the flat file, so students waiting in the queue do not hold up one another.
+ * </p>
+ * <p>
+ * The session limit adapts to how loaded the flat files are. While commits take no longer than
+ * stars.targetLatencyMillis, up to stars.maxSessions students are let in. When they take longer, the limit is lowered in
+ * proportion, but never below stars.minSessions.
+ * </p>
+ */
+
+public class AdmissionManager {
+    /**
+     * Location of admissionFlatFile.csv flat file
+     */
+    public static String admissionFile = "flatFiles/admissionFlatFile.csv";
+
+    /**
+     * The most students using the student menu at the same time
+     */
+    public static final int MAX_SESSIONS = Integer.getInteger("stars.maxSessions", 50);
+
+    /**
+     * The fewest students let in at the same time however slow commits are
+     */
+    public static final int MIN_SESSIONS = Integer.getInteger("stars.minSessions", 5);
+
+    /**
+     * Commit latency up to which MAX_SESSIONS students are let in, in milliseconds
+     */
+    public static final long TARGET_LATENCY_MILLIS = Long.getLong("stars.targetLatencyMillis", 50);
+
+    /**
+     * How long a ticket is kept without being renewed, in milliseconds
+     */
+    public static final long LEASE_MILLIS = Long.getLong("stars.sessionLeaseSeconds", 60) * 1000;
+
+    /**
+     * How long finished sessions are remembered for estimating waiting times, in milliseconds
+     */
+    private static final long HISTORY_MILLIS = 10 * 60 * 1000;
+
+    /**
+     * Header row of admissionFlatFile.csv
+     */
+    private static final String HEADER = "ticket,username,state,issued,admitted,lastSeen";
+
+    /**
+     * Moving average of the time taken to update admissionFlatFile.csv in milliseconds, including waiting for its lock
+     */
+    private static volatile double latencyMillis = 0;
+
+    /**
+     * Empty Class Constructor
+     */
+    public AdmissionManager() {}
+
+    /**
+     * Gives a student a queue ticket.
+     *
+     * @param username              username of the student
+     *
+     * @return                      the ticket, or -1 if the waiting room could not be updated
+     */
+    public static long enter(String username) {
+        return AdmissionManager.update(tickets -> {
+            long number = 1;
+            for (Ticket ticket : tickets) {
+                number = Math.max(number, ticket.number + 1);
+            }
+            long now = System.currentTimeMillis();
+            tickets.add(new Ticket(number, username, Ticket.WAITING, now, 0, now));
+            return number;
+        }, -1L);
+    }
+
+    /**
+     * Reports where a ticket is in the queue, without changing the waiting room.
+     *
+     * @param number                the ticket
+     *
+     * @return                      the position of the ticket, or null if the ticket has been dropped or the waiting
+     *                              room cannot be read
+     */
+    public static Status poll(long number) {
+        ArrayList<Ticket> tickets;
+        try {
+            tickets = AdmissionManager.read();
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        Ticket own = null;
+        int position = 0;
+        for (Ticket ticket : tickets) {
+            // tickets that have stopped being renewed are dropped by the next update, so they are passed over here
+            boolean waiting = ticket.state.equals(Ticket.WAITING) && now - ticket.lastSeen <= LEASE_MILLIS;
+            if (waiting) position++;
+            if (ticket.number == number) {
+                own = ticket;
+                break;
+            }
+        }
+        if (own == null || own.state.equals(Ticket.LEFT) || now - own.lastSeen > LEASE_MILLIS) return null;
+        if (own.state.equals(Ticket.ADMITTED)) return new Status(0, 0);
+        return new Status(position, AdmissionManager.estimateWait(tickets, position, now));
+    }
+
+    /**
+     * Renews a ticket, so that it is not dropped while its program is running.
+     *
+     * @param number                the ticket
+     */
+    public static void renew(long number) {
+        AdmissionManager.update(tickets -> {
+            for (Ticket ticket : tickets) {
+                if (ticket.number == number && !ticket.state.equals(Ticket.LEFT)) {
+                    ticket.lastSeen = System.currentTimeMillis();
+                }
+            }
+            return null;
+        }, null);
+    }
+
+    /**
+     * Gives up a ticket, freeing its place for the next waiting student.
+     *
+     * @param number                the ticket
+     */
+    public static void leave(long number) {
+        AdmissionManager.update(tickets -> {
+            for (Ticket ticket : tickets) {
+                if (ticket.number == number && !ticket.state.equals(Ticket.LEFT)) {
+                    ticket.state = Ticket.LEFT;
+                    ticket.lastSeen = System.currentTimeMillis();
+                }
+            }
+            return null;
+        }, null);
+    }
+
+    /**
+     * Keeps a ticket renewed for as long as the program runs, and gives it up when the program exits.
+     *
+     * @param number                the ticket
+     */
+    public static void keepAlive(long number) {
+        Thread renew = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(Math.max(1000, LEASE_MILLIS / 3));
+                } catch (InterruptedException e) {
+                    return;
+                }
+                AdmissionManager.renew(number);
+            }
+        }, "admission-lease");
+        renew.setDaemon(true);
+        renew.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> AdmissionManager.leave(number)));
+    }
+
+    /**
+     * Returns the number of students let in at the same time given how long commits are currently taking.
+     *
+     * @return                      the session limit, between MIN_SESSIONS and MAX_SESSIONS
+     */
+    public static int getSessionLimit() {
+        double latency = Math.max(GroupCommit.getLatencyMillis(), AdmissionManager.latencyMillis);
+        if (latency <= TARGET_LATENCY_MILLIS) return MAX_SESSIONS;
+        int limit = (int) (MAX_SESSIONS * TARGET_LATENCY_MILLIS / latency);
+        return Math.max(MIN_SESSIONS, Math.min(MAX_SESSIONS, limit));
+    }
+
+    /**
+     * Estimates how long the student at a position in the queue will wait, from how often sessions have recently ended.
+     *
+     * @param tickets               every ticket
+     * @param position              the position in the queue, 1 being next
+     * @param now                   the current time in milliseconds since the epoch
+     *
+     * @return                      the estimated wait in seconds, or -1 if no session has ended recently
+     */
+    private static long estimateWait(List<Ticket> tickets, int position, long now) {
+        int ended = 0;
+        long earliest = now;
+        for (Ticket ticket : tickets) {
+            if (ticket.state.equals(Ticket.LEFT) && ticket.admitted > 0) {
+                ended++;
+                earliest = Math.min(earliest, ticket.lastSeen);
+            }
+        }
+        if (ended == 0) return -1;
+        // sessions ending per second over the period they were seen ending, at least a minute
+        double rate = ended / (Math.max(now - earliest, 60000) / 1000.0);
+        return (long) Math.ceil(position / rate);
+    }
+
+    /**
+     * Drops expired tickets, forgets old finished sessions, and lets in waiting students up to the session limit.
+     *
+     * @param tickets               every ticket in ticket order, changed in place
+     * @param now                   the current time in milliseconds since the epoch
+     */
+    private static void admit(ArrayList<Ticket> tickets, long now) {
+        int admitted = 0;
+        Iterator<Ticket> it = tickets.iterator();
+        while (it.hasNext()) {
+            Ticket ticket = it.next();
+            if (ticket.state.equals(Ticket.LEFT)) {
+                if (now - ticket.lastSeen > HISTORY_MILLIS) it.remove();
+            } else if (now - ticket.lastSeen > LEASE_MILLIS) {
+                // the program holding the ticket stopped renewing it
+                ticket.state = Ticket.LEFT;
+            } else if (ticket.state.equals(Ticket.ADMITTED)) {
+                admitted++;
+            }
+        }
+
+        int limit = AdmissionManager.getSessionLimit();
+        for (Ticket ticket : tickets) {
+            if (admitted >= limit) break;
+            if (ticket.state.equals(Ticket.WAITING)) {
+                ticket.state = Ticket.ADMITTED;
+                ticket.admitted = now;
+                admitted++;
+            }
+        }
+    }
+
+    /**
+     * Reads admissionFlatFile.csv, applies a change and then the admission rules, and writes the file back, holding its
+     * lock throughout.
+     *
+     * @param change                changes the tickets and returns the result of the update
+     * @param failed                the result if the file cannot be read or written
+     *
+     * @return                      the result of the change
+     */
+    private static <T> T update(Function<ArrayList<Ticket>, T> change, T failed) {
+        long start = System.nanoTime();
+        File tempFile = null;
+        FlatFileLock lock = null;
+        try {
+            lock = FlatFileLock.acquire(admissionFile);
+            ArrayList<Ticket> tickets = AdmissionManager.read();
+            T result = change.apply(tickets);
+            AdmissionManager.admit(tickets, System.currentTimeMillis());
+
+            tempFile = FlatFileLock.tempFile(admissionFile);
+            try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(tempFile)))) {
+                pw.write(HEADER + "\n");
+                for (Ticket ticket : tickets) {
+                    pw.write(ticket + "\n");
+                }
+            }
+            FlatFileLock.replace(tempFile, admissionFile);
+            AdmissionManager.latencyMillis = 0.8 * AdmissionManager.latencyMillis + 0.2 * (System.nanoTime() - start) / 1e6;
+            return result;
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            if (tempFile != null) tempFile.delete();
+            return failed;
+        } finally {
+            FlatFileLock.release(lock);
+        }
+    }
+
+    /**
+     * Reads every ticket of admissionFlatFile.csv, which is only ever replaced whole, so it can be read without its lock.
+     *
+     * @return                      every ticket in ticket order
+     *
+     * @throws IOException
+     */
+    private static ArrayList<Ticket> read() throws IOException {
+        ArrayList<Ticket> tickets = new ArrayList<Ticket>();
+        try (BufferedReader br = new BufferedReader(new FileReader(admissionFile))) {
+            String line = br.readLine();
+            while ((line = br.readLine()) != null) {
+                if (!line.trim().equals("")) tickets.add(Ticket.parse(line));
+            }
+        }
+        return tickets;
+    }
+
+    /**
+     * Status is the position of a ticket in the queue.
+     */
+    public static class Status {
+        /**
+         * Number of waiting tickets up to and including this one, 0 once the student has been let in
+         */
+        private final int position;
+
+        /**
+         * Estimated wait in seconds, -1 if it cannot be estimated yet
+         */
+        private final long waitSeconds;
+
+        /**
+         * Class Constructor specifying the position and estimated wait
+         */
+        Status(int position, long waitSeconds) {
+            this.position = position;
+            this.waitSeconds = waitSeconds;
+        }
+
+        /**
+         * @return                  the position in the queue, 1 being next, or 0 once the student has been let in
+         */
+        public int getPosition() {
+            return this.position;
+        }
+
+        /**
+         * @return                  the estimated wait in seconds, or -1 if it cannot be estimated yet
+         */
+        public long getWaitSeconds() {
+            return this.waitSeconds;
+        }
+    }
+
+    /**
+     * Ticket is one row of admissionFlatFile.csv.
+     */
+    private static class Ticket {
+        /**
+         * State of a student waiting to be let in
+         */
+        static final String WAITING = "waiting";
+
+        /**
+         * State of a student using the student menu
+         */
+        static final String ADMITTED = "admitted";
+
+        /**
+         * State of a student who has left, kept for estimating waiting times
+         */
+        static final String LEFT = "left";
+
+        /**
+         * The ticket number, larger for later tickets
+         */
+        final long number;
+
+        /**
+         * Username of the student holding the ticket
+         */
+        final String username;
+
+        /**
+         * WAITING, ADMITTED or LEFT
+         */
+        String state;
+
+        /**
+         * When the ticket was given out, in milliseconds since the epoch
+         */
+        final long issued;
+
+        /**
+         * When the student was let in, in milliseconds since the epoch, 0 if never
+         */
+        long admitted;
+
+        /**
+         * When the ticket was last renewed, or when the student left
+         */
+        long lastSeen;
+
+        /**
+         * Class Constructor specifying every column
+         */
+        Ticket(long number, String username, String state, long issued, long admitted, long lastSeen) {
+            this.number = number;
+            this.username = username;
+            this.state = state;
+            this.issued = issued;
+            this.admitted = admitted;
+            this.lastSeen = lastSeen;
+        }
+
+        /**
+         * Parses a row of admissionFlatFile.csv.
+         */
+        static Ticket parse(String line) {
+            String[] row = line.split(",");
+            return new Ticket(Long.parseLong(row[0]), row[1], row[2], Long.parseLong(row[3]), Long.parseLong(row[4]),
+                Long.parseLong(row[5]));
+        }
+
+        @Override
+        public String toString() {
+            return this.number + "," + this.username + "," + this.state + "," + this.issued + "," + this.admitted + ","
+                + this.lastSeen;
+        }
+    }
+}
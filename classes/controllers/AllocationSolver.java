@@ -0,0 +1,623 @@
+package classes.controllers;
+
+import java.util.*;
+import java.util.stream.*;
+import classes.entities.*;
+
+/**
+ * AllocationSolver is a concrete class that allocates seats to students from their ranked preferences, entirely in
+ * memory.
+ * <p>
+ * Every student ranks the courses they want, and for each course the indexes they would accept. Each course is matched
+ * with student-proposing deferred acceptance: students propose to their best index not yet tried, each index holds the
+ * best applicants by priority up to its vacancies and turns away the rest, who propose to their next index, until no
+ * one is turned away. The result is the stable matching that is best for every student, and courses are matched in
+ * parallel on the fork-join pool since a course only touches its own applicants.
+ * </p>
+ * <p>
+ * Courses are not independent of each other in two ways, which are settled around the matching:
+ * </p>
+ * <ol>
+ * <li>The AU limit: after every matching, a student keeps the seats they were given in order of preference while their
+ * AU stays within the limit, and the seats of the rest are taken away and their courses matched again without them. A
+ * course taken away is let back in, and matched again with the student, once a more preferred course has lost its seat
+ * and left room for it.
+ * <li>Timetable clashes: every index has a bitmap of the half hours of the week its lessons take up, so two indexes
+ * clash when their bitmaps share a bit. Indexes clashing with what a student already holds are struck off before
+ * matching. When the indexes a student is given in two courses clash, the index in the less preferred course is struck
+ * off and that course is matched again, until no student has a clash.
+ * </ol>
+ */
+
+public class AllocationSolver {
+    /**
+     * Half hours in a day
+     */
+    static final int SLOTS_PER_DAY = 48;
+
+    /**
+     * Longs in a week bitmap, seven days of SLOTS_PER_DAY bits
+     */
+    public static final int WORDS = (7 * SLOTS_PER_DAY + 63) / 64;
+
+    /**
+     * The most times courses are matched again to settle clashes and the AU limit, after which any clash left is settled
+     * by taking the index in the less preferred course away, and any course over the AU limit is taken away
+     */
+    private static final int MAX_PASSES = 64;
+
+    /**
+     * Days of the week in bitmap order
+     */
+    private static final List<String> DAYS = Arrays.asList("Mon", "Tue", "Wed", "Thu", "Fri", "Sat", "Sun");
+
+    /**
+     * Empty Class Constructor
+     */
+    public AllocationSolver() {}
+
+    /**
+     * Builds the week bitmap of a set of lessons.
+     * <p>
+     * A lesson takes up every half hour it overlaps, so lessons that do not start or end on the half hour are treated
+     * as taking up the whole of the half hours they start and end in.
+     * </p>
+     *
+     * @param dayTimes          each lesson as {day, start, end} with times in 24 hour hhmm e.g. {Mon, 1330, 1430}
+     *
+     * @return                  the bitmap, WORDS longs
+     */
+    public static long[] toBitmap(List<? extends List<String>> dayTimes) {
+        long[] bitmap = new long[WORDS];
+        for (List<String> lesson : dayTimes) {
+            int day = DAYS.indexOf(lesson.get(0));
+            if (day < 0) continue;
+            int start = AllocationSolver.toMinutes(lesson.get(1)) / 30;
+            int end = (AllocationSolver.toMinutes(lesson.get(2)) + 29) / 30;
+            for (int slot = Math.max(0, start); slot < Math.min(end, SLOTS_PER_DAY); slot++) {
+                int bit = day * SLOTS_PER_DAY + slot;
+                bitmap[bit >>> 6] |= 1L << (bit & 63);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Returns whether two week bitmaps share a half hour.
+     *
+     * @param a                 the first bitmap
+     * @param b                 the second bitmap
+     *
+     * @return                  <code>true</code> if the bitmaps clash
+     */
+    public static boolean clashes(long[] a, long[] b) {
+        for (int i = 0; i < WORDS; i++) {
+            if ((a[i] & b[i]) != 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Converts a 24 hour hhmm time to minutes after midnight.
+     */
+    private static int toMinutes(String time) {
+        int hhmm = Integer.parseInt(time.trim());
+        return hhmm / 100 * 60 + hhmm % 100;
+    }
+
+    /**
+     * Allocates seats to every student of a problem.
+     *
+     * @param problem           the indexes, students and preferences
+     *
+     * @return                  the index each student is given in each course they ranked
+     */
+    public static Result solve(Problem problem) {
+        problem.build();
+        int courseCount = problem.courseNames.size();
+        ArrayList<ArrayList<Want>> applicants = new ArrayList<ArrayList<Want>>(courseCount);
+        for (int c = 0; c < courseCount; c++) {
+            applicants.add(new ArrayList<Want>());
+        }
+
+        // drop courses that could never fit the AU limit and indexes clashing with what students already hold
+        for (Applicant student : problem.students) {
+            for (Want want : student.wants) {
+                if (student.au + problem.au[want.indexes[0]] > Student.AU_LIMIT) {
+                    want.dropped = true;
+                    continue;
+                }
+                for (int k = 0; k < want.indexes.length; k++) {
+                    if (AllocationSolver.clashes(problem.bitmaps.get(want.indexes[k]), student.timetable)) want.struck[k] = true;
+                }
+                applicants.get(want.course).add(want);
+            }
+        }
+
+        Set<Integer> dirty = IntStream.range(0, courseCount).boxed().collect(Collectors.toCollection(TreeSet::new));
+        int passes = 0;
+        while (!dirty.isEmpty() && passes < MAX_PASSES) {
+            dirty.parallelStream().forEach(c -> AllocationSolver.match(problem, applicants.get(c)));
+            dirty = AllocationSolver.strikeClashes(problem);
+            dirty.addAll(AllocationSolver.settleAU(problem));
+            passes++;
+        }
+        // still clashing after MAX_PASSES, so give up the index in the less preferred course
+        for (Applicant student : problem.students) {
+            for (int i = 0; i < student.wants.size(); i++) {
+                Want later = student.wants.get(i);
+                if (later.assigned < 0) continue;
+                for (int j = 0; j < i; j++) {
+                    Want earlier = student.wants.get(j);
+                    if (earlier.assigned >= 0 && AllocationSolver.clashes(problem.bitmaps.get(earlier.assigned),
+                        problem.bitmaps.get(later.assigned))) {
+                        later.assigned = -1;
+                        break;
+                    }
+                }
+            }
+            // and the seats of the least preferred courses over the AU limit
+            int au = student.au;
+            for (Want want : student.wants) {
+                if (want.assigned < 0) continue;
+                if (au + problem.au[want.assigned] > Student.AU_LIMIT) {
+                    want.assigned = -1;
+                    want.dropped = true;
+                } else {
+                    au += problem.au[want.assigned];
+                }
+            }
+        }
+        return new Result(problem, passes);
+    }
+
+    /**
+     * Matches the applicants of one course to its indexes with student-proposing deferred acceptance.
+     *
+     * @param problem           the indexes and their vacancies
+     * @param wants             the applicants of the course, each with their ranked indexes
+     */
+    private static void match(Problem problem, List<Want> wants) {
+        // applicants held by each index, the worst applicant on top so that they can be turned away
+        HashMap<Integer, PriorityQueue<Want>> held = new HashMap<Integer, PriorityQueue<Want>>();
+        ArrayDeque<Want> free = new ArrayDeque<Want>();
+        for (Want want : wants) {
+            want.assigned = -1;
+            want.next = 0;
+            // a course taken away for the AU limit waits until there is room for it again
+            if (!want.dropped) free.add(want);
+        }
+        while (!free.isEmpty()) {
+            Want want = free.poll();
+            while (want.next < want.indexes.length && want.struck[want.next]) want.next++;
+            if (want.next == want.indexes.length) continue;
+            int index = want.indexes[want.next++];
+            int seats = problem.vacancies[index];
+            if (seats <= 0) {
+                free.add(want);
+                continue;
+            }
+            PriorityQueue<Want> queue = held.computeIfAbsent(index,
+                i -> new PriorityQueue<Want>(Comparator.comparingLong((Want w) -> w.owner.priority).reversed()
+                    .thenComparing(Comparator.comparingInt((Want w) -> w.owner.id).reversed())));
+            want.assigned = index;
+            queue.add(want);
+            if (queue.size() > seats) {
+                Want rejected = queue.poll();
+                rejected.assigned = -1;
+                free.add(rejected);
+            }
+        }
+    }
+
+    /**
+     * Strikes off the index in the less preferred course of every student given two clashing indexes.
+     *
+     * @param problem           the problem being solved
+     *
+     * @return                  the courses that must be matched again
+     */
+    private static Set<Integer> strikeClashes(Problem problem) {
+        return problem.students.parallelStream().flatMap(student -> {
+            ArrayList<Integer> courses = new ArrayList<Integer>();
+            for (int i = 0; i < student.wants.size(); i++) {
+                Want later = student.wants.get(i);
+                if (later.assigned < 0) continue;
+                for (int j = 0; j < i; j++) {
+                    Want earlier = student.wants.get(j);
+                    if (earlier.assigned >= 0 && AllocationSolver.clashes(problem.bitmaps.get(earlier.assigned),
+                        problem.bitmaps.get(later.assigned))) {
+                        later.strike(later.assigned);
+                        courses.add(later.course);
+                        break;
+                    }
+                }
+            }
+            return courses.stream();
+        }).collect(Collectors.toCollection(TreeSet::new));
+    }
+
+    /**
+     * Keeps every student within the AU limit, taking away the seats of their least preferred courses that go over it and
+     * letting courses taken away earlier back in once there is room for them again.
+     *
+     * @param problem           the problem being solved
+     *
+     * @return                  the courses that must be matched again
+     */
+    private static Set<Integer> settleAU(Problem problem) {
+        return problem.students.parallelStream().flatMap(student -> {
+            ArrayList<Integer> courses = new ArrayList<Integer>();
+            // only the seats of more preferred courses count against a course
+            int au = student.au;
+            for (Want want : student.wants) {
+                int courseAU = problem.au[want.indexes[0]];
+                boolean fits = au + courseAU <= Student.AU_LIMIT;
+                if (want.assigned >= 0 && fits) {
+                    au += courseAU;
+                } else if (want.assigned >= 0) {
+                    want.assigned = -1;
+                    want.dropped = true;
+                    courses.add(want.course);
+                } else if (want.dropped && fits) {
+                    want.dropped = false;
+                    courses.add(want.course);
+                }
+            }
+            return courses.stream();
+        }).collect(Collectors.toCollection(TreeSet::new));
+    }
+
+    /**
+     * Problem is the input of the solver: the indexes with their vacancies, AU and lessons, and the students with their
+     * priority, current timetable and ranked preferences.
+     */
+    public static class Problem {
+        /**
+         * Course/index key of every index, by index id
+         */
+        private final ArrayList<String> keys = new ArrayList<String>();
+
+        /**
+         * Index id of every course/index key
+         */
+        private final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+
+        /**
+         * Course id of every index
+         */
+        private final ArrayList<Integer> courseOf = new ArrayList<Integer>();
+
+        /**
+         * Course code of every course id
+         */
+        private final ArrayList<String> courseNames = new ArrayList<String>();
+
+        /**
+         * Course id of every course code
+         */
+        private final HashMap<String, Integer> courseIds = new HashMap<String, Integer>();
+
+        /**
+         * Lesson bitmap of every index
+         */
+        private final ArrayList<long[]> bitmaps = new ArrayList<long[]>();
+
+        /**
+         * Vacancies of every index, filled in by build
+         */
+        private int[] vacancies;
+
+        /**
+         * AU of every index, filled in by build
+         */
+        private int[] au;
+
+        /**
+         * Vacancies of every index while indexes are being added
+         */
+        private final ArrayList<Integer> vacancyList = new ArrayList<Integer>();
+
+        /**
+         * AU of every index while indexes are being added
+         */
+        private final ArrayList<Integer> auList = new ArrayList<Integer>();
+
+        /**
+         * Every student, by student id
+         */
+        private final ArrayList<Applicant> students = new ArrayList<Applicant>();
+
+        /**
+         * Class Constructor for an empty problem
+         */
+        public Problem() {}
+
+        /**
+         * Adds an index that students may rank.
+         *
+         * @param course            course code
+         * @param index             the index
+         * @param vacancy           the seats left in the index
+         * @param acadUnits         the AU of the course
+         * @param bitmap            the week bitmap of the lessons of the index
+         *
+         * @return                  the id of the index
+         */
+        public int addIndex(String course, String index, int vacancy, int acadUnits, long[] bitmap) {
+            String key = course + "/" + index;
+            Integer id = this.ids.get(key);
+            if (id != null) return id;
+            id = this.keys.size();
+            this.keys.add(key);
+            this.ids.put(key, id);
+            this.courseOf.add(this.courseIds.computeIfAbsent(course, c -> {
+                this.courseNames.add(c);
+                return this.courseNames.size() - 1;
+            }));
+            this.bitmaps.add(bitmap);
+            this.vacancyList.add(vacancy);
+            this.auList.add(acadUnits);
+            this.vacancies = null;
+            return id;
+        }
+
+        /**
+         * Adds a student.
+         *
+         * @param username          username of the student
+         * @param priority          the priority of the student, lower numbers being served first
+         * @param acadUnits         the AU the student already holds
+         * @param timetable         the week bitmap of the lessons the student already has
+         *
+         * @return                  the id of the student
+         */
+        public int addStudent(String username, long priority, int acadUnits, long[] timetable) {
+            Applicant student = new Applicant(this.students.size(), username, priority, acadUnits, timetable);
+            this.students.add(student);
+            return student.id;
+        }
+
+        /**
+         * Adds the ranked indexes a student would accept for a course, after the courses already added for the student.
+         *
+         * @param student           the id of the student
+         * @param keys              course/index keys of one course in order of preference, unknown indexes left out
+         */
+        public void addPreference(int student, List<String> keys) {
+            ArrayList<Integer> indexes = new ArrayList<Integer>();
+            for (String key : keys) {
+                Integer id = this.ids.get(key);
+                if (id != null && !indexes.contains(id)) indexes.add(id);
+            }
+            if (indexes.isEmpty()) return;
+            int course = this.courseOf.get(indexes.get(0));
+            for (int id : indexes) {
+                if (this.courseOf.get(id) != course) throw new IllegalArgumentException("indexes of different courses");
+            }
+            Applicant applicant = this.students.get(student);
+            applicant.wants.add(new Want(applicant, course, indexes.stream().mapToInt(Integer::intValue).toArray()));
+        }
+
+        /**
+         * Returns the id of an index.
+         *
+         * @param key               course/index key
+         *
+         * @return                  the id, or -1 if the index has not been added
+         */
+        public int indexId(String key) {
+            Integer id = this.ids.get(key);
+            return id == null ? -1 : id;
+        }
+
+        /**
+         * Returns the course/index key of an index.
+         *
+         * @param id                the id of the index
+         *
+         * @return                  the course/index key
+         */
+        public String key(int id) {
+            return this.keys.get(id);
+        }
+
+        /**
+         * Freezes the indexes once every one has been added.
+         */
+        private void build() {
+            if (this.vacancies != null) return;
+            this.vacancies = this.vacancyList.stream().mapToInt(Integer::intValue).toArray();
+            this.au = this.auList.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * Result is the outcome of the solver.
+     */
+    public static class Result {
+        /**
+         * The problem that was solved
+         */
+        private final Problem problem;
+
+        /**
+         * The number of times the courses were matched
+         */
+        private final int passes;
+
+        /**
+         * Class Constructor for a solved problem
+         */
+        Result(Problem problem, int passes) {
+            this.problem = problem;
+            this.passes = passes;
+        }
+
+        /**
+         * Returns the course/index keys a student was given, in their order of preference.
+         *
+         * @param student           the id of the student
+         *
+         * @return                  the keys of the indexes given
+         */
+        public List<String> getAssigned(int student) {
+            ArrayList<String> keys = new ArrayList<String>();
+            for (Want want : this.problem.students.get(student).wants) {
+                if (want.assigned >= 0) keys.add(this.problem.key(want.assigned));
+            }
+            return keys;
+        }
+
+        /**
+         * Returns, for each course a student wanted but was not given, their first choice among the indexes that fit
+         * their timetable, provided the course fits their AU.
+         *
+         * @param student           the id of the student
+         *
+         * @return                  the keys of the indexes the student may be wait-listed for
+         */
+        public List<String> getUnplaced(int student) {
+            ArrayList<String> keys = new ArrayList<String>();
+            for (Want want : this.problem.students.get(student).wants) {
+                if (want.assigned >= 0 || want.dropped) continue;
+                for (int k = 0; k < want.indexes.length; k++) {
+                    if (!want.struck[k]) {
+                        keys.add(this.problem.key(want.indexes[k]));
+                        break;
+                    }
+                }
+            }
+            return keys;
+        }
+
+        /**
+         * @param student           the id of the student
+         *
+         * @return                  username of the student
+         */
+        public String getUsername(int student) {
+            return this.problem.students.get(student).username;
+        }
+
+        /**
+         * @return                  the number of students
+         */
+        public int getStudentCount() {
+            return this.problem.students.size();
+        }
+
+        /**
+         * @return                  the number of times the courses were matched
+         */
+        public int getPasses() {
+            return this.passes;
+        }
+    }
+
+    /**
+     * Applicant is a student of a problem.
+     */
+    private static class Applicant {
+        /**
+         * The id of the student
+         */
+        final int id;
+
+        /**
+         * Username of the student
+         */
+        final String username;
+
+        /**
+         * The priority of the student, lower numbers being served first
+         */
+        final long priority;
+
+        /**
+         * The AU the student already holds
+         */
+        final int au;
+
+        /**
+         * The week bitmap of the lessons the student already has
+         */
+        final long[] timetable;
+
+        /**
+         * The courses the student wants, in order of preference
+         */
+        final ArrayList<Want> wants = new ArrayList<Want>();
+
+        /**
+         * Class Constructor specifying every attribute
+         */
+        Applicant(int id, String username, long priority, int au, long[] timetable) {
+            this.id = id;
+            this.username = username;
+            this.priority = priority;
+            this.au = au;
+            this.timetable = timetable;
+        }
+    }
+
+    /**
+     * Want is one course a student wants, with the indexes they would accept.
+     */
+    private static class Want {
+        /**
+         * The student
+         */
+        final Applicant owner;
+
+        /**
+         * The id of the course
+         */
+        final int course;
+
+        /**
+         * The ids of the indexes in order of preference
+         */
+        final int[] indexes;
+
+        /**
+         * Which indexes are struck off because they clash
+         */
+        final boolean[] struck;
+
+        /**
+         * Whether the course is left out of matching because it would exceed the AU limit with the seats of the more
+         * preferred courses
+         */
+        boolean dropped = false;
+
+        /**
+         * The index the student holds in the course, -1 if none
+         */
+        int assigned = -1;
+
+        /**
+         * The position in indexes of the next index to propose to
+         */
+        int next = 0;
+
+        /**
+         * Class Constructor specifying the student, course and indexes
+         */
+        Want(Applicant owner, int course, int[] indexes) {
+            this.owner = owner;
+            this.course = course;
+            this.indexes = indexes;
+            this.struck = new boolean[indexes.length];
+        }
+
+        /**
+         * Strikes off an index.
+         */
+        void strike(int index) {
+            for (int k = 0; k < this.indexes.length; k++) {
+                if (this.indexes[k] == index) this.struck[k] = true;
+            }
+        }
+    }
+}
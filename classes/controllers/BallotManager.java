@@ -0,0 +1,637 @@
+package classes.controllers;
+
+import java.io.*;
+import java.time.*;
+import java.time.format.*;
+import java.util.*;
+import java.util.concurrent.locks.*;
+import classes.entities.*;
+
+/**
+ * BallotManager is a concrete class running ballots, in which seats are allocated by lottery instead of first come first
+ * served.
+ * <p>
+ * While a ballot is open, adding a course only records a bid in ballotFlatFile.csv. The order of a student's bids is
+ * their order of preference: courses rank in the order they were first bid for, and several indexes of the same course
+ * rank in the order they were bid for. Once the ballot has closed, an administrator runs the allocation, which enrols
+ * students into every index at once:
+ * </p>
+ * <ol>
+ * <li>Every student is given a lottery number derived from the seed of the ballot and their username, which is their
+ * priority at every index, so running the allocation again with the same bids and rosters gives the same result.
+ * <li>AllocationSolver matches students to indexes by deferred acceptance, every course in parallel, keeping within
+ * the AU limit and clear of timetable clashes.
+ * <li>Students left without a seat in a course, although it fits their AU and timetable, are put on the waitlist of
+ * their first choice of index in lottery order.
+ * </ol>
+ * <p>
+ * Every roster is then written with a single rewrite of indexFlatFile.csv and every student with a single rewrite of
+ * studentFlatFile.csv. The ballot window is kept in ballotWindowFlatFile.csv, and is only marked as allocated once both
+ * have been written. Until then no seat is taken first come first served, even after bidding has closed.
+ * </p>
+ */
+
+public class BallotManager {
+    /**
+     * Location of ballotFlatFile.csv flat file
+     */
+    public static String ballotFile = "flatFiles/ballotFlatFile.csv";
+
+    /**
+     * Location of ballotWindowFlatFile.csv flat file
+     */
+    public static String windowFile = "flatFiles/ballotWindowFlatFile.csv";
+
+    /**
+     * Header row of ballotFlatFile.csv
+     */
+    private static final String BALLOT_HEADER = "username,course,index";
+
+    /**
+     * Header row of ballotWindowFlatFile.csv
+     */
+    private static final String WINDOW_HEADER = "open,close,seed,allocated";
+
+    /**
+     * Date Time Formatter for the ballot window
+     */
+    private static DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm", Locale.ENGLISH);
+
+    /**
+     * Empty Class Constructor
+     */
+    public BallotManager() {}
+
+    /**
+     * Opens a new ballot, discarding the bids of any earlier ballot.
+     *
+     * @param open                  when bidding starts
+     * @param close                 when bidding ends and the allocation may be run
+     * @param seed                  the seed of the lottery
+     *
+     * @return                      <code>true</code> if the operation was successful
+     */
+    public static boolean openBallot(LocalDateTime open, LocalDateTime close, long seed) {
+        if (!open.isBefore(close)) return false;
+        FlatFileLock windowLock = null;
+        FlatFileLock ballotLock = null;
+        try {
+            windowLock = FlatFileLock.acquire(windowFile);
+            ballotLock = FlatFileLock.acquire(ballotFile);
+            BallotManager.write(ballotFile, BALLOT_HEADER, new ArrayList<String>());
+            BallotManager.write(windowFile, WINDOW_HEADER, Collections.singletonList(
+                open.format(formatter) + "," + close.format(formatter) + "," + seed + ",false"));
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            FlatFileLock.release(ballotLock);
+            FlatFileLock.release(windowLock);
+        }
+    }
+
+    /**
+     * Returns the current ballot.
+     *
+     * @return                      the ballot window, or null if no ballot has been opened
+     */
+    public static Window getWindow() {
+        List<String> rows = BallotManager.read(windowFile);
+        if (rows == null || rows.isEmpty()) return null;
+        String[] row = rows.get(0).split(",");
+        return new Window(LocalDateTime.parse(row[0], formatter), LocalDateTime.parse(row[1], formatter),
+            Long.parseLong(row[2]), Boolean.parseBoolean(row[3]));
+    }
+
+    /**
+     * Returns whether requests to add a course are currently recorded as bids.
+     *
+     * @return                      <code>true</code> if a ballot is open for bidding
+     */
+    public static boolean isOpen() {
+        if (!new File(windowFile).exists()) return false;
+        Window window = BallotManager.getWindow();
+        return window != null && window.isOpen(LocalDateTime.now());
+    }
+
+    /**
+     * Returns whether bidding has closed but the allocation has not been run yet, during which no seat may be taken.
+     *
+     * @return                      <code>true</code> if a closed ballot is waiting to be allocated
+     */
+    public static boolean isAwaitingAllocation() {
+        if (!new File(windowFile).exists()) return false;
+        Window window = BallotManager.getWindow();
+        return window != null && window.isAwaitingAllocation(LocalDateTime.now());
+    }
+
+    /**
+     * Records a bid of a student for a course index.
+     * <p>
+     * Bidding again for another index of a course adds it as the next choice of index for the course, keeping the place
+     * of the course in the student's order of preference. The bid is appended to ballotFlatFile.csv, so the bids already
+     * recorded are only read to check for a repeated bid.
+     * </p>
+     *
+     * @param username              username of the student
+     * @param course                the course code
+     * @param index                 the index
+     *
+     * @return                      1 if the bid was recorded, 0 if the student had already bid for the index,
+     *                              -1 if it could not be recorded
+     */
+    public static int bid(String username, String course, String index) {
+        String user = username.toLowerCase();
+        FlatFileLock lock = null;
+        try {
+            lock = FlatFileLock.acquire(ballotFile);
+            List<String> rows = BallotManager.read(ballotFile);
+            if (rows == null) return -1;
+            String bid = user + "," + course + "," + index;
+            if (rows.contains(bid)) return 0;
+            if (!new File(ballotFile).exists()) BallotManager.write(ballotFile, BALLOT_HEADER, new ArrayList<String>());
+            try (FileWriter fw = new FileWriter(ballotFile, true)) {
+                fw.append(bid + "\n");
+            }
+            return 1;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return -1;
+        } finally {
+            FlatFileLock.release(lock);
+        }
+    }
+
+    /**
+     * Runs the allocation of the current ballot once bidding has closed.
+     * <p>
+     * The ballot is marked as allocated so that it is only run once, but only after both the rosters and the students
+     * have been written. The students are written only if none of them has changed since the allocation read them.
+     * Otherwise the rosters are put back as they were and the allocation is worked out again.
+     * </p>
+     *
+     * @return                      the number of seats allocated, or -1 if there is no closed ballot waiting to be
+     *                              allocated or the allocation could not be written
+     */
+    public static int allocate() {
+        FlatFileLock lock = null;
+        try {
+            lock = FlatFileLock.acquire(windowFile);
+            Window window = BallotManager.getWindow();
+            if (window == null || window.allocated || LocalDateTime.now().isBefore(window.close)) return -1;
+
+            Allocation allocation = null;
+            for (int attempt = 0; attempt < IndexManager.MAX_RETRIES && allocation == null; attempt++) {
+                allocation = BallotManager.tryAllocate(window.seed);
+            }
+            if (allocation == null) {
+                System.out.println("Failed to write the ballot after " + IndexManager.MAX_RETRIES
+                    + " attempts, the ballot has not been allocated.");
+                return -1;
+            }
+
+            BallotManager.write(windowFile, WINDOW_HEADER, Collections.singletonList(window.open.format(formatter) + ","
+                + window.close.format(formatter) + "," + window.seed + ",true"));
+            for (Map.Entry<String, ArrayList<String>> waitlisted : allocation.waitlisted.entrySet()) {
+                for (String key : waitlisted.getValue()) {
+                    WaitlistManager.subscribe(waitlisted.getKey(), "waitlist", key.split("/")[0], key.split("/")[1]);
+                }
+            }
+            return allocation.seats;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return -1;
+        } finally {
+            FlatFileLock.release(lock);
+        }
+    }
+
+    /**
+     * Works out and writes the allocation of the current bids, holding the locks of every index bid for.
+     *
+     * @param seed                  the seed of the lottery
+     *
+     * @return                      the allocation once its rosters and students are written, or null if an index or a
+     *                              student was changed by someone else before it was written, in which case no roster
+     *                              has changed
+     *
+     * @throws IllegalStateException if the rosters could not be put back after the students were not written
+     */
+    private static Allocation tryAllocate(long seed) {
+        LinkedHashMap<String, ArrayList<String>> bids = BallotManager.getBids();
+        TreeMap<String, TreeSet<String>> courses = new TreeMap<String, TreeSet<String>>();
+        for (ArrayList<String> keys : bids.values()) {
+            for (String key : keys) {
+                courses.computeIfAbsent(key.split("/")[0], c -> new TreeSet<String>()).add(key.split("/")[1]);
+            }
+        }
+        // courses in order, then indexes in order, is the order every other writer takes index locks in
+        ArrayList<ReentrantLock> held = new ArrayList<ReentrantLock>();
+        try {
+            for (Map.Entry<String, TreeSet<String>> course : courses.entrySet()) {
+                held.addAll(IndexManager.lockIndexes(course.getKey(), course.getValue().toArray(new String[0])));
+            }
+            Allocation allocation = BallotManager.plan(seed, bids);
+            LinkedHashMap<Index, String[][]> written = new LinkedHashMap<Index, String[][]>();
+            for (Index idx : allocation.indexes) {
+                Index old = new Index(idx.getCourse(), idx.getIndex());
+                written.put(idx, new String[][] {old.getEnrolledStudents(), old.getWaitlist()});
+            }
+            if (!Index.setRosters(allocation.indexes)) return null;
+            if (Student.setEnrolmentsIfUnchanged(allocation.students)) return allocation;
+
+            // a student changed after the allocation read them, and the index locks are still held, so the rosters just
+            // written are taken back and the allocation is worked out again
+            IndexManager.revertRosters(written);
+            return null;
+        } finally {
+            IndexManager.unlockIndexes(held);
+        }
+    }
+
+    /**
+     * Works out who is enrolled into and wait-listed for every index bid for, staging the changes on the indexes and
+     * students without writing them.
+     *
+     * @param seed                  the seed of the lottery
+     * @param bids                  the course/index keys each student bid for in order of preference, keyed by username
+     *
+     * @return                      the allocation
+     */
+    public static Allocation plan(long seed, Map<String, ArrayList<String>> bids) {
+        HashMap<String, Student> students = Student.createByUsernames(bids.keySet());
+        HashMap<String, long[]> bitmaps = new HashMap<String, long[]>();
+        AllocationSolver.Problem problem = new AllocationSolver.Problem();
+        TreeMap<String, Seats> seats = new TreeMap<String, Seats>();
+        for (ArrayList<String> keys : bids.values()) {
+            for (String key : keys) {
+                if (seats.containsKey(key)) continue;
+                Index idx = new Index(key.split("/")[0], key.split("/")[1]);
+                if (idx.getCourse() == null) continue;
+                seats.put(key, new Seats(idx));
+                problem.addIndex(idx.getCourse(), idx.getIndex(), idx.getIndexVacancy(), idx.getAcadUnits(),
+                    BallotManager.bitmap(key, bitmaps));
+            }
+        }
+
+        ArrayList<Student> applicants = new ArrayList<Student>();
+        ArrayList<Long> lottery = new ArrayList<Long>();
+        for (Map.Entry<String, ArrayList<String>> bid : bids.entrySet()) {
+            Student stud = students.get(bid.getKey());
+            if (stud == null) continue;
+            long[] timetable = new long[AllocationSolver.WORDS];
+            for (String held : stud.getStudentCourses().split(";")) {
+                if (held.equals("")) continue;
+                long[] lessons = BallotManager.bitmap(held, bitmaps);
+                for (int i = 0; i < timetable.length; i++) {
+                    timetable[i] |= lessons[i];
+                }
+            }
+            lottery.add(BallotManager.lotteryNumber(seed, bid.getKey()));
+            int id = problem.addStudent(stud.getUsername(), lottery.get(lottery.size() - 1), stud.getTotalAU(), timetable);
+            applicants.add(stud);
+
+            // the indexes of each course, courses in the order they were first bid for
+            LinkedHashMap<String, ArrayList<String>> courses = new LinkedHashMap<String, ArrayList<String>>();
+            for (String key : bid.getValue()) {
+                courses.computeIfAbsent(key.split("/")[0], c -> new ArrayList<String>()).add(key);
+            }
+            StudentManager sm = new StudentManager(stud);
+            for (Map.Entry<String, ArrayList<String>> course : courses.entrySet()) {
+                if (!sm.checkIfExistingCourse(course.getKey())) problem.addPreference(id, course.getValue());
+            }
+        }
+        AllocationSolver.Result result = AllocationSolver.solve(problem);
+
+        // students in lottery order, so that waitlists are in lottery order
+        ArrayList<Integer> order = new ArrayList<Integer>();
+        for (int id = 0; id < applicants.size(); id++) {
+            order.add(id);
+        }
+        order.sort(Comparator.comparing((Integer id) -> lottery.get(id))
+            .thenComparing(id -> applicants.get(id).getUsername().toLowerCase()));
+        Allocation allocation = new Allocation();
+        LinkedHashSet<Student> changed = new LinkedHashSet<Student>();
+        for (int id : order) {
+            Student stud = applicants.get(id);
+            for (String key : result.getAssigned(id)) {
+                seats.get(key).grant(stud, key);
+                allocation.enrolled.computeIfAbsent(stud.getUsername(), u -> new ArrayList<String>()).add(key);
+                allocation.seats++;
+                changed.add(stud);
+            }
+            for (String key : result.getUnplaced(id)) {
+                if (!seats.get(key).waitlist(stud, key)) continue;
+                allocation.waitlisted.computeIfAbsent(stud.getUsername(), u -> new ArrayList<String>()).add(key);
+                changed.add(stud);
+            }
+        }
+
+        TreeMap<String, Integer> granted = new TreeMap<String, Integer>();
+        for (Seats index : seats.values()) {
+            granted.merge(index.idx.getCourse(), index.granted, Integer::sum);
+        }
+        for (Seats index : seats.values()) {
+            if (index.granted == 0 && index.waitlisted == 0) continue;
+            index.idx.stageRoster(index.enrolled.toArray(new String[0]), index.waitlist.toArray(new String[0]),
+                index.vacancy, index.idx.getCourseVacancy() - granted.get(index.idx.getCourse()));
+            allocation.indexes.add(index.idx);
+        }
+        allocation.students.addAll(changed);
+        return allocation;
+    }
+
+    /**
+     * Returns the week bitmap of the lessons of an index, reading the lessons only once per allocation.
+     *
+     * @param key                   course/index key
+     * @param bitmaps               bitmaps already read, keyed by course/index
+     *
+     * @return                      the bitmap
+     */
+    private static long[] bitmap(String key, HashMap<String, long[]> bitmaps) {
+        return bitmaps.computeIfAbsent(key, ClashMatrix::bitmap);
+    }
+
+    /**
+     * Returns every bid of the current ballot.
+     *
+     * @return                      the course/index keys each student bid for in order of preference, keyed by username
+     */
+    public static LinkedHashMap<String, ArrayList<String>> getBids() {
+        LinkedHashMap<String, ArrayList<String>> bids = new LinkedHashMap<String, ArrayList<String>>();
+        List<String> rows = BallotManager.read(ballotFile);
+        if (rows == null) return bids;
+        for (String line : rows) {
+            String[] row = line.split(",");
+            ArrayList<String> keys = bids.computeIfAbsent(row[0], u -> new ArrayList<String>());
+            String key = Catalogue.indexKey(row[1], row[2]);
+            if (!keys.contains(key)) keys.add(key);
+        }
+        return bids;
+    }
+
+    /**
+     * Derives the lottery number of a student, lower numbers being served first.
+     *
+     * @param seed                  the seed of the ballot
+     * @param username              username of the student
+     *
+     * @return                      the lottery number, the same for every run with the same seed
+     */
+    private static long lotteryNumber(long seed, String username) {
+        return new SplittableRandom(seed ^ (username.toLowerCase().hashCode() * 0x9E3779B97F4A7C15L)).nextLong();
+    }
+
+    /**
+     * Reads every row of a flat file after its header.
+     *
+     * @param path                  address of the flat file
+     *
+     * @return                      the rows, empty if the flat file does not exist, or null if it cannot be read
+     */
+    private static List<String> read(String path) {
+        ArrayList<String> rows = new ArrayList<String>();
+        if (!new File(path).exists()) return rows;
+        try (BufferedReader br = new BufferedReader(new FileReader(path))) {
+            String line = br.readLine();
+            while ((line = br.readLine()) != null) {
+                if (!line.trim().equals("")) rows.add(line);
+            }
+            return rows;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Replaces a flat file with a header and rows, its lock already held.
+     *
+     * @param path                  address of the flat file
+     * @param header                the header row
+     * @param rows                  the rows after the header
+     *
+     * @throws IOException
+     */
+    private static void write(String path, String header, List<String> rows) throws IOException {
+        File tempFile = FlatFileLock.tempFile(path);
+        try {
+            try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(tempFile)))) {
+                pw.write(header + "\n");
+                for (String row : rows) {
+                    pw.write(row + "\n");
+                }
+            }
+            FlatFileLock.replace(tempFile, path);
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Window is the bidding period of a ballot.
+     */
+    public static class Window {
+        /**
+         * When bidding starts
+         */
+        private final LocalDateTime open;
+
+        /**
+         * When bidding ends
+         */
+        private final LocalDateTime close;
+
+        /**
+         * The seed of the lottery
+         */
+        private final long seed;
+
+        /**
+         * Whether the allocation has been run
+         */
+        private final boolean allocated;
+
+        /**
+         * Class Constructor specifying every column
+         */
+        Window(LocalDateTime open, LocalDateTime close, long seed, boolean allocated) {
+            this.open = open;
+            this.close = close;
+            this.seed = seed;
+            this.allocated = allocated;
+        }
+
+        /**
+         * @param now           the time being checked
+         *
+         * @return              <code>true</code> if bids are recorded at the time
+         */
+        public boolean isOpen(LocalDateTime now) {
+            return !this.allocated && !now.isBefore(this.open) && now.isBefore(this.close);
+        }
+
+        /**
+         * @param now           the time being checked
+         *
+         * @return              <code>true</code> if bidding has closed at the time but the allocation has not been run
+         */
+        public boolean isAwaitingAllocation(LocalDateTime now) {
+            return !this.allocated && !now.isBefore(this.close);
+        }
+
+        /**
+         * @return              when bidding ends
+         */
+        public LocalDateTime getClose() {
+            return this.close;
+        }
+
+        /**
+         * @return              the seed of the lottery
+         */
+        public long getSeed() {
+            return this.seed;
+        }
+
+        /**
+         * @return              <code>true</code> if the allocation has been run
+         */
+        public boolean isAllocated() {
+            return this.allocated;
+        }
+    }
+
+    /**
+     * Allocation is the outcome of a ballot.
+     */
+    public static class Allocation {
+        /**
+         * The course/index keys each enrolled student won, keyed by username
+         */
+        private final LinkedHashMap<String, ArrayList<String>> enrolled = new LinkedHashMap<String, ArrayList<String>>();
+
+        /**
+         * The course/index keys each wait-listed student was wait-listed for, keyed by username
+         */
+        private final LinkedHashMap<String, ArrayList<String>> waitlisted = new LinkedHashMap<String, ArrayList<String>>();
+
+        /**
+         * The number of seats allocated
+         */
+        private int seats = 0;
+
+        /**
+         * The indexes whose rosters changed, staged but not written
+         */
+        private final ArrayList<Index> indexes = new ArrayList<Index>();
+
+        /**
+         * The students who were enrolled or wait-listed, staged but not written
+         */
+        private final ArrayList<Student> students = new ArrayList<Student>();
+
+        /**
+         * @return              the course/index keys each enrolled student won, keyed by username
+         */
+        public Map<String, ArrayList<String>> getEnrolled() {
+            return Collections.unmodifiableMap(this.enrolled);
+        }
+
+        /**
+         * @return              the course/index keys each wait-listed student was wait-listed for, keyed by username
+         */
+        public Map<String, ArrayList<String>> getWaitlisted() {
+            return Collections.unmodifiableMap(this.waitlisted);
+        }
+
+        /**
+         * @return              the number of seats allocated
+         */
+        public int getSeats() {
+            return this.seats;
+        }
+    }
+
+    /**
+     * Seats is the state of one index while an allocation is staged.
+     */
+    private static class Seats {
+        /**
+         * The index as read before the allocation
+         */
+        final Index idx;
+
+        /**
+         * Names on the roster, growing as seats are given out
+         */
+        final ArrayList<String> enrolled = new ArrayList<String>();
+
+        /**
+         * Names on the waitlist, growing as students are wait-listed
+         */
+        final ArrayList<String> waitlist = new ArrayList<String>();
+
+        /**
+         * Seats left
+         */
+        int vacancy;
+
+        /**
+         * Number of students enrolled by the allocation
+         */
+        int granted = 0;
+
+        /**
+         * Number of students wait-listed by the allocation
+         */
+        int waitlisted = 0;
+
+        /**
+         * Class Constructor for an index before the allocation
+         */
+        Seats(Index idx) {
+            this.idx = idx;
+            for (String name : idx.getEnrolledStudents()) {
+                if (!name.trim().equals("")) this.enrolled.add(name);
+            }
+            for (String name : idx.getWaitlist()) {
+                if (!name.trim().equals("")) this.waitlist.add(name);
+            }
+            this.vacancy = idx.getIndexVacancy();
+        }
+
+        /**
+         * Enrols a student given a seat by the solver.
+         */
+        void grant(Student stud, String key) {
+            String courses = stud.getStudentCourses();
+            stud.stageEnrolment(courses.equals("") ? key : courses + ";" + key, stud.getTotalAU() + this.idx.getAcadUnits(),
+                stud.getWaitlist());
+            this.enrolled.add(stud.getName());
+            this.vacancy--;
+            this.granted++;
+        }
+
+        /**
+         * Puts a student left without a seat on the waitlist, unless they are already in the course or waiting, or would
+         * exceed the AU limit with the seats they were given.
+         *
+         * @return                  <code>true</code> if the student was wait-listed
+         */
+        boolean waitlist(Student stud, String key) {
+            if (new StudentManager(stud).checkIfExistingCourse(this.idx.getCourse())) return false;
+            if (stud.getTotalAU() + this.idx.getAcadUnits() > Student.AU_LIMIT) return false;
+            for (String name : this.waitlist) {
+                if (name.equalsIgnoreCase(stud.getName())) return false;
+            }
+            String waitlist = stud.getWaitlist();
+            stud.stageEnrolment(stud.getStudentCourses(), stud.getTotalAU(), waitlist.equals("") ? key : waitlist + ";" + key);
+            this.waitlist.add(stud.getName());
+            this.waitlisted++;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package classes.controllers;
+
+import java.io.*;
+import java.util.*;
+import classes.entities.*;
+
+/**
+ * ClashMatrix remembers whether each pair of indexes clashes, so the same question is answered from memory the next
+ * time any part of STARS asks it.
+ * <p>
+ * Every index looked at is given a small id, and keeps the lessons it was read with and two bit rows over the ids of
+ * other indexes: which of them it has been compared with, and which of those clash with it. The rows are filled in one
+ * pair at a time as questions are asked, so only the pairs that matter are ever worked out, and a repeated question is
+ * a lookup of two bits. Two indexes clash when a lesson of one overlaps a lesson of the other on the same day.
+ * </p>
+ * <p>
+ * Whenever indexFlatFile.csv or lessonFlatFile.csv changes, each index checks its sessions column and the day and times
+ * of its lessons again the next time it is asked about, and only an index whose lessons have actually changed forgets
+ * what it knew, along with the bits other indexes hold about it. This covers IndexManager.changeSessions and
+ * Lesson.setTime as well as changes made by another program, while an enrolment, which changes indexFlatFile.csv but
+ * not any lessons, leaves the matrix as it is.
+ * </p>
+ */
+
+public class ClashMatrix {
+    /**
+     * The id of every index looked at, keyed by course/index e.g. CZ2001/201
+     */
+    private static final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+
+    /**
+     * Every index looked at, by id
+     */
+    private static final ArrayList<Entry> entries = new ArrayList<Entry>();
+
+    /**
+     * The version of indexFlatFile.csv the sessions of the indexes were last read from
+     */
+    private static String indexVersion = null;
+
+    /**
+     * The version of lessonFlatFile.csv the lessons of the indexes were last read from
+     */
+    private static String lessonVersion = null;
+
+    /**
+     * Increased every time indexFlatFile.csv is seen to have changed
+     */
+    private static long indexEpoch = 0;
+
+    /**
+     * Increased every time lessonFlatFile.csv is seen to have changed
+     */
+    private static long lessonEpoch = 0;
+
+    /**
+     * The sessions column of every index, keyed by course/index, read from the flat file when the Catalogue is not
+     * loaded
+     */
+    private static HashMap<String, String> fileSessions = new HashMap<String, String>();
+
+    /**
+     * The day, start and end of every lesson, keyed by lesson id, read from the flat file when the Catalogue is not
+     * loaded
+     */
+    private static HashMap<String, String> fileLessons = new HashMap<String, String>();
+
+    /**
+     * Empty Class Constructor
+     */
+    public ClashMatrix() {}
+
+    /**
+     * Returns whether two indexes clash.
+     *
+     * @param key               course/index key of the first index
+     * @param otherKey          course/index key of the second index
+     *
+     * @return                  <code>true</code> if a lesson of one overlaps a lesson of the other, <code>false</code>
+     *                          otherwise or if either index does not exist
+     */
+    public static synchronized boolean clashes(String key, String otherKey) {
+        ClashMatrix.refresh();
+        Entry entry = ClashMatrix.entry(key);
+        Entry other = ClashMatrix.entry(otherKey);
+        if (entry.known.get(other.id)) return entry.clash.get(other.id);
+
+        boolean clash = entry != other && ClashMatrix.overlaps(entry.lessons, other.lessons);
+        entry.known.set(other.id);
+        other.known.set(entry.id);
+        if (clash) {
+            entry.clash.set(other.id);
+            other.clash.set(entry.id);
+        }
+        return clash;
+    }
+
+    /**
+     * Returns the week bitmap of an index, as built by AllocationSolver.
+     *
+     * @param key               course/index key of the index
+     *
+     * @return                  the bitmap, which must not be changed, empty if the index does not exist
+     */
+    public static synchronized long[] bitmap(String key) {
+        ClashMatrix.refresh();
+        Entry entry = ClashMatrix.entry(key);
+        if (entry.bitmap == null) entry.bitmap = AllocationSolver.toBitmap(entry.readable);
+        return entry.bitmap;
+    }
+
+    /**
+     * Notices whether either flat file has changed since it was last looked at.
+     */
+    private static void refresh() {
+        boolean loaded = Catalogue.isLoaded();
+        String version = loaded ? "v" + Catalogue.INDEXES.snapshot().getNumber()
+            : FlatFileTable.stateOf(Catalogue.INDEXES.getPath());
+        if (version == null || !version.equals(indexVersion)) {
+            indexVersion = version;
+            indexEpoch++;
+            fileSessions = loaded ? new HashMap<String, String>() : ClashMatrix.readSessions();
+        }
+        version = loaded ? "v" + Catalogue.LESSONS.snapshot().getNumber()
+            : FlatFileTable.stateOf(Catalogue.LESSONS.getPath());
+        if (version == null || !version.equals(lessonVersion)) {
+            lessonVersion = version;
+            lessonEpoch++;
+            fileLessons = loaded ? new HashMap<String, String>() : ClashMatrix.readLessons();
+        }
+    }
+
+    /**
+     * Returns the entry of an index, checking its lessons again if either flat file has changed.
+     */
+    private static Entry entry(String key) {
+        Integer id = ids.get(key);
+        if (id == null) {
+            id = entries.size();
+            ids.put(key, id);
+            entries.add(new Entry(id));
+        }
+        Entry entry = entries.get(id);
+
+        if (entry.indexEpoch != indexEpoch) {
+            String sessions = ClashMatrix.sessionsOf(key);
+            if (!sessions.equals(entry.sessions)) {
+                entry.sessions = sessions;
+                entry.lessonEpoch = -1;
+            }
+            entry.indexEpoch = indexEpoch;
+        }
+        if (entry.lessonEpoch != lessonEpoch) {
+            ArrayList<List<String>> dayTimes = new ArrayList<List<String>>();
+            for (String session : entry.sessions.split(";")) {
+                String lesson = ClashMatrix.lessonOf(session.trim());
+                if (lesson != null) dayTimes.add(Arrays.asList(lesson.split(",")));
+            }
+            if (!dayTimes.equals(entry.dayTimes)) ClashMatrix.forget(entry, dayTimes);
+            entry.lessonEpoch = lessonEpoch;
+        }
+        return entry;
+    }
+
+    /**
+     * Gives an index new lessons, clearing every bit known about it.
+     */
+    private static void forget(Entry entry, ArrayList<List<String>> dayTimes) {
+        for (int other = entry.known.nextSetBit(0); other >= 0; other = entry.known.nextSetBit(other + 1)) {
+            entries.get(other).known.clear(entry.id);
+            entries.get(other).clash.clear(entry.id);
+        }
+        entry.known.clear();
+        entry.clash.clear();
+        entry.dayTimes = dayTimes;
+        entry.bitmap = null;
+        entry.readable = new ArrayList<List<String>>();
+        entry.lessons = new ArrayList<int[]>();
+        for (List<String> dayTime : dayTimes) {
+            int[] lesson = ClashMatrix.toLesson(dayTime);
+            if (lesson == null) continue;
+            entry.readable.add(dayTime);
+            entry.lessons.add(lesson);
+        }
+    }
+
+    /**
+     * Returns a lesson as {day, start minute, end minute}, days as SymbolTable.DAYS ids.
+     *
+     * @param dayTime           the day, start and end of the lesson, times in 24 hour hhmm
+     *
+     * @return                  the lesson, or null if its times cannot be read, as a lesson that clashes with nothing
+     */
+    static int[] toLesson(List<String> dayTime) {
+        try {
+            int start = Integer.parseInt(dayTime.get(1).trim());
+            int end = Integer.parseInt(dayTime.get(2).trim());
+            return new int[] {SymbolTable.DAYS.idOf(dayTime.get(0)), start / 100 * 60 + start % 100,
+                end / 100 * 60 + end % 100};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns whether a lesson of one index overlaps a lesson of another on the same day.
+     *
+     * @param lessons           the lessons of one index, as returned by toLesson
+     * @param others            the lessons of the other index, as returned by toLesson
+     *
+     * @return                  <code>true</code> if any two lessons overlap
+     */
+    static boolean overlaps(ArrayList<int[]> lessons, ArrayList<int[]> others) {
+        for (int[] lesson : lessons) {
+            for (int[] other : others) {
+                if (lesson[0] == other[0] && lesson[1] < other[2] && other[1] < lesson[2]) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the sessions column of an index.
+     */
+    private static String sessionsOf(String key) {
+        if (!Catalogue.isLoaded()) return fileSessions.getOrDefault(key, "");
+        String row = Catalogue.INDEXES.get(key);
+        return row == null ? "" : FlatFileTable.column(row, 6);
+    }
+
+    /**
+     * Returns the day, start and end of a lesson as day,start,end, or null if there is no such lesson.
+     */
+    private static String lessonOf(String id) {
+        if (!Catalogue.isLoaded()) return fileLessons.get(id);
+        String row = Catalogue.LESSONS.get(id);
+        if (row == null) return null;
+        return FlatFileTable.column(row, 2) + "," + FlatFileTable.column(row, 3) + "," + FlatFileTable.column(row, 4);
+    }
+
+    /**
+     * Reads the sessions column of every index from indexFlatFile.csv.
+     */
+    private static HashMap<String, String> readSessions() {
+        HashMap<String, String> sessions = new HashMap<String, String>();
+        try (BufferedReader br = new BufferedReader(new FileReader(Catalogue.INDEXES.getPath()))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] row = line.split(",");
+                if (row.length < 7) continue;
+                sessions.putIfAbsent(Catalogue.indexKey(row[0], row[2]), row[6]);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return sessions;
+    }
+
+    /**
+     * Reads the day, start and end of every lesson from lessonFlatFile.csv.
+     */
+    private static HashMap<String, String> readLessons() {
+        HashMap<String, String> lessons = new HashMap<String, String>();
+        try (BufferedReader br = new BufferedReader(new FileReader(Catalogue.LESSONS.getPath()))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] row = line.split(",");
+                if (row.length < 5) continue;
+                lessons.putIfAbsent(row[0], row[2] + "," + row[3] + "," + row[4]);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return lessons;
+    }
+
+    /**
+     * Entry is one index of the matrix, with what is known about its clashes.
+     */
+    private static class Entry {
+        /**
+         * The id of the index, its bit in the rows of other indexes
+         */
+        private final int id;
+
+        /**
+         * The sessions column the lessons were read from
+         */
+        private String sessions = null;
+
+        /**
+         * Each lesson as {day, start, end} as read
+         */
+        private ArrayList<List<String>> dayTimes = null;
+
+        /**
+         * The lessons whose times can be read
+         */
+        private ArrayList<List<String>> readable = new ArrayList<List<String>>();
+
+        /**
+         * Each lesson as {day, start minute, end minute}, days as SymbolTable.DAYS ids
+         */
+        private ArrayList<int[]> lessons = new ArrayList<int[]>();
+
+        /**
+         * The week bitmap of the lessons, built when first asked for
+         */
+        private long[] bitmap = null;
+
+        /**
+         * The indexes this index has been compared with, by id
+         */
+        private final BitSet known = new BitSet();
+
+        /**
+         * The indexes this index clashes with, by id, out of those it has been compared with
+         */
+        private final BitSet clash = new BitSet();
+
+        /**
+         * The indexEpoch the sessions were last checked in
+         */
+        private long indexEpoch = -1;
+
+        /**
+         * The lessonEpoch the lessons were last checked in, or -1 if the sessions have changed since
+         */
+        private long lessonEpoch = -1;
+
+        /**
+         * Class Constructor for an index not yet read
+         */
+        Entry(int id) {
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package classes.controllers;
+
+import java.io.*;
+import java.util.*;
+import classes.entities.*;
+
+/**
+ * IndexFinder finds the indexes of a course that a student could move into or add straight away.
+ * <p>
+ * Every index has a bitmap of the half hours of the week its lessons take up, as in AllocationSolver, so an index fits
+ * a student's timetable when its bitmap shares no bit with those of the indexes the student holds. The bitmaps are
+ * kept by ClashMatrix between queries and built again only when the lessons of an index have changed. Vacancies are
+ * read from the Catalogue when it is loaded, so a query reads no flat file at all, and otherwise from one read of
+ * indexFlatFile.csv.
+ * </p>
+ * <p>
+ * Since lessons are compared by the half hours they take up, a lesson that does not start or end on the half hour is
+ * taken to fill the half hours it starts and ends in, so an index offered always passes checkTimeClash.
+ * </p>
+ */
+
+public class IndexFinder {
+    /**
+     * Empty Class Constructor
+     */
+    public IndexFinder() {}
+
+    /**
+     * Returns every index of a course with a vacancy whose lessons do not clash with a student's timetable.
+     * <p>
+     * If the student is already in the course, the index they hold is left out of both their timetable and the
+     * answer, so the indexes returned are the ones they could change to.
+     * </p>
+     *
+     * @param student           the student
+     * @param course            course code e.g. CZ2001
+     *
+     * @return                  the indexes in flat file order, empty if there are none or the course does not exist
+     */
+    public static ArrayList<String> findClashFree(Student student, String course) {
+        Map<String, String> rows = IndexFinder.readRows(Collections.singleton(course));
+
+        String courses = student.getStudentCourses();
+        HashSet<String> holding = new HashSet<String>(Arrays.asList(courses == null ? new String[0] : courses.split(";")));
+        long[] timetable = new long[AllocationSolver.WORDS];
+        for (String held : holding) {
+            if (held.equals("") || held.startsWith(course + "/")) continue;
+            long[] bitmap = ClashMatrix.bitmap(held);
+            for (int i = 0; i < timetable.length; i++) {
+                timetable[i] |= bitmap[i];
+            }
+        }
+
+        ArrayList<String> found = new ArrayList<String>();
+        for (Map.Entry<String, String> entry : rows.entrySet()) {
+            String key = entry.getKey();
+            String row = entry.getValue();
+            if (!key.startsWith(course + "/") || holding.contains(key)) continue;
+            try {
+                if (Integer.parseInt(FlatFileTable.column(row, 3).trim()) <= 0) continue;
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (!AllocationSolver.clashes(ClashMatrix.bitmap(key), timetable)) {
+                found.add(FlatFileTable.column(row, 2));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Reads the rows of the indexes of some courses from the Catalogue, or without it the rows of every index from one
+     * read of the flat file.
+     *
+     * @param courses           course codes e.g. CZ2001
+     *
+     * @return                  rows keyed by course/index in flat file order
+     */
+    static Map<String, String> readRows(Collection<String> courses) {
+        LinkedHashMap<String, String> rows = new LinkedHashMap<String, String>();
+        if (Catalogue.isLoaded()) {
+            FlatFileTable.Version version = Catalogue.INDEXES.snapshot();
+            for (String course : courses) {
+                for (String key : Catalogue.getIndexKeys(course)) {
+                    String row = version.get(key);
+                    if (row != null) rows.put(key, row);
+                }
+            }
+            return rows;
+        }
+        try (BufferedReader br = new BufferedReader(new FileReader(Catalogue.INDEXES.getPath()))) {
+            br.readLine();
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] row = line.split(",");
+                if (row.length < 3) continue;
+                rows.putIfAbsent(Catalogue.indexKey(row[0], row[2]), line);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return rows;
+    }
+}
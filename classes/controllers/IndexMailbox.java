@@ -0,0 +1,180 @@
+package classes.controllers;
+
+import classes.entities.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * IndexMailbox runs the changes to each course index one at a time, in the order they were sent.
+ * <p>
+ * When mailboxes are enabled, every change IndexManager.updateIndex makes to a single index is sent as a command to the
+ * mailbox of that index: enrolling and dropping a student, joining and leaving a waitlist, and changing the vacancies or
+ * lessons of the index. A mailbox has no thread of its own: once it has commands waiting it is scheduled on a shared
+ * pool, which runs its commands one after another. Commands for the same index are therefore never run at the same time
+ * and are applied in the order they were sent, so waitlist order is exactly the order in which students joined it, while
+ * mailboxes of different indexes progress independently on the other threads of the pool.
+ * </p>
+ * <p>
+ * Changes that write several indexes together do not go through the mailboxes, since a command must not wait on another
+ * index's mailbox: waitlist promotion by WaitlistManager.promoteWaitlist, swaps by StudentManager.rotateIndexes and the
+ * ballot allocation by BallotManager. They take the locks of their indexes with IndexManager.lockIndexes, which keeps
+ * them apart from one another, and write with Index.setRosters, whose write is refused if a mailbox command changed an
+ * index since it was read. Against the mailboxes they rely on that compare-and-retry, together with the index lock a
+ * command takes once its own first write has been refused.
+ * </p>
+ * <p>
+ * Mailboxes are enabled by starting the program with -Dstars.mailboxes=true, or by calling setEnabled. When they are
+ * disabled, commands run directly on the calling thread and IndexManager relies on compare-and-retry alone.
+ * </p>
+ */
+
+public class IndexMailbox {
+    /**
+     * The number of commands a mailbox runs before giving its pool thread to another mailbox
+     */
+    private static final int BATCH_SIZE = 32;
+
+    /**
+     * Whether changes to an index are sent to its mailbox
+     */
+    private static volatile boolean enabled = Boolean.getBoolean("stars.mailboxes");
+
+    /**
+     * The mailbox of every index that has been sent a command, keyed by course/index e.g. CZ2001/201
+     */
+    private static final ConcurrentHashMap<String, IndexMailbox> mailboxes = new ConcurrentHashMap<String, IndexMailbox>();
+
+    /**
+     * Threads shared by every mailbox, daemon threads so that they do not keep the program running
+     */
+    private static final ExecutorService pool = Executors.newFixedThreadPool(
+        Math.max(2, Runtime.getRuntime().availableProcessors()), command -> {
+            Thread thread = new Thread(command, "index-mailbox");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    /**
+     * The mailbox whose commands the current thread is running, if any
+     */
+    private static final ThreadLocal<IndexMailbox> running = new ThreadLocal<IndexMailbox>();
+
+    /**
+     * Commands waiting to be run, oldest first
+     */
+    private final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue<Runnable>();
+
+    /**
+     * Whether the mailbox is waiting for or running on a pool thread
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    /**
+     * Class Constructor for the mailbox of one index
+     */
+    private IndexMailbox() {}
+
+    /**
+     * Returns whether changes to an index are sent to its mailbox.
+     *
+     * @return                  <code>true</code> if mailboxes are enabled
+     */
+    public static boolean isEnabled() {
+        return IndexMailbox.enabled;
+    }
+
+    /**
+     * Enables or disables the mailboxes.
+     * <p>
+     * Commands already sent are still run by their mailboxes.
+     * </p>
+     *
+     * @param enabled           <code>true</code> to send changes to the mailboxes
+     */
+    public static void setEnabled(boolean enabled) {
+        IndexMailbox.enabled = enabled;
+    }
+
+    /**
+     * Sends a command to the mailbox of an index.
+     * <p>
+     * If mailboxes are disabled the command is run immediately on the calling thread.
+     * </p>
+     *
+     * @param course            course code of the index
+     * @param index             the index the command changes
+     * @param command           the change, returning its outcome
+     *
+     * @return                  the outcome of the command once it has been run
+     */
+    public static <T> CompletableFuture<T> send(String course, String index, Supplier<T> command) {
+        CompletableFuture<T> outcome = new CompletableFuture<T>();
+        Runnable task = () -> {
+            try {
+                outcome.complete(command.get());
+            } catch (RuntimeException e) {
+                outcome.completeExceptionally(e);
+            }
+        };
+        if (!IndexMailbox.enabled) {
+            task.run();
+            return outcome;
+        }
+        IndexMailbox mailbox = mailboxes.computeIfAbsent(Catalogue.indexKey(course, index), k -> new IndexMailbox());
+        if (running.get() == mailbox) {
+            // sent by a command of the same mailbox, which cannot wait for itself
+            task.run();
+            return outcome;
+        }
+        mailbox.commands.add(task);
+        mailbox.schedule();
+        return outcome;
+    }
+
+    /**
+     * Sends a command to the mailbox of an index and waits for it to be run.
+     *
+     * @param course            course code of the index
+     * @param index             the index the command changes
+     * @param command           the change, returning its outcome
+     *
+     * @return                  the outcome of the command
+     */
+    public static <T> T call(String course, String index, Supplier<T> command) {
+        try {
+            return IndexMailbox.send(course, index, command).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Puts the mailbox on the pool unless it is already there.
+     */
+    private void schedule() {
+        if (this.scheduled.compareAndSet(false, true)) {
+            pool.execute(this::drain);
+        }
+    }
+
+    /**
+     * Runs up to BATCH_SIZE waiting commands in order, then schedules the mailbox again if commands are still waiting.
+     */
+    private void drain() {
+        running.set(this);
+        try {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                Runnable command = this.commands.poll();
+                if (command == null) break;
+                command.run();
+            }
+        } finally {
+            running.remove();
+            this.scheduled.set(false);
+            // a command sent after the last poll would otherwise wait for the next send
+            if (!this.commands.isEmpty()) this.schedule();
+        }
+    }
+}
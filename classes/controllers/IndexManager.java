@@ -2,6 +2,9 @@ package classes.controllers;
 
 import classes.entities.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
 
 /**
  * IndexManager is a concrete class for interacting with Index, StudentManager and AdminManager.
@@ -11,11 +14,225 @@ import java.util.*;
  */
 
 public class IndexManager { 
+    /**
+     * One lock per course index, keyed by course/index e.g. CZ2001/201
+     */
+    private static final ConcurrentHashMap<String, ReentrantLock> indexLocks = new ConcurrentHashMap<String, ReentrantLock>();
+
+    /**
+     * The number of times updateIndex runs a change before giving up on a heavily contended index
+     */
+    public static final int MAX_RETRIES = 8;
+
+    /**
+     * The longest wait in milliseconds before the second attempt of a change, doubled for every further attempt
+     */
+    public static final long BACKOFF_MILLIS = Long.getLong("stars.backoffMillis", 2);
+
     /**
      * Empty Class Constructor
      */
     public IndexManager() {}
 
+    /**
+     * Applies a change to an index with compare-and-retry
+     * <p>
+     * The change is given a freshly read Index and writes through its setters. A write is refused if the index row has
+     * been changed by someone else since the Index was read, in which case the change is run again on a fresh Index.
+     * The first attempt holds no lock, so uncontended changes never block one another. Writes that arrive together are
+     * committed as one batch in which only one change per row can win, so after a refused write the change is retried
+     * holding the lock of the index, and the changes that lost a race then take turns instead of colliding again. Before
+     * each retry the change waits a random time of up to BACKOFF_MILLIS, doubled with every attempt, so that writers in
+     * other programs, which do not take the lock, stop colliding too. The change should make a single write, so that a
+     * refused write leaves nothing half done.
+     * </p>
+     * <p>
+     * When IndexMailbox is enabled the change is sent to the mailbox of the index instead, so changes to the same index
+     * run one at a time in the order they were made and retries are only needed against writers outside the mailboxes.
+     * A change must then not wait on another index's mailbox.
+     * </p>
+     * 
+     * @param course            name of the course being modified
+     * @param index             index of the course being modified
+     * @param change            applies the change, returning <code>false</code> if the change was not made
+     * 
+     * @return                  <code>true</code> if the change was written
+     */
+    public static boolean updateIndex(String course, String index, Predicate<Index> change) {
+        return IndexManager.tryUpdateIndex(course, index, change) == 1;
+    }
+
+    /**
+     * Applies a change to an index with compare-and-retry as updateIndex does, telling a change that was turned down
+     * apart from one that kept losing to other writes.
+     * 
+     * @param course            name of the course being modified
+     * @param index             index of the course being modified
+     * @param change            applies the change, returning <code>false</code> if the change was not made
+     * 
+     * @return                  1 if the change was written,
+     *                          0 if the index does not exist or the change turned itself down,
+     *                          -1 if every one of MAX_RETRIES attempts lost to another write
+     */
+    public static int tryUpdateIndex(String course, String index, Predicate<Index> change) {
+        int outcome = IndexMailbox.call(course, index, () -> IndexManager.retryIndex(course, index, change));
+        if (outcome == -1) {
+            System.out.println("Gave up changing " + course + "/" + index + " after " + MAX_RETRIES + " attempts.");
+        }
+        return outcome;
+    }
+
+    /**
+     * Runs a change of updateIndex on the calling thread, retrying it until its write is not refused
+     * 
+     * @param course            name of the course being modified
+     * @param index             index of the course being modified
+     * @param change            applies the change, returning <code>false</code> if the change was not made
+     * 
+     * @return                  the outcome as returned by tryUpdateIndex
+     */
+    private static int retryIndex(String course, String index, Predicate<Index> change) {
+        for (int attempt = 0; attempt < MAX_RETRIES; attempt++) {
+            if (attempt > 0) IndexManager.backoff(attempt);
+            List<ReentrantLock> held = attempt == 0 ? new ArrayList<ReentrantLock>() : IndexManager.lockIndexes(course, index);
+            try {
+                if (!Index.checkIndex(course, index)) return 0;
+                Index idx = new Index(course, index);
+                if (change.test(idx)) return 1;
+                // the change turned itself down rather than losing to another write
+                if (!idx.isStale()) return 0;
+            } finally {
+                IndexManager.unlockIndexes(held);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Waits a random time before another attempt of a change whose write was refused
+     * 
+     * @param attempt           the number of attempts already made
+     */
+    private static void backoff(int attempt) {
+        long limit = BACKOFF_MILLIS << Math.min(attempt - 1, 16);
+        if (limit <= 0) return;
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(limit + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Locks several indexes of a course for an operation that changes all of them together
+     * <p>
+     * Locks are always taken in course/index order, so two operations locking overlapping indexes cannot deadlock.
+     * Every lock returned must be released with unlockIndexes.
+     * </p>
+     * 
+     * @param course            course code of the indexes
+     * @param indexes           the indexes being locked, duplicates are locked once
+     * 
+     * @return                  the locks held, in the order they were taken
+     */
+    public static List<ReentrantLock> lockIndexes(String course, String... indexes) {
+        TreeSet<String> keys = new TreeSet<String>();
+        for (String index : indexes) {
+            keys.add(Catalogue.indexKey(course, index));
+        }
+        ArrayList<ReentrantLock> held = new ArrayList<ReentrantLock>();
+        for (String key : keys) {
+            ReentrantLock lock = indexLocks.computeIfAbsent(key, k -> new ReentrantLock());
+            lock.lock();
+            held.add(lock);
+        }
+        return held;
+    }
+
+    /**
+     * Releases locks taken by lockIndexes
+     * 
+     * @param held              the locks returned by lockIndexes
+     */
+    public static void unlockIndexes(List<ReentrantLock> held) {
+        for (int i = held.size() - 1; i >= 0; i--) {
+            held.get(i).unlock();
+        }
+    }
+
+    /**
+     * Takes back rosters that were written by an operation whose students then could not be written, with the locks of
+     * the indexes held
+     * <p>
+     * Every index is read again and only the operation's own changes are taken out of it: students it put on the
+     * enrolled list or waitlist are taken off, with their seats given back, and students it took off are put back in
+     * their old places. Changes made to the indexes since by writers that do not take the index locks, such as other
+     * programs, are kept. A write refused because an index changed yet again is retried as in updateIndex. The rosters
+     * would otherwise list students whose rows do not have the enrolment, so running out of attempts is fatal.
+     * </p>
+     * 
+     * @param written           the indexes as written, each with the enrolled list and waitlist it was read with
+     * 
+     * @throws IllegalStateException if the rosters could not be put back within MAX_RETRIES attempts
+     */
+    static void revertRosters(Map<Index, String[][]> written) {
+        for (int attempt = 0; attempt < MAX_RETRIES; attempt++) {
+            if (attempt > 0) IndexManager.backoff(attempt);
+            ArrayList<Index> fresh = new ArrayList<Index>();
+            for (Map.Entry<Index, String[][]> entry : written.entrySet()) {
+                Index idx = new Index(entry.getKey().getCourse(), entry.getKey().getIndex());
+                if (idx.getCourse() == null) continue;
+                String[] enrolled = IndexManager.revert(idx.getEnrolledStudents(), entry.getValue()[0],
+                    entry.getKey().getEnrolledStudents());
+                String[] waitlist = IndexManager.revert(idx.getWaitlist(), entry.getValue()[1], entry.getKey().getWaitlist());
+                int freed = IndexManager.names(idx.getEnrolledStudents()).size() - enrolled.length;
+                idx.stageRoster(enrolled, waitlist, idx.getIndexVacancy() + freed, idx.getCourseVacancy());
+                fresh.add(idx);
+            }
+            if (Index.setRosters(fresh)) return;
+        }
+        TreeSet<String> courses = new TreeSet<String>();
+        for (Index idx : written.keySet()) courses.add(idx.getCourse());
+        throw new IllegalStateException("Failed to restore the rosters of " + String.join(", ", courses) + " after "
+            + MAX_RETRIES + " attempts, they list students whose rows were not written");
+    }
+
+    /**
+     * Takes an operation's changes out of a list of students as it is now
+     * 
+     * @param current           the list as it is now
+     * @param before            the list before the operation
+     * @param after             the list as the operation wrote it
+     * 
+     * @return                  the list in its order before the operation, without blank entries, followed by students
+     *                          added since by someone else
+     */
+    private static String[] revert(String[] current, String[] before, String[] after) {
+        LinkedHashSet<String> now = IndexManager.names(current);
+        LinkedHashSet<String> was = IndexManager.names(before);
+        LinkedHashSet<String> written = IndexManager.names(after);
+        ArrayList<String> reverted = new ArrayList<String>();
+        for (String name : was) {
+            // taken off by the operation, or still there
+            if (!written.contains(name) || now.contains(name)) reverted.add(name);
+        }
+        for (String name : now) {
+            if (!was.contains(name) && !written.contains(name)) reverted.add(name);
+        }
+        return reverted.toArray(new String[0]);
+    }
+
+    /**
+     * Returns the trimmed, non-blank entries of a list of students in order
+     */
+    private static LinkedHashSet<String> names(String[] list) {
+        LinkedHashSet<String> names = new LinkedHashSet<String>();
+        for (String name : list) {
+            if (!name.trim().equals("")) names.add(name.trim());
+        }
+        return names;
+    }
+
     /**
      * Calls Index to add a new course
      * 
@@ -116,19 +333,20 @@ public class IndexManager {
      * @param index             index of the course being modified
      * @param indexVacancy      new number of vacancies of the index
      * 
-     * @return                  <code>true</code> if the operation was successful
+     * @return                  the number of vacancies added, taken from the row the change was written to,
+     *                          0 if the vacancies did not go up, or -1 if the operation failed
      */
-    public static boolean changeIndexVacancy(String course, String index, int indexVacancy) {
-        if (!Index.checkIndex(course, index)) {return false;} // index does not exist, cannot change index vacancy
-
-        Index idx = new Index(course, index);
-        int valueToAdd = indexVacancy-idx.getIndexVacancy();
-		int newCourseVacancy = idx.getCourseVacancy() + valueToAdd;
-
-        // change index and course vacancies accordingly
-        idx.setIndexVacancy(indexVacancy);
-        idx.setCourseVacancy(newCourseVacancy);
-        return true;
+    public static int changeIndexVacancy(String course, String index, int indexVacancy) {
+        int[] added = new int[1];
+        boolean result = IndexManager.updateIndex(course, index, idx -> {
+            int valueToAdd = indexVacancy-idx.getIndexVacancy();
+            int newCourseVacancy = idx.getCourseVacancy() + valueToAdd;
+            added[0] = Math.max(0, valueToAdd);
+
+            // change index and course vacancies accordingly
+            return idx.setVacancies(indexVacancy, newCourseVacancy);
+        });
+        return result ? added[0] : -1;
     }
 
     /**
@@ -141,33 +359,25 @@ public class IndexManager {
      * @return                  <code>true</code> if the operation was successful
      */
     public static boolean addEnrolled(String course, String index, String studentName) {
-        //check if index exists
-        if (!Index.checkIndex(course, index)) {return false;}
-
-        Index idx = new Index(course, index);
-        
-        //check if index has vacancies
-        if (idx.getIndexVacancy() == 0) {return false;}
-        
-        //add student to enrolled array
-        String[] studentArr = idx.getEnrolledStudents();
-        LinkedList<String> newStudentLL = new LinkedList<String>();
-        for(int i=0;i<studentArr.length;i++) {
-            newStudentLL.add(studentArr[i]);
-            if(studentArr[i].equals(studentName)) return false; // student alr exists, cannot add again
-        }
-        newStudentLL.add(studentName);
-        String[] newStudentArr = newStudentLL.toArray(studentArr);
-        String newStudentList = String.join(";",newStudentArr);
-
-        // change index and course vacancies accordingly
-        int newCourseVacancy = idx.getCourseVacancy() - 1;
-        int newIndexVacancy = idx.getIndexVacancy() - 1;
-        idx.setEnrolled(newStudentArr, newStudentList);
-        idx.setCourseVacancy(newCourseVacancy);
-        idx.setIndexVacancy(newIndexVacancy);
-        
-        return true;
+        return IndexManager.updateIndex(course, index, idx -> {
+            //check if index has vacancies
+            if (idx.getIndexVacancy() == 0) {return false;}
+            
+            //add student to enrolled array
+            String[] studentArr = idx.getEnrolledStudents();
+            LinkedList<String> newStudentLL = new LinkedList<String>();
+            for(int i=0;i<studentArr.length;i++) {
+                newStudentLL.add(studentArr[i]);
+                if(studentArr[i].equals(studentName)) return false; // student alr exists, cannot add again
+            }
+            newStudentLL.add(studentName);
+            String[] newStudentArr = newStudentLL.toArray(studentArr);
+
+            // change index and course vacancies accordingly
+            int newCourseVacancy = idx.getCourseVacancy() - 1;
+            int newIndexVacancy = idx.getIndexVacancy() - 1;
+            return idx.setRoster(newStudentArr, idx.getWaitlist(), newIndexVacancy, newCourseVacancy);
+        });
     }
     
     /**
@@ -180,30 +390,23 @@ public class IndexManager {
      * @return                  <code>true</code> if the operation was successful
      */
     public static boolean removeEnrolled(String course, String index, String studentName) {
-        if (!Index.checkIndex(course, index)) {return false;}
+        return IndexManager.updateIndex(course, index, idx -> {
+            boolean studentExists = false;
+            //remove student
+            String[] studentArr = idx.getEnrolledStudents();
+            ArrayList<String> newStudentArrList = new ArrayList<String>();
+            for(int i=0;i<studentArr.length;i++) {
+                if(!studentArr[i].equals(studentName))
+                    newStudentArrList.add(studentArr[i]);
+                else studentExists = true;
+            }
+            if (!studentExists) return false;  // returns false is student does not exist, no change to file
+            String[] newStudentArr = newStudentArrList.toArray(new String[0]);
 
-        Index idx = new Index(course, index);
-        boolean studentExists = false;
-		//remove student
-        String[] studentArr = idx.getEnrolledStudents();
-        ArrayList<String> newStudentArrList = new ArrayList<String>();
-        for(int i=0;i<studentArr.length;i++) {
-            if(!studentArr[i].equals(studentName))
-                newStudentArrList.add(studentArr[i]);
-            else studentExists = true;
-        }
-        String[] newStudentArr = new String[newStudentArrList.size()];
-        for (int i=0; i<newStudentArrList.size(); i++) {
-            newStudentArr[i] = newStudentArrList.get(i);
-        }
-        String newStudentList = String.join(";",newStudentArr);
-
-        int newCourseVacancy = idx.getCourseVacancy() + 1;
-        int newIndexVacancy = idx.getIndexVacancy() + 1;
-        idx.setEnrolled(newStudentArr,newStudentList);
-        idx.setCourseVacancy(newCourseVacancy);
-        idx.setIndexVacancy(newIndexVacancy);
-		return studentExists;  // returns false is student does not exist, no change to file
+            int newCourseVacancy = idx.getCourseVacancy() + 1;
+            int newIndexVacancy = idx.getIndexVacancy() + 1;
+            return idx.setRoster(newStudentArr, idx.getWaitlist(), newIndexVacancy, newCourseVacancy);
+        });
     }
 
     /**
@@ -216,30 +419,26 @@ public class IndexManager {
      * @return                  <code>true</code> if the operation was successful
      */
     public static boolean addWaitlist(String course, String index, String studentName) {
-        if (!Index.checkIndex(course, index)) {return false;}
-        Index idx = new Index(course, index);
-
-        String[] waitlistArr = idx.getWaitlist();
-        LinkedList<String> newWaitlistLL = new LinkedList<String>();
-        if(waitlistArr[0].equals("")) {
-            newWaitlistLL.add(studentName);
-            String[] newWaitlistArr = newWaitlistLL.toArray(waitlistArr);
-            String newWaitlistList = String.join("",newWaitlistArr);
-            idx.setWaitlist(newWaitlistArr, newWaitlistList);
-        } 
-        else {
-            for(int i=0;i<waitlistArr.length;i++) {
-                newWaitlistLL.add(waitlistArr[i]);
-                if(waitlistArr[i].equals(studentName)) return false; // student alr exists, cannot add again
+        return IndexManager.updateIndex(course, index, idx -> {
+            String[] waitlistArr = idx.getWaitlist();
+            LinkedList<String> newWaitlistLL = new LinkedList<String>();
+            if(waitlistArr[0].equals("")) {
+                newWaitlistLL.add(studentName);
+                String[] newWaitlistArr = newWaitlistLL.toArray(waitlistArr);
+                String newWaitlistList = String.join("",newWaitlistArr);
+                return idx.setWaitlist(newWaitlistArr, newWaitlistList);
+            } 
+            else {
+                for(int i=0;i<waitlistArr.length;i++) {
+                    newWaitlistLL.add(waitlistArr[i]);
+                    if(waitlistArr[i].equals(studentName)) return false; // student alr exists, cannot add again
+                }
+                newWaitlistLL.add(studentName);
+                String[] newWaitlistArr = newWaitlistLL.toArray(waitlistArr);
+                String newWaitlistList = String.join(";",newWaitlistArr);
+                return idx.setWaitlist(newWaitlistArr, newWaitlistList);
             }
-            newWaitlistLL.add(studentName);
-            String[] newWaitlistArr = newWaitlistLL.toArray(waitlistArr);
-            String newWaitlistList = String.join(";",newWaitlistArr);
-            idx.setWaitlist(newWaitlistArr, newWaitlistList);
-        }
-       
-
-        return true;
+        });
     }
 
     /**
@@ -252,22 +451,16 @@ public class IndexManager {
      * @return                  <code>true</code> if the operation was successful
      */
     public static boolean removeWaitlistStudent(String course, String index, int position) {
-        if (!Index.checkIndex(course, index)) {return false;} // index does not exist, cannot remove waitlist
-
-        Index idx = new Index(course, index);
-
-        String[] waitlistArr = idx.getWaitlist();
-        ArrayList<String> newWaitlistArray = new ArrayList<String>();
-        for(int j=0;j<waitlistArr.length;j++) { // remove the first student
-            if (j != position) newWaitlistArray.add(waitlistArr[j]);
-        }
-        String[] newWaitlistArr = new String[newWaitlistArray.size()];
-        for (int k=0; k<newWaitlistArray.size(); k++) {
-            newWaitlistArr[k] = newWaitlistArray.get(k);
-        }
-        String newWaitlistList = String.join(";",newWaitlistArr);
-        idx.setWaitlist(newWaitlistArr, newWaitlistList);
-        return true;
+        return IndexManager.updateIndex(course, index, idx -> {
+            String[] waitlistArr = idx.getWaitlist();
+            ArrayList<String> newWaitlistArray = new ArrayList<String>();
+            for(int j=0;j<waitlistArr.length;j++) { // remove the first student
+                if (j != position) newWaitlistArray.add(waitlistArr[j]);
+            }
+            String[] newWaitlistArr = newWaitlistArray.toArray(new String[0]);
+            String newWaitlistList = String.join(";",newWaitlistArr);
+            return idx.setWaitlist(newWaitlistArr, newWaitlistList);
+        });
     }
 
     /**
@@ -280,24 +473,21 @@ public class IndexManager {
      * @return                  <code>true</code> if the operation was successful
      */
     public static boolean changeSessions(String course, String index, int[] newSessions) {
-        if (!Index.checkIndex(course, index)) {return false;} // index does not exist, cannot change sessions
-
-        Index idx = new Index(course, index);
-    
-        // only has add
-		String[] sessionArr = idx.getSessions();
-		LinkedList<String> newSessionLL = new LinkedList<String>();
-        for(int i=0;i<sessionArr.length;i++) {
-            newSessionLL.add(sessionArr[i]);
-        }
-        for(int i=0;i<newSessions.length; i++) {
-            newSessionLL.add(Integer.toString(newSessions[i]));
-        }
+        return IndexManager.updateIndex(course, index, idx -> {
+            // only has add
+            String[] sessionArr = idx.getSessions();
+            LinkedList<String> newSessionLL = new LinkedList<String>();
+            for(int i=0;i<sessionArr.length;i++) {
+                newSessionLL.add(sessionArr[i]);
+            }
+            for(int i=0;i<newSessions.length; i++) {
+                newSessionLL.add(Integer.toString(newSessions[i]));
+            }
 
-        String[] newSessionArr = newSessionLL.toArray(sessionArr); 
-        String newSessionList = String.join(";",newSessionArr);
-        idx.setSessions(newSessionArr, newSessionList);
-        return true; 
+            String[] newSessionArr = newSessionLL.toArray(sessionArr); 
+            String newSessionList = String.join(";",newSessionArr);
+            return idx.setSessions(newSessionArr, newSessionList);
+        });
     }
 
     /**
@@ -327,9 +517,10 @@ public class IndexManager {
      */
     public static ArrayList<ArrayList<String>> getTimetableDetails(String course, String index) {
         ArrayList<ArrayList<String>> SessionMatrix = new ArrayList<ArrayList<String>>();
-        if (!Index.checkIndex(course, index)) {return SessionMatrix;}  // index does not exist
-
+        // read the index row once, so the sessions and academic units come from the same version of it
         Index idx = new Index(course, index);
+        if (idx.getCourse() == null) {return SessionMatrix;}  // index does not exist
+
         String[] sessionArr = idx.getSessions();
 
         for(int i=0;i<sessionArr.length;i++) {
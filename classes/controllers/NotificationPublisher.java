@@ -3,6 +3,7 @@ package classes.controllers;
 import java.io.*;
 import java.util.*;
 import java.lang.reflect.*;
+import classes.entities.*;
 
 //IMPORTANT: distinguish between different course waitlists
 
@@ -36,7 +37,9 @@ public class NotificationPublisher {
         // add students by username and notif type (interested to get notification about waitlist)
         // e.g. chew0403,waitlist,email
         
+    	FlatFileLock lock = null;
     	try {
+	        lock = FlatFileLock.acquire(notificationFile);
 	        FileWriter pw = new FileWriter(notificationFile, true); 
 	        pw.append(username);
 	        pw.append(",");
@@ -51,8 +54,11 @@ public class NotificationPublisher {
 	        pw.append("\n");
 	        pw.flush();
 	        pw.close();
+			Catalogue.appended(notificationFile, username + "," + notificationType + "," + course + "," + index + ",email");
     	} catch (IOException e) {
     		System.out.println("Failed to add student to notification list.");
+    	} finally {
+	        FlatFileLock.release(lock);
     	}
     	
     }
@@ -72,37 +78,77 @@ public class NotificationPublisher {
     public static void unsubscribe(String username, String notificationType, String course, String index){
         // get unsubscribed from email notification
         // e.g. not on waitlist anymore
-        
+		NotificationPublisher.unsubscribeAll(Collections.singleton(username), notificationType, course, index);
+    }
+
+	/**
+	 * Removes several students from notificationList.csv flat file in a single rewrite
+	 * <p>
+	 * Should be called after a batch of students is removed from the same waitlist
+	 * </p>
+	 * 
+	 * @param usernames 			usernames of the students
+	 * @param notificationType		reason for the notification e.g. waitlist
+	 * @param course				the course whose waitlist the students are being removed from
+	 * @param index					the course index whose waitlist the students are being removed from	
+	 */
+    public static void unsubscribeAll(Collection<String> usernames, String notificationType, String course, String index){
+		NotificationPublisher.unsubscribeAll(Collections.singletonMap(course + "/" + index, usernames), notificationType);
+	}
+
+	/**
+	 * Removes students from the notification lists of several indexes in a single rewrite of notificationList.csv
+	 * <p>
+	 * Should be called after a batch of students is removed from the waitlists of several indexes
+	 * </p>
+	 * 
+	 * @param usernames 			usernames of the students being removed, keyed by course/index e.g. CZ2001/201
+	 * @param notificationType		reason for the notification e.g. waitlist
+	 */
+    public static void unsubscribeAll(Map<String, ? extends Collection<String>> usernames, String notificationType){
+		HashMap<String, HashSet<String>> toRemove = new HashMap<String, HashSet<String>>();
+		for (Map.Entry<String, ? extends Collection<String>> removal : usernames.entrySet()) {
+			if (!removal.getValue().isEmpty()) toRemove.put(removal.getKey(), new HashSet<String>(removal.getValue()));
+		}
+		if (toRemove.isEmpty()) return;
     	File inputFile = new File(notificationFile);
-    	File tempFile = new File("tempNotif.csv");
+    	File tempFile = null;
     	String currentLine;
     	String curUsername;
 		String curType;
 		String curCourse;
 		String curIndex;
 
+    	FlatFileLock lock = null;
     	try {
+    		lock = FlatFileLock.acquire(notificationFile);
+    		tempFile = FlatFileLock.tempFile(notificationFile);
     		BufferedReader reader = new BufferedReader(new FileReader(inputFile));
         	BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile));
+			ArrayList<String> written = new ArrayList<String>();
         	while((currentLine = reader.readLine()) != null) {
         	    // trim newline when comparing with lineToRemove
         	    curUsername = currentLine.trim().split(",")[0];
 				curType = currentLine.trim().split(",")[1];
 				curCourse = currentLine.trim().split(",")[2];
 				curIndex = currentLine.trim().split(",")[3];
-				if(curUsername.equals(username) && curType.equals(notificationType) 
-					&& curCourse.equals(course) && curIndex.equals(index)) continue;
+				HashSet<String> removed = toRemove.get(curCourse + "/" + curIndex);
+				if(removed != null && removed.contains(curUsername) && curType.equals(notificationType)) continue;
         	    writer.write(currentLine + System.getProperty("line.separator"));
+				written.add(currentLine);
         	}
         	writer.close(); 
         	reader.close(); 
+			FlatFileLock.replace(tempFile, notificationFile);
+			Catalogue.rewritten(notificationFile, written);
     	} catch (FileNotFoundException e) {
     		System.out.println("Unsubscribe failed!");
     	} catch (IOException f) {
     		System.out.println("Unsubscribe failed!");
+    		if (tempFile != null) tempFile.delete();
+    	} finally {
+    		FlatFileLock.release(lock);
     	}
-    
-    	boolean successful = tempFile.renameTo(inputFile);
     }
 	
 	/**
@@ -122,6 +168,16 @@ public class NotificationPublisher {
     	String currentLine;
     	String curUsername;
     	String notifType;
+		if (Catalogue.isLoaded()) {
+			for (String subscription : Catalogue.getSubscriptions(username)) {
+				notifType = subscription.trim().split(",")[1];
+				if (notifType.equals(notificationType)) {
+					STARSSubscriber st = new emailSubscriber(username);
+					st.sendMessage(notificationType, message);
+				}
+			}
+			return;
+		}
     	try {
     		BufferedReader reader = new BufferedReader(new FileReader(inputFile));
     		while((currentLine = reader.readLine()) != null) {
@@ -141,4 +197,49 @@ public class NotificationPublisher {
     }
 
 
+	/**
+	 * Notifies several subscribers in a single pass over their subscriptions
+	 * <p>
+	 * Each subscriber is sent their message once, however many subscriptions of the type they have.
+	 * </p>
+	 * 
+	 * @param messages				the content of the message being sent, keyed by username of the student subscriber
+	 * @param notificationType		reason for the notification e.g. waitlist
+	 */
+    public static void notifyAll(Map<String, String> messages, String notificationType) {
+		if (messages.isEmpty()) return;
+		LinkedHashSet<String> recipients = new LinkedHashSet<String>();
+		if (Catalogue.isLoaded()) {
+			for (String username : messages.keySet()) {
+				for (String subscription : Catalogue.getSubscriptions(username)) {
+					if (subscription.trim().split(",")[1].equals(notificationType)) recipients.add(username);
+				}
+			}
+		} else {
+	    	try {
+	    		BufferedReader reader = new BufferedReader(new FileReader(notificationFile));
+				String currentLine;
+	    		while((currentLine = reader.readLine()) != null) {
+	    			String curUsername = currentLine.trim().split(",")[0];
+					String notifType = currentLine.trim().split(",")[1];
+	    			if (messages.containsKey(curUsername) && notifType.equals(notificationType)) recipients.add(curUsername);
+	    		}
+	    		reader.close(); 
+	    	} catch (IOException e) {
+	    		System.out.println("Failed to notify subscriber!");
+	    	}
+		}
+
+		// one failed message must not stop the rest of the batch
+		for (String username : recipients) {
+			try {
+				STARSSubscriber st = new emailSubscriber(username);
+				st.sendMessage(notificationType, messages.get(username));
+			} catch (RuntimeException e) {
+				System.out.println("Failed to notify subscriber!");
+			}
+		}
+    }
+
+
 }
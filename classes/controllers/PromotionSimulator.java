@@ -0,0 +1,500 @@
+package classes.controllers;
+
+import java.io.*;
+import java.util.*;
+import classes.entities.*;
+
+/**
+ * PromotionSimulator works out which waitlist promotions a set of proposed changes would lead to, without making them.
+ * <p>
+ * A simulation runs against a Baseline, a copy of the index, student and lesson rows taken once. With the Catalogue
+ * loaded the Baseline is made of its immutable table versions and taking it reads nothing, otherwise the flat files are
+ * read once. A Baseline can be used for any number of simulations.
+ * </p>
+ * <p>
+ * Each simulation lays a copy-on-write layer over the Baseline: an index or student becomes an object the first time it
+ * is needed and every change is staged on that object, so the rows of the Baseline are shared and never changed. The
+ * proposed changes are applied to the layer, and then the WaitlistManager promotion chain is run from every index given
+ * more vacancies, as changeIndexVacancy would. Clashes are checked minute by minute with the same overlap test as
+ * ClashMatrix, on the lesson rows of the Baseline, so nothing is read or written while the simulation runs.
+ * </p>
+ */
+
+public class PromotionSimulator {
+    /**
+     * Empty Class Constructor
+     */
+    public PromotionSimulator() {}
+
+    /**
+     * Takes a copy of the current indexes, students and lessons to simulate against.
+     *
+     * @return                  the baseline
+     */
+    public static Baseline baseline() {
+        return new Baseline(PromotionSimulator.rows(Catalogue.INDEXES), PromotionSimulator.rows(Catalogue.STUDENTS),
+            PromotionSimulator.rows(Catalogue.LESSONS));
+    }
+
+    /**
+     * Simulates the promotions a set of proposed changes would lead to.
+     *
+     * @param baseline          the indexes, students and lessons the changes are made to
+     * @param scenario          the proposed changes
+     *
+     * @return                  who would be promoted, left waiting or moved out, and how long the simulation took
+     */
+    public static Report simulate(Baseline baseline, Scenario scenario) {
+        long start = System.nanoTime();
+        Layer layer = new Layer(baseline);
+        Report report = new Report();
+
+        // new lesson times first, so that every later check sees them
+        for (Map.Entry<String, String[]> change : scenario.sessions.entrySet()) {
+            String[] key = change.getKey().split("/");
+            layer.sessions.put(change.getKey(), change.getValue());
+            layer.lessons.remove(change.getKey());
+            Index idx = layer.readIndex(key[0], key[1]);
+            if (idx == null) continue;
+            for (Student stud : layer.readStudents(Arrays.asList(idx.getEnrolledStudents())).values()) {
+                if (layer.clashes(stud, change.getKey())) {
+                    report.add(report.newClashes, change.getKey(), stud.getUsername());
+                }
+            }
+        }
+
+        // students of a dropped index lose their seat or their place on its waitlist
+        for (String dropped : scenario.drops) {
+            String[] key = dropped.split("/");
+            Index idx = layer.readIndex(key[0], key[1]);
+            if (idx == null) continue;
+            for (Student stud : layer.readStudents(Arrays.asList(idx.getEnrolledStudents())).values()) {
+                stud.stageEnrolment(PromotionSimulator.without(stud.getStudentCourses(), dropped),
+                    stud.getTotalAU() - idx.getAcadUnits(), stud.getWaitlist());
+                report.add(report.displaced, dropped, stud.getUsername());
+            }
+            for (Student stud : layer.readStudents(Arrays.asList(idx.getWaitlist())).values()) {
+                stud.stageEnrolment(stud.getStudentCourses(), stud.getTotalAU(),
+                    PromotionSimulator.without(stud.getWaitlist(), dropped));
+                report.add(report.withdrawn, dropped, stud.getUsername());
+            }
+            layer.dropped.add(dropped);
+        }
+
+        ArrayList<String> raised = new ArrayList<String>();
+        for (Map.Entry<String, Integer> change : scenario.vacancies.entrySet()) {
+            String[] key = change.getKey().split("/");
+            Index idx = layer.readIndex(key[0], key[1]);
+            if (idx == null) continue;
+            idx.stageRoster(idx.getEnrolledStudents(), idx.getWaitlist(), Math.max(0, idx.getIndexVacancy() + change.getValue()),
+                Math.max(0, idx.getCourseVacancy() + change.getValue()));
+            if (change.getValue() > 0) raised.add(change.getKey());
+        }
+
+        // the same promotion chains as the live system, staged on the layer
+        for (String key : raised) {
+            String course = key.split("/")[0];
+            WaitlistManager.Cascade cascade = WaitlistManager.plan(course, key.split("/")[1], Integer.MAX_VALUE, layer);
+            report.merge(course, cascade.promoted, report.promoted);
+            report.merge(course, cascade.overAU, report.overAU);
+            report.merge(course, cascade.clashing, report.clashing);
+            for (Map.Entry<String, ArrayList<String>> withdrawn : cascade.withdrawn.entrySet()) {
+                for (String username : withdrawn.getValue()) {
+                    report.add(report.withdrawn, withdrawn.getKey(), username);
+                }
+            }
+        }
+        // a student promoted further down the chain is no longer waiting anywhere in the course
+        for (Map.Entry<String, ArrayList<String>> promoted : report.promoted.entrySet()) {
+            String course = promoted.getKey().split("/")[0];
+            ArrayList<String> withdrawn = report.withdrawn.get(promoted.getKey());
+            if (withdrawn != null) withdrawn.removeAll(promoted.getValue());
+            for (TreeMap<String, ArrayList<String>> waiting : Arrays.asList(report.overAU, report.clashing)) {
+                for (ArrayList<String> skipped : waiting.subMap(course + "/", course + "/\uffff").values()) {
+                    skipped.removeAll(promoted.getValue());
+                }
+            }
+        }
+        report.withdrawn.values().removeIf(List::isEmpty);
+        report.overAU.values().removeIf(List::isEmpty);
+        report.clashing.values().removeIf(List::isEmpty);
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    /**
+     * Removes a course/index from a ";" delineated list.
+     */
+    private static String without(String list, String courseKey) {
+        ArrayList<String> kept = new ArrayList<String>(Arrays.asList(list.split(";")));
+        kept.remove(courseKey);
+        return String.join(";", kept);
+    }
+
+    /**
+     * Returns the rows of a table after its header, from the Catalogue if it is loaded, else from its flat file.
+     */
+    private static List<String> rows(FlatFileTable table) {
+        if (Catalogue.isLoaded()) return table.snapshot().rows();
+        ArrayList<String> rows = new ArrayList<String>();
+        try (BufferedReader br = new BufferedReader(new FileReader(table.getPath()))) {
+            String line = br.readLine();
+            while ((line = br.readLine()) != null) {
+                if (!line.trim().equals("")) rows.add(line);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return rows;
+    }
+
+    /**
+     * Baseline is a copy of the index, student and lesson rows that simulations run against.
+     */
+    public static class Baseline {
+        /**
+         * Every index row, keyed by course/index e.g. CZ2001/201
+         */
+        private final HashMap<String, String> indexes = new HashMap<String, String>();
+
+        /**
+         * Every student row, keyed by lower case name
+         */
+        private final HashMap<String, String> students = new HashMap<String, String>();
+
+        /**
+         * Every lesson as {day, start, end}, keyed by lesson id
+         */
+        private final HashMap<String, List<String>> lessons = new HashMap<String, List<String>>();
+
+        /**
+         * Class Constructor indexing the rows of each table
+         */
+        Baseline(List<String> indexRows, List<String> studentRows, List<String> lessonRows) {
+            for (String row : indexRows) {
+                this.indexes.putIfAbsent(Catalogue.indexKey(FlatFileTable.column(row, 0), FlatFileTable.column(row, 2)), row);
+            }
+            for (String row : studentRows) {
+                this.students.putIfAbsent(FlatFileTable.column(row, 4).trim().toLowerCase(), row);
+            }
+            for (String row : lessonRows) {
+                this.lessons.put(FlatFileTable.column(row, 0), Arrays.asList(FlatFileTable.column(row, 2),
+                    FlatFileTable.column(row, 3), FlatFileTable.column(row, 4)));
+            }
+        }
+
+        /**
+         * @return              the number of indexes in the baseline
+         */
+        public int getIndexCount() {
+            return this.indexes.size();
+        }
+    }
+
+    /**
+     * Scenario is a set of proposed changes to simulate.
+     */
+    public static class Scenario {
+        /**
+         * The change in vacancies of each index, keyed by course/index
+         */
+        private final LinkedHashMap<String, Integer> vacancies = new LinkedHashMap<String, Integer>();
+
+        /**
+         * The indexes being dropped, as course/index
+         */
+        private final LinkedHashSet<String> drops = new LinkedHashSet<String>();
+
+        /**
+         * The new lesson ids of each index, keyed by course/index
+         */
+        private final LinkedHashMap<String, String[]> sessions = new LinkedHashMap<String, String[]>();
+
+        /**
+         * Empty Class Constructor for a scenario with no changes
+         */
+        public Scenario() {}
+
+        /**
+         * Adds or removes vacancies of an index.
+         *
+         * @param course        course code of the index
+         * @param index         the index
+         * @param delta         the number of vacancies added, negative to remove vacancies
+         *
+         * @return              this scenario
+         */
+        public Scenario changeVacancy(String course, String index, int delta) {
+            this.vacancies.merge(Catalogue.indexKey(course, index), delta, Integer::sum);
+            return this;
+        }
+
+        /**
+         * Drops an index, moving its students out of it and off its waitlist.
+         *
+         * @param course        course code of the index
+         * @param index         the index
+         *
+         * @return              this scenario
+         */
+        public Scenario dropIndex(String course, String index) {
+            this.drops.add(Catalogue.indexKey(course, index));
+            return this;
+        }
+
+        /**
+         * Gives an index new lessons.
+         *
+         * @param course        course code of the index
+         * @param index         the index
+         * @param sessionIDs    ids of the new lessons
+         *
+         * @return              this scenario
+         */
+        public Scenario changeSessions(String course, String index, int[] sessionIDs) {
+            String[] ids = new String[sessionIDs.length];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = Integer.toString(sessionIDs[i]);
+            }
+            this.sessions.put(Catalogue.indexKey(course, index), ids);
+            return this;
+        }
+    }
+
+    /**
+     * Report is the outcome of a simulation, each list of usernames keyed by course/index.
+     */
+    public static class Report {
+        /**
+         * Students who would be enrolled from the waitlist
+         */
+        private final TreeMap<String, ArrayList<String>> promoted = new TreeMap<String, ArrayList<String>>();
+
+        /**
+         * Students who would be left waiting because they would exceed the AU limit
+         */
+        private final TreeMap<String, ArrayList<String>> overAU = new TreeMap<String, ArrayList<String>>();
+
+        /**
+         * Students who would be left waiting because of a timetable clash
+         */
+        private final TreeMap<String, ArrayList<String>> clashing = new TreeMap<String, ArrayList<String>>();
+
+        /**
+         * Students who would be taken off a waitlist
+         */
+        private final TreeMap<String, ArrayList<String>> withdrawn = new TreeMap<String, ArrayList<String>>();
+
+        /**
+         * Students who would lose their seat in a dropped index
+         */
+        private final TreeMap<String, ArrayList<String>> displaced = new TreeMap<String, ArrayList<String>>();
+
+        /**
+         * Students enrolled in an index whose new lessons would clash with their other courses
+         */
+        private final TreeMap<String, ArrayList<String>> newClashes = new TreeMap<String, ArrayList<String>>();
+
+        /**
+         * How long the simulation took
+         */
+        private long elapsedNanos;
+
+        /**
+         * Class Constructor for an empty report
+         */
+        Report() {}
+
+        /**
+         * Adds a student to a list of the report once.
+         */
+        private void add(TreeMap<String, ArrayList<String>> list, String courseKey, String username) {
+            ArrayList<String> usernames = list.computeIfAbsent(courseKey, k -> new ArrayList<String>());
+            if (!usernames.contains(username)) usernames.add(username);
+        }
+
+        /**
+         * Adds the students of a chain, keyed by index, to a list of the report.
+         */
+        private void merge(String course, Map<String, ArrayList<String>> chain, TreeMap<String, ArrayList<String>> list) {
+            for (Map.Entry<String, ArrayList<String>> entry : chain.entrySet()) {
+                for (String username : entry.getValue()) {
+                    this.add(list, Catalogue.indexKey(course, entry.getKey()), username);
+                }
+            }
+        }
+
+        /**
+         * @return          students who would be enrolled from the waitlist
+         */
+        public TreeMap<String, ArrayList<String>> getPromoted() {
+            return this.promoted;
+        }
+
+        /**
+         * @return          students who would be left waiting because they would exceed the AU limit
+         */
+        public TreeMap<String, ArrayList<String>> getOverAU() {
+            return this.overAU;
+        }
+
+        /**
+         * @return          students who would be left waiting because of a timetable clash
+         */
+        public TreeMap<String, ArrayList<String>> getClashing() {
+            return this.clashing;
+        }
+
+        /**
+         * @return          students who would be taken off a waitlist
+         */
+        public TreeMap<String, ArrayList<String>> getWithdrawn() {
+            return this.withdrawn;
+        }
+
+        /**
+         * @return          students who would lose their seat in a dropped index
+         */
+        public TreeMap<String, ArrayList<String>> getDisplaced() {
+            return this.displaced;
+        }
+
+        /**
+         * @return          students enrolled in an index whose new lessons would clash with their other courses
+         */
+        public TreeMap<String, ArrayList<String>> getNewClashes() {
+            return this.newClashes;
+        }
+
+        /**
+         * @return          the number of students who would be enrolled from the waitlist
+         */
+        public int getPromotedCount() {
+            int count = 0;
+            for (ArrayList<String> usernames : this.promoted.values()) {
+                count += usernames.size();
+            }
+            return count;
+        }
+
+        /**
+         * @return          how long the simulation took in microseconds
+         */
+        public long getElapsedMicros() {
+            return this.elapsedNanos / 1000;
+        }
+    }
+
+    /**
+     * Layer is the copy-on-write view of a Baseline that one simulation stages its changes on.
+     */
+    private static class Layer implements WaitlistManager.State {
+        /**
+         * The rows underneath the layer
+         */
+        private final Baseline baseline;
+
+        /**
+         * Every index the simulation has touched, keyed by course/index
+         */
+        private final HashMap<String, Index> indexes = new HashMap<String, Index>();
+
+        /**
+         * Every student the simulation has touched, keyed by lower case name
+         */
+        private final HashMap<String, Student> students = new HashMap<String, Student>();
+
+        /**
+         * The indexes dropped, as course/index
+         */
+        private final HashSet<String> dropped = new HashSet<String>();
+
+        /**
+         * The new lesson ids of indexes given new lessons, keyed by course/index
+         */
+        private final HashMap<String, String[]> sessions = new HashMap<String, String[]>();
+
+        /**
+         * The lessons of every index checked as {day, start minute, end minute}, keyed by course/index
+         */
+        private final HashMap<String, ArrayList<int[]>> lessons = new HashMap<String, ArrayList<int[]>>();
+
+        /**
+         * Class Constructor for a layer with no changes
+         */
+        Layer(Baseline baseline) {
+            this.baseline = baseline;
+        }
+
+        public Index readIndex(String course, String index) {
+            String key = Catalogue.indexKey(course, index);
+            if (this.dropped.contains(key)) return null;
+            Index idx = this.indexes.get(key);
+            if (idx == null && this.baseline.indexes.containsKey(key)) {
+                idx = Index.createByRow(this.baseline.indexes.get(key));
+                this.indexes.put(key, idx);
+            }
+            return idx;
+        }
+
+        public HashMap<String, Student> readStudents(Collection<String> names) {
+            HashMap<String, Student> found = new HashMap<String, Student>();
+            for (String name : names) {
+                String key = name.trim().toLowerCase();
+                Student stud = this.students.get(key);
+                if (stud == null && this.baseline.students.containsKey(key)) {
+                    stud = Student.createByRow(this.baseline.students.get(key));
+                    this.students.put(key, stud);
+                }
+                if (stud != null) found.put(key, stud);
+            }
+            return found;
+        }
+
+        public WaitlistEligibility.Entry check(Student stud, Index idx) {
+            String courseKey = Catalogue.indexKey(idx.getCourse(), idx.getIndex());
+            boolean inCourse = false;
+            for (String held : stud.getStudentCourses().split(";")) {
+                if (held.startsWith(idx.getCourse() + "/")) inCourse = true;
+            }
+            int headroom = Student.AU_LIMIT - stud.getTotalAU() - idx.getAcadUnits();
+            boolean clashFree = !inCourse && headroom >= 0 && !this.clashes(stud, courseKey);
+            return new WaitlistEligibility.Entry("", inCourse, headroom, clashFree);
+        }
+
+        public void settle(String course, String index, Collection<String> waitlist) {}
+
+        /**
+         * Returns whether the lessons of an index overlap those of the other indexes a student is enrolled in.
+         */
+        boolean clashes(Student stud, String courseKey) {
+            ArrayList<int[]> lessons = this.lessons(courseKey);
+            for (String held : stud.getStudentCourses().split(";")) {
+                if (held.equals("") || held.equals(courseKey)) continue;
+                if (ClashMatrix.overlaps(lessons, this.lessons(held))) return true;
+            }
+            return false;
+        }
+
+        /**
+         * Returns the lessons of an index, with its new lessons if it is given new ones.
+         */
+        ArrayList<int[]> lessons(String courseKey) {
+            ArrayList<int[]> lessons = this.lessons.get(courseKey);
+            if (lessons != null) return lessons;
+            String[] ids = this.sessions.get(courseKey);
+            if (ids == null) {
+                String row = this.baseline.indexes.get(courseKey);
+                ids = row == null ? new String[0] : FlatFileTable.column(row, 6).split(";");
+            }
+            lessons = new ArrayList<int[]>();
+            for (String id : ids) {
+                List<String> dayTime = this.baseline.lessons.get(id.trim());
+                int[] lesson = dayTime == null ? null : ClashMatrix.toLesson(dayTime);
+                if (lesson != null) lessons.add(lesson);
+            }
+            this.lessons.put(courseKey, lessons);
+            return lessons;
+        }
+    }
+}
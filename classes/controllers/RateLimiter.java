@@ -0,0 +1,180 @@
+package classes.controllers;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * RateLimiter is a concrete class that sheds students who send requests faster than the flat files can serve them.
+ * <p>
+ * Every student has a token bucket. A request costs one token from the bucket of the student, and is refused before any
+ * flat file is read if the bucket is empty, together with how long the student should wait before trying again. A script
+ * adding a full index in a loop therefore drains only its own bucket, while other students are unaffected.
+ * </p>
+ * <p>
+ * A bucket is a single AtomicLong holding the time at which the bucket will be full again, updated with compare-and-set,
+ * so checking a bucket never takes a lock. Buckets refill at stars.userRate tokens per second, 1 by default, and hold at
+ * most stars.userBurst tokens, 5 by default.
+ * </p>
+ * <p>
+ * The buckets are kept in memory, so requests are only limited within a single program. Students using separate
+ * programs each have a bucket of their own in each of them, and nothing limits the requests all programs make to one
+ * index together. Rate limiting is for programs serving many students at once and is enabled by starting the program
+ * with -Dstars.rateLimit=true, or by calling setEnabled.
+ * </p>
+ */
+
+public class RateLimiter {
+    /**
+     * Tokens added to the bucket of a student every second
+     */
+    public static final double USER_RATE = RateLimiter.doubleProperty("stars.userRate", 1);
+
+    /**
+     * The most tokens the bucket of a student holds
+     */
+    public static final int USER_BURST = Math.max(1, Integer.getInteger("stars.userBurst", 5));
+
+    /**
+     * The number of buckets above which buckets that are full again are forgotten
+     */
+    private static final int MAX_BUCKETS = 4096;
+
+    /**
+     * Whether requests are rate limited
+     */
+    private static volatile boolean enabled = Boolean.getBoolean("stars.rateLimit");
+
+    /**
+     * The bucket of every student that has sent a request, keyed by username
+     */
+    private static final ConcurrentHashMap<String, TokenBucket> userBuckets = new ConcurrentHashMap<String, TokenBucket>();
+
+    /**
+     * Empty Class Constructor
+     */
+    public RateLimiter() {}
+
+    /**
+     * Returns whether requests are rate limited.
+     *
+     * @return                  <code>true</code> if rate limiting is enabled
+     */
+    public static boolean isEnabled() {
+        return RateLimiter.enabled;
+    }
+
+    /**
+     * Enables or disables rate limiting.
+     *
+     * @param enabled           <code>true</code> to rate limit requests
+     */
+    public static void setEnabled(boolean enabled) {
+        RateLimiter.enabled = enabled;
+    }
+
+    /**
+     * Takes a token for a request of a student.
+     *
+     * @param username          username of the student sending the request
+     *
+     * @return                  0 if the request may go ahead, otherwise the milliseconds to wait before trying again
+     */
+    public static long tryAcquire(String username) {
+        if (!RateLimiter.enabled) return 0;
+        long now = System.nanoTime();
+        long wait = RateLimiter.bucket(username.toLowerCase(), now).take(now);
+        return wait > 0 ? RateLimiter.toMillis(wait) : 0;
+    }
+
+    /**
+     * Returns the bucket of a student, creating it full if there is none, and forgets full buckets once there are too
+     * many.
+     *
+     * @param key               the username in lower case
+     * @param now               the current time from System.nanoTime
+     *
+     * @return                  the bucket
+     */
+    private static TokenBucket bucket(String key, long now) {
+        TokenBucket bucket = userBuckets.get(key);
+        if (bucket != null) return bucket;
+        if (userBuckets.size() >= MAX_BUCKETS) {
+            // a full bucket behaves exactly like a new one
+            userBuckets.values().removeIf(b -> b.isFull(now));
+        }
+        return userBuckets.computeIfAbsent(key, k -> new TokenBucket(USER_RATE, USER_BURST, now));
+    }
+
+    /**
+     * Rounds a wait up to whole milliseconds.
+     */
+    private static long toMillis(long nanos) {
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanos + 999999));
+    }
+
+    /**
+     * Reads a positive decimal system property.
+     */
+    private static double doubleProperty(String name, double fallback) {
+        try {
+            double value = Double.parseDouble(System.getProperty(name, Double.toString(fallback)));
+            return value > 0 ? value : fallback;
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    /**
+     * TokenBucket is a lock-free token bucket kept as the time at which it will next be full.
+     * <p>
+     * Each token taken moves that time one token's worth into the future, and a token can be taken as long as the time
+     * is no further ahead than the whole bucket's worth, so the bucket needs no separate token count or refill step.
+     * </p>
+     */
+    private static class TokenBucket {
+        /**
+         * Nanoseconds it takes to add one token
+         */
+        private final long interval;
+
+        /**
+         * Nanoseconds it takes to fill the bucket from empty
+         */
+        private final long capacity;
+
+        /**
+         * The System.nanoTime at which the bucket will be full if no more tokens are taken
+         */
+        private final AtomicLong fullAt;
+
+        /**
+         * Class Constructor for a full bucket
+         */
+        TokenBucket(double rate, int burst, long now) {
+            this.interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate));
+            this.capacity = this.interval * burst;
+            this.fullAt = new AtomicLong(now);
+        }
+
+        /**
+         * Takes a token.
+         *
+         * @return              0 if a token was taken, otherwise the nanoseconds until a token will be available
+         */
+        long take(long now) {
+            while (true) {
+                long full = this.fullAt.get();
+                long next = Math.max(full, now) + this.interval;
+                if (next - now > this.capacity) return next - now - this.capacity;
+                if (this.fullAt.compareAndSet(full, next)) return 0;
+            }
+        }
+
+        /**
+         * Returns whether the bucket is full.
+         */
+        boolean isFull(long now) {
+            return this.fullAt.get() - now <= 0;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package classes.controllers;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import classes.entities.*;
+
+/**
+ * StartupLoader is the bootstrap stage that fills the Catalogue from the flat files.
+ * <p>
+ * Every flat file is read concurrently on a fork-join pool. Flat files larger than CHUNK_SIZE are split into byte
+ * ranges that end on a line break, and each range is read and decoded in parallel. Once every table is filled, the
+ * Catalogue builds its cross-reference indexes.
+ * </p>
+ * <p>
+ * If the Snapshot written by the previous run is still up to date, it is read instead of the flat files. After loading
+ * from the flat files a new Snapshot is written, and another one is written when the program exits so that the next
+ * start can skip parsing the flat files.
+ * </p>
+ * <p>
+ * The time taken by each stage is returned so that it can be reported at startup.
+ * </p>
+ */
+
+public class StartupLoader {
+    /**
+     * Flat files larger than this number of bytes are parsed as several byte-range chunks
+     */
+    private static final long CHUNK_SIZE = 1 << 20;
+
+    /**
+     * Charset used by the FileReaders of the entity classes
+     */
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    /**
+     * Whether the shutdown hook that saves the Snapshot has been registered
+     */
+    private static boolean hookRegistered = false;
+
+    /**
+     * Empty Class Constructor
+     */
+    public StartupLoader() {}
+
+    /**
+     * Loads every flat file into the Catalogue.
+     * <p>
+     * If any flat file cannot be read, the Catalogue is left unloaded and entities keep reading the flat files.
+     * </p>
+     *
+     * @return                  time taken by each stage in milliseconds, in the order the stages were reported
+     */
+    public static LinkedHashMap<String, Long> load() {
+        LinkedHashMap<String, Long> timings = new LinkedHashMap<String, Long>();
+        long start = System.nanoTime();
+        Catalogue.unload();
+        StartupLoader.saveSnapshotOnExit();
+
+        // stage 0: restore the previous run's snapshot if no flat file has changed since
+        if (Snapshot.read()) {
+            timings.put("snapshot", StartupLoader.millisSince(start));
+            long crossStart = System.nanoTime();
+            Catalogue.buildCrossReferences();
+            timings.put("cross-reference", StartupLoader.millisSince(crossStart));
+            timings.put("total", StartupLoader.millisSince(start));
+            return timings;
+        }
+
+        // stage 1: read and parse every flat file at the same time
+        FlatFileTable[] tables = Catalogue.getTables();
+        ArrayList<FileTask> tasks = new ArrayList<FileTask>();
+        for (FlatFileTable table : tables) {
+            tasks.add(new FileTask(table.getPath()));
+        }
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        for (FileTask task : tasks) {
+            pool.execute(task);
+        }
+        try {
+            for (int i = 0; i < tables.length; i++) {
+                tables[i].load(tasks.get(i).join());
+                timings.put(new File(tables[i].getPath()).getName(), tasks.get(i).elapsed);
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return timings;
+        }
+
+        // stage 2: cross-reference indexes between the tables
+        long crossStart = System.nanoTime();
+        Catalogue.buildCrossReferences();
+        timings.put("cross-reference", StartupLoader.millisSince(crossStart));
+
+        // stage 3: snapshot for the next start
+        long snapshotStart = System.nanoTime();
+        Snapshot.write();
+        timings.put("write snapshot", StartupLoader.millisSince(snapshotStart));
+        timings.put("total", StartupLoader.millisSince(start));
+        return timings;
+    }
+
+    /**
+     * Registers a shutdown hook that writes the Snapshot when the program exits.
+     */
+    private static synchronized void saveSnapshotOnExit() {
+        if (StartupLoader.hookRegistered) return;
+        StartupLoader.hookRegistered = true;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> Snapshot.write()));
+    }
+
+    /**
+     * Formats the timings returned by load into a single line.
+     *
+     * @param timings           time taken by each stage in milliseconds
+     *
+     * @return                  the timings in "stage: n ms, stage: n ms" format
+     */
+    public static String formatTimings(Map<String, Long> timings) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> stage : timings.entrySet()) {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(stage.getKey()).append(": ").append(stage.getValue()).append(" ms");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the number of milliseconds since a System.nanoTime reading.
+     *
+     * @param start             the earlier System.nanoTime reading
+     *
+     * @return                  elapsed milliseconds
+     */
+    private static long millisSince(long start) {
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    /**
+     * Reads every line of one flat file, forking a ChunkTask per byte range for large files.
+     */
+    private static class FileTask extends RecursiveTask<List<String>> {
+        /**
+         * Version of the serialized form, which is never used since tasks are not serialized
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Address of the flat file being read
+         */
+        private final String path;
+
+        /**
+         * Time taken to read and parse the flat file in milliseconds
+         */
+        private long elapsed;
+
+        /**
+         * Class Constructor specifying the flat file to read
+         */
+        FileTask(String path) {
+            this.path = path;
+        }
+
+        @Override
+        protected List<String> compute() {
+            long start = System.nanoTime();
+            try (FileChannel channel = FileChannel.open(Paths.get(this.path), StandardOpenOption.READ)) {
+                long size = channel.size();
+
+                // cut the file into ranges that each end just after a line break
+                ArrayList<ChunkTask> chunks = new ArrayList<ChunkTask>();
+                long chunkStart = 0;
+                while (chunkStart < size) {
+                    long chunkEnd = StartupLoader.nextLineStart(channel, Math.min(chunkStart + CHUNK_SIZE, size), size);
+                    chunks.add(new ChunkTask(channel, chunkStart, chunkEnd));
+                    chunkStart = chunkEnd;
+                }
+
+                ArrayList<String> lines = new ArrayList<String>();
+                if (chunks.size() == 1) {
+                    lines.addAll(chunks.get(0).compute());
+                } else {
+                    ForkJoinTask.invokeAll(chunks);
+                    for (ChunkTask chunk : chunks) {
+                        lines.addAll(chunk.join());
+                    }
+                }
+                this.elapsed = StartupLoader.millisSince(start);
+                return lines;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Reads and decodes the lines of one byte range of a flat file.
+     */
+    private static class ChunkTask extends RecursiveTask<List<String>> {
+        /**
+         * Version of the serialized form, which is never used since tasks are not serialized
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Channel of the flat file, shared between the chunks of the file
+         */
+        private final FileChannel channel;
+
+        /**
+         * First byte of the range
+         */
+        private final long start;
+
+        /**
+         * One past the last byte of the range
+         */
+        private final long end;
+
+        /**
+         * Class Constructor specifying the byte range to read
+         */
+        ChunkTask(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected List<String> compute() {
+            try {
+                ByteBuffer buffer = ByteBuffer.allocate((int) (this.end - this.start));
+                while (buffer.hasRemaining()) {
+                    if (this.channel.read(buffer, this.start + buffer.position()) < 0) break;
+                }
+                String text = new String(buffer.array(), 0, buffer.position(), CHARSET);
+
+                // split the same way BufferedReader.readLine does
+                ArrayList<String> lines = new ArrayList<String>();
+                int lineStart = 0;
+                for (int i = 0; i < text.length(); i++) {
+                    char c = text.charAt(i);
+                    if (c == '\n' || c == '\r') {
+                        lines.add(text.substring(lineStart, i));
+                        if (c == '\r' && i + 1 < text.length() && text.charAt(i + 1) == '\n') i++;
+                        lineStart = i + 1;
+                    }
+                }
+                if (lineStart < text.length()) lines.add(text.substring(lineStart));
+                return lines;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Returns the position just after the first line break at or after a position.
+     *
+     * @param channel           channel of the flat file
+     * @param from              position to start searching from
+     * @param size              size of the flat file
+     *
+     * @return                  position of the start of the next line, or size if there is no further line break
+     *
+     * @throws IOException
+     */
+    private static long nextLineStart(FileChannel channel, long from, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long position = from;
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) break;
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') return position + i + 1;
+            }
+            position += read;
+        }
+        return size;
+    }
+}
@@ -2,7 +2,11 @@ package classes.controllers;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 import classes.entities.*;
 
 /**
@@ -25,6 +29,11 @@ public class StudentManager {
      * The student that is currently using the system/being modified
      */
     public Student currStudent;
+
+    /**
+     * Milliseconds the student was told to wait after their last request was refused by the RateLimiter
+     */
+    private long retryAfterMillis = 0;
     
     /**
      * Class Constructor specifying the student that is currently using the system/being modified
@@ -37,6 +46,13 @@ public class StudentManager {
         }
     }
 
+    /**
+     * Class Constructor for a student that has already been read from the flat file
+     */
+    public StudentManager(Student student) {
+        currStudent = student;
+    }
+
     //INFORMATION GETTERS
     /**
      * Calls Student to get an array of all UserName: StudentName pairs
@@ -122,19 +138,19 @@ public class StudentManager {
     }
 
     /**
-     * Checks if the 21 AU limit will be exceeded upon being enrolled in a selected course
+     * Checks if the AU limit will be exceeded upon being enrolled in a selected course
      * 
      * @param chosenCourse              the course being checked
      * @param chosenIndex               the course index being checked
      * 
-     * @return                          1 if the 21 AU limit is not exceeded,
+     * @return                          1 if the AU limit is not exceeded,
      *                                  the current total AU of the student if the AU limit is exceeded
      */
     public int checkAULimit(String chosenCourse, String chosenIndex) {
     	//before adding a course or adding a course to the waitlist, check first if it will exceed the AU Limit if the course will be added successfully
         int currTotalAU = currStudent.getTotalAU();
         Index idx = new Index(chosenCourse, chosenIndex);
-        if ((currTotalAU + idx.getAcadUnits()) > 21) {return currTotalAU ;}
+        if ((currTotalAU + idx.getAcadUnits()) > Student.AU_LIMIT) {return currTotalAU ;}
         else {return 1;}	
     }
 
@@ -147,75 +163,139 @@ public class StudentManager {
      * @return                          <code>true</code> if there is no timetable clash
      */
     public boolean checkTimeClash(String newCourse, String newIndex) {  // course and index to add
+        return checkTimeClash(newCourse, newIndex, null);
+    }
+
+    /**
+     * Checks if there will be a timetable clash upon moving from one index of a course to another
+     * 
+     * @param newCourse                 the course being checked
+     * @param newIndex                  the course index being checked
+     * @param oldIndex                  the index of the same course the student is leaving, left out of the check,
+     *                                  or null if the student is not leaving any index
+     * 
+     * @return                          <code>true</code> if there is no timetable clash
+     */
+    public boolean checkTimeClash(String newCourse, String newIndex, String oldIndex) {
         String studentCourses = currStudent.getStudentCourses();
         String[] courseArr = studentCourses.split(";"); // looks like this: ["CZ2002/201", "CZ2001/204"]
 
         // cater to students that have no existing courses, simply return true since there will be no clash
         if (courseArr.length == 1 && courseArr[0].equals("")) return true;
-        
-        // get DayTime for new course and index 
-        // {{Mon,1330,1430}, {Wed,1330,1430}}
-        ArrayList<ArrayList<String>> newDayTime = IndexManager.getDayTime(newCourse, newIndex);
 
-        ArrayList<ArrayList<String>> currAllDay = new ArrayList<ArrayList<String>>();
-        
+        // each pair of indexes is only compared once, and remembered by ClashMatrix after that
+        String newKey = Catalogue.indexKey(newCourse, newIndex);
         for (int i=0; i<courseArr.length; i++) {
             String course = courseArr[i].split("/")[0];
             String index = courseArr[i].split("/")[1];
-            // {{Mon,1330,1430}, {Wed,1330,1430}} for current index enrolled
-            currAllDay.addAll(IndexManager.getDayTime(course, index));
+            if (course.equals(newCourse) && index.equals(oldIndex)) continue;
+            if (ClashMatrix.clashes(newKey, courseArr[i])) return false;
         }
-        
-        // compare each lesson timing of new index with old lesson timing
-        for(int j=0;j<newDayTime.size();j++) {
-                for(int k=0;k<currAllDay.size();k++) {
-                    String newDay = newDayTime.get(j).get(0);
-                    String currDay = currAllDay.get(k).get(0);
-                    if(newDay.equals(currDay)) {
-                        int newStart = Integer.parseInt(newDayTime.get(j).get(1));
-                        int newEnd = Integer.parseInt(newDayTime.get(j).get(2));
-                        int currStart = Integer.parseInt(currAllDay.get(k).get(1));
-                        int currEnd = Integer.parseInt(currAllDay.get(k).get(2));
-                        if(newStart>=currStart && newStart<currEnd) {
-                            return false;
-                        } else if(newEnd>currStart && newEnd<=currEnd) {
-                            return false;
-                        }
-                    } 
-                }
-            }
         return true;
     }
 
 
+    /**
+     * Checks if a student can be enrolled into a selected course index from its waitlist
+     * 
+     * @param chosenCourse              the course being checked
+     * @param chosenIndex               the course index being checked
+     * 
+     * @return                          <code>true</code> if the student is not yet in the course, stays within the AU
+     *                                  limit and has no timetable clash
+     */
+    public boolean checkEligible(String chosenCourse, String chosenIndex) {
+        if (checkIfExistingCourse(chosenCourse)) return false;
+        if (checkAULimit(chosenCourse, chosenIndex) != 1) return false;
+        return checkTimeClash(chosenCourse, chosenIndex);
+    }
+
+    /**
+     * Finds the indexes of a course the student could take without a timetable clash
+     * 
+     * @param chosenCourse              the course being checked
+     * 
+     * @return                          the indexes of the course with vacancies that do not clash with the student's
+     *                                  other courses, leaving out the index the student already holds
+     */
+    public ArrayList<String> findClashFreeIndexes(String chosenCourse) {
+        return IndexFinder.findClashFree(currStudent, chosenCourse);
+    }
+
+    /**
+     * Finds the best ways for the student to take a set of courses together, without enrolling in any of them
+     * 
+     * @param chosenCourses             the courses being planned
+     * @param limit                     the most plans to return
+     * 
+     * @return                          the best clash-free plans within the AU limit, best first
+     */
+    public List<TimetablePlanner.Plan> planTimetable(List<String> chosenCourses, int limit) {
+        return TimetablePlanner.rank(currStudent, chosenCourses, limit);
+    }
+
+
     //INFORMATION WRITERS
     /**
      * Enrolls a student into a course
      * 
      * @param chosenCourse              the course the student is enrolling in
      * @param chosenIndex               the course index that the student is enrolling in
+     * @param fromWM                    0 if the student asked for the course, which is rate limited, otherwise 1
      * 
-     * @return                          -1 if there is input error,
+     * @return                          -2 if the student is sending requests too quickly, see getRetryAfterMillis,
+     *                                  -1 if there is input error,
      *                                  0 if the student is already in the course,
      *                                  1 if the student is enrolled successfully,
      *                                  2 if the index is currently full and the student will be asked if they want to be waitlisted,
      *                                  3 if the chosen index lesson time would cause a clash with the currently enrolled courses,
+     *                                  4 if a ballot is open and the request was recorded as a bid,
+     *                                  -3 if a ballot has closed and is waiting to be allocated, so no seat can be taken yet,
      *                                  current AU amount if the addition of the course would cause the AU limit to be exceeded
      * 
      * @throws IOException
      */
 
     public int addCourse(String chosenCourse, String chosenIndex, int fromWM) throws IOException {
+        return this.addCourse(chosenCourse, chosenIndex, fromWM, fromWM == 0);
+    }
+
+    /**
+     * Enrolls a student into a course, with or without taking a token from the RateLimiter
+     * 
+     * @param chosenCourse              the course the student is enrolling in
+     * @param chosenIndex               the course index that the student is enrolling in
+     * @param fromWM                    0 if the student asked for the course, which is subject to the ballot, otherwise 1
+     * @param limited                   <code>true</code> if the request takes a token from the RateLimiter
+     * 
+     * @return                          the outcome as returned by addCourse
+     * 
+     * @throws IOException
+     */
+    private int addCourse(String chosenCourse, String chosenIndex, int fromWM, boolean limited) throws IOException {
     	//return -1 if there is input error (e.g. wrong course/course Index) 
     	//return 0 if the student is already in the course 
     	//return 1 if added successfully 
     	//return 2 if the index is currently full (studentMenu will proceed to ask the student if he/she wishes to be added to the waitlist) 
     	//return 3 if the chosen index lesson time clashes with current indexes
         //return current AU amount if the addition of the course will exceed the AU Limit 
+        //return -2 if the student is sending requests too quickly
+        //return 4 if the request was recorded as a bid of the open ballot
+        //return -3 if a closed ballot is waiting to be allocated
+
+        // refuse before reading any flat file
+        if (limited && this.rateLimited()) return -2;
 
         // check if student is already in that course
         if (checkIfExistingCourse(chosenCourse)) return 0;
         if (!Index.checkIndex(chosenCourse, chosenIndex)) return -1;
+
+        // during a ballot requests are only recorded, seats are given out when it closes
+        if (fromWM == 0 && BallotManager.isOpen()) {
+            if (BallotManager.bid(currStudent.getUsername(), chosenCourse, chosenIndex) == -1) return -1;
+            return 4;
+        }
+        if (fromWM == 0 && BallotManager.isAwaitingAllocation()) return -3;
         Index idx = new Index(chosenCourse, chosenIndex);
         
         // check if course and index is already full
@@ -257,13 +337,33 @@ public class StudentManager {
        else {return 2;}
     }
         
+    /**
+     * Takes a token from the RateLimiter for a request of the student.
+     * 
+     * @return                          <code>true</code> if the request must be refused
+     */
+    private boolean rateLimited() {
+        this.retryAfterMillis = RateLimiter.tryAcquire(currStudent.getUsername());
+        return this.retryAfterMillis > 0;
+    }
+
+    /**
+     * Returns how long the student should wait before sending another request, after one was refused for being too quick.
+     * 
+     * @return                          the wait in milliseconds, 0 if the last request was not refused
+     */
+    public long getRetryAfterMillis() {
+        return this.retryAfterMillis;
+    }
+
     /**
      * Add the student to the waitlist of the chosen course 
      * 
      * @param chosenCourse              the course that the student is being waitlisted for
      * @param chosenIndex               the course index that the student is being waitlisted for
      * 
-     * @return                          0 if the student is already enrolled in the waitlist
+     * @return                          -2 if the student is sending requests too quickly, see getRetryAfterMillis
+     *                                  0 if the student is already enrolled in the waitlist
      *                                  1 if the student is enrolled in the waitlist successfully
      *                                  current AU amount if addition of the course would cause the student to exceed the AU limit
      * 
@@ -275,6 +375,8 @@ public class StudentManager {
     	//return current AU Amount if the addition of the course will potentially exceed the AU Limit 
     	//no need to check for valid input as it will have been checked already in addEnrolled 
 
+        if (this.rateLimited()) return -2;
+
         //add to waitlist if the student choose to do so (known from studentMenu)
         // add course if it does not exceed AU Limit
     	if (checkAULimit(chosenCourse, chosenIndex)==1) {
@@ -393,7 +495,8 @@ public class StudentManager {
      * @param originalIndex             the original index that the student is currently enrolled in and will be unenrolled from
      * @param targetIndex               the new index that the student is being enrolled in
      * 
-     * @return                          <code>true</code> if the operation is successful
+     * @return                          <code>true</code> if the operation is successful, <code>false</code> also while a
+     *                                  ballot is open or waiting to be allocated, when no seat can be taken
      * 
      * @throws IOException
      */
@@ -401,6 +504,9 @@ public class StudentManager {
         // check first if the student wants to swap away from an index he is NOT in (wrong original index)
         if (!checkIfExistingIndex(chosenCourse, originalIndex)) return false;
 
+        // the new index would only be bid for, so keep the student in the one they hold
+        if (BallotManager.isOpen() || BallotManager.isAwaitingAllocation()) return false;
+
         // initialize both the student's current index and target index to be swapped to
         Index orig = new Index(chosenCourse, originalIndex);
         Index target = new Index(chosenCourse, targetIndex);
@@ -412,8 +518,8 @@ public class StudentManager {
             // remove original course index from student
             this.dropCourse(chosenCourse, originalIndex);
 
-            // add target course index to student
-            this.addCourse(chosenCourse, targetIndex, 0);
+            // add target course index to student, as part of a request that was not rate limited
+            this.addCourse(chosenCourse, targetIndex, 0, false);
 
             return true;
         }
@@ -495,6 +601,10 @@ public class StudentManager {
     /**
      * Swaps the index of a course with another student. Both students must be in the same course and enrolled in different indexes.
      * If the swap would case a timetable clash, prevent the swap
+     * <p>
+     * The swap is done by rotateIndexes as a cycle of two, so neither seat is given up at any point and no other student
+     * can take it during the swap.
+     * </p>
      * 
      * @param chosenCourse                  the course code being swapped
      * @param ownIndex                      the index of the student initiating the swap
@@ -506,6 +616,7 @@ public class StudentManager {
      *                                      1 if the index is swapped successfully,
      *                                      2 if the indexes are not within the same course
      *                                      3 if the swap was unsuccesful for time table reasons
+     *                                      5 if the swap could not be written, in which case nothing has changed
      * 
      * @throws IOException
      */
@@ -517,7 +628,6 @@ public class StudentManager {
         //return 3 if the swap was unsuccessful
 
         //Create a student manager for the student's peer (i.e."peerManager")
-        
         StudentManager peerManager = new StudentManager(peerUserName);
 
         // check first if the input index are enrolled by the student/peer
@@ -527,77 +637,149 @@ public class StudentManager {
         //check if the input index are within the same course
         Index ownIdx = new Index(chosenCourse, ownIndex);
         Index peerIdx = new Index(chosenCourse, peerIndex);
-        if (!ownIdx.getCourse().equals(peerIdx.getCourse())) return 2;
-
-        // drop the students' courses first
-        this.dropCourseNoRemoveWaitlist(chosenCourse, ownIndex);
-        peerManager.dropCourseNoRemoveWaitlist(chosenCourse, peerIndex);
-
-        int self = this.addCourse(chosenCourse, peerIndex, 0);
-        int peer = peerManager.addCourse(chosenCourse, ownIndex, 0);
-
-        // check if can add the target swap course. If can't, add back original course
-        if (peer != 1 && self != 1) {
-            // both failed to add their peer's courses, add back own courses
-            this.addCourse(chosenCourse, ownIndex, 0);
-            peerManager.addCourse(chosenCourse, peerIndex, 0);
-            return 3;
-        } else if (peer == 1 && self != 1) {
-            peerManager.dropCourseNoRemoveWaitlist(chosenCourse, ownIndex);
-            this.addCourse(chosenCourse, ownIndex, 0);
-            peerManager.addCourse(chosenCourse, peerIndex, 0);
-            return 3;
-        } else if (peer != 1 && self == 1) {
-            this.dropCourseNoRemoveWaitlist(chosenCourse, peerIndex);
-            this.addCourse(chosenCourse, ownIndex, 0);
-            peerManager.addCourse(chosenCourse, peerIndex, 0);
-            return 3;
-        }
+        if (ownIdx.getCourseId() != peerIdx.getCourseId()) return 2;
+        if (ownIndex.equals(peerIndex)) return 1;
 
-        return 1;
+        return StudentManager.rotateIndexes(chosenCourse, Arrays.asList(this, peerManager), Arrays.asList(ownIndex, peerIndex));
     }
 
     /**
-     * Unenrolls a student from a course without pushing in new students from the waitlist. Used primarily for swapping indexes.
+     * Moves each student of a cycle into the index held by the next student in the cycle, as one operation.
+     * <p>
+     * Every index of the cycle is locked, every student is read again and checked against their timetable and the AU
+     * limit as if they had already left their own index, and the roster entries are exchanged with a single write to each
+     * flat file. No seat is given up at any point. A swop between two students is a cycle of two.
+     * </p>
+     * <p>
+     * The rosters are written first. The students are then written only if none of their rows has changed since they were
+     * read. Otherwise the rosters are written back as they were, so the two flat files never disagree about who holds
+     * which seat, and the cycle is read and checked again.
+     * </p>
+     * 
+     * @param course                        the course code of every index in the cycle
+     * @param students                      the students of the cycle, in cycle order
+     * @param indexes                       the index currently held by each student, the last student moves into the first index
+     * 
+     * @return                              -1 if the first student no longer holds their index,
+     *                                      0 if another student no longer holds their index,
+     *                                      1 if every student was moved successfully,
+     *                                      3 if a move would exceed the AU limit or cause a timetable clash,
+     *                                      5 if the cycle could not be written, in which case no roster has changed
+     */
+    public static int rotateIndexes(String course, List<StudentManager> students, List<String> indexes) {
+        List<ReentrantLock> locks = IndexManager.lockIndexes(course, indexes.toArray(new String[0]));
+        try {
+            // writers that do not take the index locks can still change a roster or a student, in which case start again
+            int outcome = 4;
+            for (int attempt = 0; attempt < IndexManager.MAX_RETRIES && outcome == 4; attempt++) {
+                outcome = StudentManager.tryRotateIndexes(course, students, indexes);
+            }
+            return outcome == 4 ? 5 : outcome;
+        } finally {
+            IndexManager.unlockIndexes(locks);
+        }
+    }
+
+    /**
+     * Makes one attempt at rotateIndexes, with the index locks already held.
      * 
-     * @param chosenCourse                      the course the student is being unenrolled from
-     * @param chosenIndex                       the course index the student is being unenrolled from
+     * @param course                        the course code of every index in the cycle
+     * @param students                      the students of the cycle, in cycle order
+     * @param indexes                       the index currently held by each student
      * 
-     * @return                                  <code>true</code> if the operation was successful
-     * 
-     * @throws NumberFormatException
-     * @throws IOException
+     * @return                              the outcome as returned by rotateIndexes,
+     *                                      or 4 if an index or a student was changed by someone else before it could be
+     *                                      written, in which case no roster has changed
      */
-    public boolean dropCourseNoRemoveWaitlist(String chosenCourse, String chosenIndex) throws NumberFormatException, IOException {
-        // remove the student from the index flat file (in that removed index)
-        if (!IndexManager.removeEnrolled(chosenCourse, chosenIndex, currStudent.getName())) return false;
+    private static int tryRotateIndexes(String course, List<StudentManager> students, List<String> indexes) {
+        int size = students.size();
+
+        // read every index and student again now that the indexes are locked, every student must still hold their seat
+        Index[] idx = new Index[size];
+        String[][] oldRosters = new String[size][];
+        String[][] rosters = new String[size][];
+        int[] seats = new int[size];
+        for (int i=0; i<size; i++) {
+            Student fresh = Student.createByUsername(students.get(i).currStudent.getUsername());
+            if (fresh == null || fresh.getUsername().equals("student not found")) return i == 0 ? -1 : 0;
+            students.get(i).currStudent = fresh;
+            if (!students.get(i).checkIfExistingIndex(course, indexes.get(i))) return i == 0 ? -1 : 0;
+
+            idx[i] = new Index(course, indexes.get(i));
+            if (idx[i].getCourse() == null) return i == 0 ? -1 : 0;
+            oldRosters[i] = idx[i].getEnrolledStudents();
+            rosters[i] = oldRosters[i].clone();
+            seats[i] = StudentManager.findSeat(rosters[i], students.get(i).currStudent.getName());
+            if (seats[i] == -1) return i == 0 ? -1 : 0;
+        }
 
-        // reduce the number of Academic Units that the student holds and make that change to the Student object and the flat file
-        Index toBeRemoved = new Index(chosenCourse, chosenIndex);
-        int finalStudentAU = currStudent.getTotalAU() - toBeRemoved.getAcadUnits();
-        currStudent.setAU(finalStudentAU);
+        // check every student as if they had already left the index they are giving up
+        int[] newAU = new int[size];
+        for (int i=0; i<size; i++) {
+            int next = (i + 1) % size;
+            Student stud = students.get(i).currStudent;
+            newAU[i] = stud.getTotalAU() - idx[i].getAcadUnits() + idx[next].getAcadUnits();
+            if (newAU[i] > Student.AU_LIMIT) return 3;
+            if (!students.get(i).checkTimeClash(course, indexes.get(next), indexes.get(i))) return 3;
+        }
 
-        String studentCourses = currStudent.getStudentCourses();
-        String[] courseArr = studentCourses.split(";"); // courseArr holds all enrolled courses for the particular student (with username)
-        String updatedCourses = ""; //to be sent into the flat file
+        // each student takes the seat of the next student, then commit every index and every student together
+        for (int i=0; i<size; i++) {
+            int next = (i + 1) % size;
+            rosters[next][seats[next]] = students.get(i).currStudent.getName();
+        }
+        ArrayList<Student> studs = new ArrayList<Student>();
+        for (int i=0; i<size; i++) {
+            int next = (i + 1) % size;
+            Student stud = students.get(i).currStudent;
+            idx[i].stageEnrolled(rosters[i]);
+            stud.stageEnrolment(StudentManager.replaceCourse(stud.getStudentCourses(), course, indexes.get(i), indexes.get(next)),
+                newAU[i], stud.getWaitlist());
+            studs.add(stud);
+        }
+        if (!Index.setRosters(Arrays.asList(idx))) return 4;
+        if (Student.setEnrolmentsIfUnchanged(studs)) return 1;
 
-        // append all courses that are NOT chosenCourse into the new course string
-        for (int i=0; i<courseArr.length; i++) {
-            if (!(courseArr[i].equals(chosenCourse + "/" + chosenIndex))) {
-                if (updatedCourses.equals("")) {
-                    updatedCourses += courseArr[i];
-                }
-                else {
-                    updatedCourses += ";"+courseArr[i];
-                }
-            }
+        // the index locks are still held, so the rosters just written can be put back as they were
+        LinkedHashMap<Index, String[][]> written = new LinkedHashMap<Index, String[][]>();
+        for (int i=0; i<size; i++) {
+            written.put(idx[i], new String[][] {oldRosters[i], idx[i].getWaitlist()});
         }
-        // send the new student's course array into the flat file via Student class
-        if (!currStudent.setEnrolled(updatedCourses)) return false; // necessary coupling with Student class i.e. StudentManager must know that courses are in index 8
+        IndexManager.revertRosters(written);
+        return 4;
+    }
 
-        studentCourses = currStudent.getStudentCourses();
+    /**
+     * Finds the position of a student in the enrolled list of an index
+     * 
+     * @param roster                        the enrolled list of the index
+     * @param name                          the name of the student
+     * 
+     * @return                              the position of the student, or -1 if the student is not enrolled
+     */
+    private static int findSeat(String[] roster, String name) {
+        for (int i=0; i<roster.length; i++) {
+            if (roster[i].trim().equals(name.trim())) return i;
+        }
+        return -1;
+    }
 
-        return true;
+    /**
+     * Replaces one index of a course in a list of courses, keeping its position
+     * 
+     * @param courses                       the list of courses in ";" delineated format
+     * @param course                        the course whose index changes
+     * @param oldIndex                      the index being replaced
+     * @param newIndex                      the index replacing it
+     * 
+     * @return                              the new list of courses in ";" delineated format
+     */
+    private static String replaceCourse(String courses, String course, String oldIndex, String newIndex) {
+        String[] courseArr = courses.split(";");
+        for (int i=0; i<courseArr.length; i++) {
+            if (courseArr[i].equals(course + "/" + oldIndex)) courseArr[i] = course + "/" + newIndex;
+        }
+        return String.join(";", courseArr);
     }
 
     /**
@@ -656,4 +838,26 @@ public class StudentManager {
     public boolean displayIndexVacancy(String chosenCourse, String chosenIndex, int choice) throws IOException {
         return Index.displayVacancy(chosenCourse, chosenIndex, choice).equals("0");
     }
+
+    /**
+     * Displays the student's position on the waitlist of each index of a course they are waiting for
+     * <p>
+     * Each position comes with an estimate of the time left to wait, from how quickly the waitlist has moved recently.
+     * </p>
+     *
+     * @param chosenCourse          the selected course
+     */
+    public void displayWaitlistStatus(String chosenCourse) {
+        for (String courseKey : currStudent.getWaitlist().split(";")) {
+            String[] parts = courseKey.trim().split("/");
+            if (parts.length != 2 || !parts[0].equals(chosenCourse)) continue;
+
+            WaitlistTracker.Status status = WaitlistTracker.getStatus(parts[0], parts[1], currStudent.getName());
+            if (status.getPosition() == 0) continue;
+            String eta = status.getEtaMinutes() < 0 ? "no recent promotions to estimate from"
+                : "estimated wait " + status.getEtaMinutes() + " minutes";
+            System.out.println("Your waitlist position for " + courseKey.trim() + ": " + status.getPosition() + " of "
+                + status.getLength() + " (" + eta + ")");
+        }
+    }
 }
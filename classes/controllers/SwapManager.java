@@ -0,0 +1,505 @@
+package classes.controllers;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import classes.entities.*;
+
+/**
+ * SwapManager is a concrete class running the index swap market.
+ * <p>
+ * A student posts a swap request of the form "have CZ2001/203, want any of 201 or 202" without needing to know who they
+ * could swap with. Requests are kept in swapFlatFile.csv until they are matched or withdrawn.
+ * </p>
+ * <p>
+ * The requests of a course form a graph from the index a student has to the indexes they want. A cycle in that graph is
+ * a set of students who can all move at once, e.g. two students who want each other's index, or three students who each
+ * want the next one's index. Each cycle is carried out with StudentManager.rotateIndexes.
+ * </p>
+ * <p>
+ * Matching is incremental. After every new request the graph has no cycles left, so the only cycles a new request can
+ * create pass through it. Only those are searched for, breadth first so that the shortest cycle is used. Courses have
+ * separate graphs, so requests for different courses are matched in parallel.
+ * </p>
+ * <p>
+ * Other programs post and withdraw requests too, so every change holds the lock of swapFlatFile.csv while it applies the
+ * change, matches and writes the requests back. The books are kept between changes and swapFlatFile.csv is only read
+ * again if another program has replaced it since, which is seen from its identity, last modified time and size. No
+ * request posted elsewhere is lost and every cycle is found by whichever program completes it.
+ * </p>
+ */
+
+public class SwapManager {
+    /**
+     * Location of swapFlatFile.csv flat file
+     */
+    public static String swapFile = "flatFiles/swapFlatFile.csv";
+
+    /**
+     * The swap requests of each course, keyed by course code, as last read while holding the lock of swapFlatFile.csv
+     */
+    private static final ConcurrentHashMap<String, SwapBook> books = new ConcurrentHashMap<String, SwapBook>();
+
+    /**
+     * Identity, last modified time and size of swapFlatFile.csv when the books last matched it, or null if they do not
+     */
+    private static String swapState = null;
+
+    /**
+     * Empty Class Constructor
+     */
+    public SwapManager() {}
+
+    /**
+     * Posts a swap request and carries out a swap straight away if the request completes a cycle.
+     * <p>
+     * A student has at most one request per course, so a new request replaces the previous one. Wanted indexes the
+     * student cannot move to, because of the AU limit or a timetable clash, are left out of the request.
+     * </p>
+     *
+     * @param username              username of the student posting the request
+     * @param course                the course code of the indexes
+     * @param haveIndex             the index the student is enrolled in
+     * @param wantIndexes           the indexes the student would accept in exchange
+     *
+     * @return                      -1 if the student is not enrolled in haveIndex,
+     *                              0 if the student cannot move to any of the wanted indexes,
+     *                              1 if the student has been swapped,
+     *                              2 if the request has been posted and is waiting for a match,
+     *                              -2 if swapFlatFile.csv could not be read or written
+     */
+    public static int post(String username, String course, String haveIndex, String[] wantIndexes) {
+        return SwapManager.postAll(Collections.singletonList(new SwapRequest(username, course, haveIndex, wantIndexes))).get(0);
+    }
+
+    /**
+     * Posts several swap requests, matching the requests of different courses in parallel.
+     * <p>
+     * Requests of the same course are matched one after another in the order given.
+     * </p>
+     *
+     * @param requests              the requests being posted
+     *
+     * @return                      the outcome of each request as returned by post, in the order given
+     */
+    public static List<Integer> postAll(List<SwapRequest> requests) {
+        Integer[] outcomes = new Integer[requests.size()];
+
+        // validate each request against its student before any course is locked
+        LinkedHashMap<String, ArrayList<Integer>> byCourse = new LinkedHashMap<String, ArrayList<Integer>>();
+        for (int i = 0; i < requests.size(); i++) {
+            SwapRequest req = requests.get(i);
+            outcomes[i] = SwapManager.validate(req);
+            if (outcomes[i] == 2) byCourse.computeIfAbsent(req.course, k -> new ArrayList<Integer>()).add(i);
+        }
+
+        if (byCourse.isEmpty()) return Arrays.asList(outcomes);
+
+        FlatFileLock lock = null;
+        try {
+            lock = FlatFileLock.acquire(SwapManager.swapFile);
+            SwapManager.load();
+            byCourse.entrySet().parallelStream().forEach(entry -> {
+                SwapBook book = SwapManager.bookOf(entry.getKey());
+                for (int i : entry.getValue()) {
+                    outcomes[i] = book.add(requests.get(i));
+                }
+            });
+            SwapManager.save();
+        } catch (IOException e) {
+            e.printStackTrace();
+            // a swap already carried out stands, but no request is left waiting
+            for (ArrayList<Integer> posted : byCourse.values()) {
+                for (int i : posted) {
+                    if (outcomes[i] != 1) outcomes[i] = -2;
+                }
+            }
+        } finally {
+            FlatFileLock.release(lock);
+        }
+        return Arrays.asList(outcomes);
+    }
+
+    /**
+     * Withdraws the swap request of a student for a course.
+     *
+     * @param username              username of the student
+     * @param course                the course code of the request
+     *
+     * @return                      <code>true</code> if the student had a request for the course and it has been
+     *                              withdrawn
+     */
+    public static boolean withdraw(String username, String course) {
+        FlatFileLock lock = null;
+        try {
+            lock = FlatFileLock.acquire(SwapManager.swapFile);
+            SwapManager.load();
+            boolean removed = SwapManager.bookOf(course).remove(username.toLowerCase());
+            if (removed) SwapManager.save();
+            return removed;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            FlatFileLock.release(lock);
+        }
+    }
+
+    /**
+     * Returns the swap request of a student for a course.
+     *
+     * @param username              username of the student
+     * @param course                the course code of the request
+     *
+     * @return                      the waiting request, or null if the student has none for the course
+     */
+    public static SwapRequest getRequest(String username, String course) {
+        String user = username.toLowerCase();
+        try {
+            for (SwapRequest req : SwapManager.read()) {
+                if (req.username.equals(user) && req.course.equals(course)) return req;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Checks a request against its student and removes the wanted indexes the student cannot move to.
+     *
+     * @param req                   the request being checked
+     *
+     * @return                      -1 if the student is not enrolled in the index they have,
+     *                              0 if no wanted index is left,
+     *                              2 if the request can be posted
+     */
+    private static int validate(SwapRequest req) {
+        StudentManager sm = new StudentManager(req.username);
+        if (!sm.checkIfExistingIndex(req.course, req.have)) return -1;
+
+        Index haveIdx = new Index(req.course, req.have);
+        Iterator<String> it = req.wants.iterator();
+        while (it.hasNext()) {
+            String want = it.next();
+            Index wantIdx = new Index(req.course, want);
+            if (want.equals(req.have) || wantIdx.getCourse() == null
+                    || sm.currStudent.getTotalAU() - haveIdx.getAcadUnits() + wantIdx.getAcadUnits() > Student.AU_LIMIT
+                    || !sm.checkTimeClash(req.course, want, req.have)) {
+                it.remove();
+            }
+        }
+        return req.wants.isEmpty() ? 0 : 2;
+    }
+
+    /**
+     * Returns the book of a course, creating it if the course has none yet.
+     *
+     * @param course                the course code
+     *
+     * @return                      the book of the course
+     */
+    private static SwapBook bookOf(String course) {
+        return SwapManager.books.computeIfAbsent(course, k -> new SwapBook(k));
+    }
+
+    /**
+     * Reads the waiting requests from swapFlatFile.csv into the books, if it has changed since the books last matched it.
+     * <p>
+     * The caller holds the lock of swapFlatFile.csv and is about to change the books, so they only match the file again
+     * once save has written them. The requests read replace whatever the books held before. They are not matched, since
+     * every program matches a request as it is posted and leaves no cycle behind.
+     * </p>
+     *
+     * @throws IOException
+     */
+    private static void load() throws IOException {
+        String state = FlatFileTable.stateOf(SwapManager.swapFile);
+        boolean current = state != null && state.equals(SwapManager.swapState);
+        SwapManager.swapState = null;
+        if (current) return;
+        SwapManager.books.clear();
+        for (SwapRequest req : SwapManager.read()) {
+            SwapManager.bookOf(req.course).insert(req);
+        }
+    }
+
+    /**
+     * Reads the waiting requests from swapFlatFile.csv.
+     *
+     * @return                      the requests in the order they were posted, empty if none has been posted yet
+     *
+     * @throws IOException
+     */
+    private static ArrayList<SwapRequest> read() throws IOException {
+        ArrayList<SwapRequest> requests = new ArrayList<SwapRequest>();
+        try (BufferedReader br = new BufferedReader(new FileReader(SwapManager.swapFile))) {
+            String line = br.readLine(); // header
+            while ((line = br.readLine()) != null) {
+                String[] row = line.split(",");
+                if (row.length < 4) continue;
+                requests.add(new SwapRequest(row[0], row[1], row[2], row[3].split(";")));
+            }
+        } catch (FileNotFoundException e) {
+            // no request has been posted yet
+        }
+        return requests;
+    }
+
+    /**
+     * Rewrites swapFlatFile.csv with every waiting request.
+     * <p>
+     * The caller holds the lock of swapFlatFile.csv. Writes to a temporary file that is subsequently renamed to replace
+     * the original file. If the file cannot be written the books do not match it, so it is read again next time.
+     * </p>
+     *
+     * @throws IOException
+     */
+    private static void save() throws IOException {
+        File tempFile = FlatFileLock.tempFile(SwapManager.swapFile);
+        try {
+            PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(tempFile)));
+            pw.write("username,course,haveIndex,wantIndexes\n");
+            for (SwapBook book : SwapManager.books.values()) {
+                for (SwapRequest req : book.requests()) {
+                    pw.write(req.username + "," + req.course + "," + req.have + "," + String.join(";", req.wants) + "\n");
+                }
+            }
+            pw.flush();
+            pw.close();
+
+            FlatFileLock.replace(tempFile, SwapManager.swapFile);
+            SwapManager.swapState = FlatFileTable.stateOf(SwapManager.swapFile);
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * SwapRequest is a request by a student to swap their index of a course for any one of several other indexes.
+     */
+    public static class SwapRequest {
+        /**
+         * Lower case username of the student
+         */
+        private final String username;
+
+        /**
+         * The course code of the indexes
+         */
+        private final String course;
+
+        /**
+         * The index the student is enrolled in
+         */
+        private final String have;
+
+        /**
+         * The indexes the student would accept, in order of preference
+         */
+        private final LinkedHashSet<String> wants;
+
+        /**
+         * Class Constructor specifying the student, the index they have and the indexes they want
+         *
+         * @param username          username of the student
+         * @param course            the course code of the indexes
+         * @param have              the index the student is enrolled in
+         * @param wants             the indexes the student would accept
+         */
+        public SwapRequest(String username, String course, String have, String[] wants) {
+            this.username = username.toLowerCase();
+            this.course = course;
+            this.have = have;
+            this.wants = new LinkedHashSet<String>(Arrays.asList(wants));
+        }
+
+        /**
+         * Returns the index the student is enrolled in.
+         *
+         * @return                  the index the student has
+         */
+        public String getHave() {
+            return this.have;
+        }
+
+        /**
+         * Returns the indexes the student would accept.
+         *
+         * @return                  the wanted indexes, in order of preference
+         */
+        public List<String> getWants() {
+            return new ArrayList<String>(this.wants);
+        }
+    }
+
+    /**
+     * SwapBook holds the waiting swap requests of one course and finds the cycles among them.
+     */
+    private static class SwapBook {
+        /**
+         * The course code of the book
+         */
+        private final String course;
+
+        /**
+         * Waiting requests keyed by the index the student has, in the order they were posted
+         */
+        private final HashMap<String, ArrayList<SwapRequest>> byHave = new HashMap<String, ArrayList<SwapRequest>>();
+
+        /**
+         * Waiting requests keyed by lower case username
+         */
+        private final LinkedHashMap<String, SwapRequest> byUser = new LinkedHashMap<String, SwapRequest>();
+
+        /**
+         * Class Constructor specifying the course of the book
+         */
+        SwapBook(String course) {
+            this.course = course;
+        }
+
+        /**
+         * Adds a request and carries out the shortest cycle through it, if there is one.
+         *
+         * @param req               the request being added
+         *
+         * @return                  1 if the student has been swapped, 2 if the request is waiting
+         */
+        synchronized int add(SwapRequest req) {
+            this.insert(req);
+
+            List<SwapRequest> cycle = this.findCycle(req);
+            while (cycle != null) {
+                ArrayList<StudentManager> students = new ArrayList<StudentManager>();
+                ArrayList<String> indexes = new ArrayList<String>();
+                for (SwapRequest member : cycle) {
+                    students.add(new StudentManager(member.username));
+                    indexes.add(member.have);
+                }
+                if (StudentManager.rotateIndexes(this.course, students, indexes) == 1) {
+                    for (SwapRequest member : cycle) {
+                        this.remove(member.username);
+                    }
+                    return 1;
+                }
+
+                // a student's enrolment changed since they posted, drop requests that no longer hold and try again
+                if (!this.prune(cycle, students)) return 2;
+                if (!this.byUser.containsKey(req.username)) return 2;
+                cycle = this.findCycle(req);
+            }
+            return 2;
+        }
+
+        /**
+         * Adds a request without matching it, replacing the previous request of the student.
+         *
+         * @param req               the request being added
+         */
+        synchronized void insert(SwapRequest req) {
+            this.remove(req.username);
+            this.byUser.put(req.username, req);
+            this.byHave.computeIfAbsent(req.have, k -> new ArrayList<SwapRequest>()).add(req);
+        }
+
+        /**
+         * Removes the request of a student.
+         *
+         * @param username          lower case username of the student
+         *
+         * @return                  <code>true</code> if the student had a request
+         */
+        synchronized boolean remove(String username) {
+            SwapRequest old = this.byUser.remove(username);
+            if (old == null) return false;
+            ArrayList<SwapRequest> atIndex = this.byHave.get(old.have);
+            atIndex.remove(old);
+            if (atIndex.isEmpty()) this.byHave.remove(old.have);
+            return true;
+        }
+
+        /**
+         * Returns every waiting request.
+         *
+         * @return                  a copy of the waiting requests, in the order they were posted
+         */
+        synchronized ArrayList<SwapRequest> requests() {
+            return new ArrayList<SwapRequest>(this.byUser.values());
+        }
+
+        /**
+         * Finds the shortest cycle of requests passing through a request.
+         * <p>
+         * Searches breadth first from the indexes the request wants, following the requests of students holding each
+         * index reached, until the index the request has is reached again.
+         * </p>
+         *
+         * @param start             the request the cycle must pass through
+         *
+         * @return                  the requests of the cycle starting with start, each one moving into the index of the
+         *                          next one, or null if there is no cycle
+         */
+        private List<SwapRequest> findCycle(SwapRequest start) {
+            // for every index reached, the request whose student would move into it
+            HashMap<String, SwapRequest> via = new HashMap<String, SwapRequest>();
+            ArrayDeque<String> queue = new ArrayDeque<String>();
+            for (String want : start.wants) {
+                via.put(want, start);
+                queue.add(want);
+            }
+
+            while (!queue.isEmpty()) {
+                String reached = queue.poll();
+                for (SwapRequest holder : this.byHave.getOrDefault(reached, new ArrayList<SwapRequest>())) {
+                    for (String want : holder.wants) {
+                        if (want.equals(start.have)) {
+                            // walk back from the student closing the cycle to start
+                            LinkedList<SwapRequest> cycle = new LinkedList<SwapRequest>();
+                            cycle.addFirst(holder);
+                            SwapRequest prev = via.get(holder.have);
+                            while (prev != start) {
+                                cycle.addFirst(prev);
+                                prev = via.get(prev.have);
+                            }
+                            cycle.addFirst(start);
+                            return cycle;
+                        }
+                        if (!via.containsKey(want) && !want.equals(start.have)) {
+                            via.put(want, holder);
+                            queue.add(want);
+                        }
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Drops the requests of a failed cycle whose students can no longer make their move.
+         *
+         * @param cycle             the requests of the cycle
+         * @param students          the student of each request
+         *
+         * @return                  <code>true</code> if any request was dropped
+         */
+        private boolean prune(List<SwapRequest> cycle, List<StudentManager> students) {
+            boolean pruned = false;
+            for (int i = 0; i < cycle.size(); i++) {
+                SwapRequest member = cycle.get(i);
+                String target = cycle.get((i + 1) % cycle.size()).have;
+                StudentManager sm = students.get(i);
+                if (!sm.checkIfExistingIndex(this.course, member.have)) {
+                    this.remove(member.username);
+                    pruned = true;
+                } else if (!sm.checkTimeClash(this.course, target, member.have)) {
+                    member.wants.remove(target);
+                    if (member.wants.isEmpty()) this.remove(member.username);
+                    pruned = true;
+                }
+            }
+            return pruned;
+        }
+    }
+}
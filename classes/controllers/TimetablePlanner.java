@@ -0,0 +1,503 @@
+package classes.controllers;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+import classes.entities.*;
+
+/**
+ * TimetablePlanner finds every way a student could take a set of courses together, without enrolling in any of them.
+ * <p>
+ * A plan gives one index of every course, and is kept only if none of its indexes clash with each other or with the
+ * courses the student already holds, and the AU of the courses stays within the limit. Every index is taken as its
+ * week bitmap from ClashMatrix, so a plan is built by or-ing bitmaps together and a clash is an and of two bitmaps.
+ * </p>
+ * <p>
+ * Plans are found by backtracking over the courses, the course with the fewest indexes first. An index is tried only if
+ * it does not clash with the indexes chosen so far, and a choice is taken back at once when some course still to come
+ * has no index left that fits, so branches with no plan in them are not walked. The first few courses are expanded
+ * into enough partial plans to keep every thread of the fork-join pool busy, and each partial plan is finished
+ * separately in parallel.
+ * </p>
+ * <p>
+ * Planning only reads the Catalogue or the flat files once and then works in memory, so it takes no lock and a
+ * student can plan as often as they like without slowing down students who are enrolling.
+ * </p>
+ */
+
+public class TimetablePlanner {
+    /**
+     * Partial plans made for each thread of the fork-join pool, so that a thread finishing early can take another
+     */
+    private static final int PREFIXES_PER_THREAD = 8;
+
+    /**
+     * Orders plans from best to worst: fewest days with lessons, then fewest free half hours between lessons, then by
+     * index so that the order is always the same
+     */
+    public static final Comparator<Plan> BEST_FIRST = Comparator.comparingInt(Plan::getDays)
+        .thenComparingInt(Plan::getIdleHalfHours).thenComparing((a, b) -> Arrays.compare(a.indexes, b.indexes));
+
+    /**
+     * Empty Class Constructor
+     */
+    public TimetablePlanner() {}
+
+    /**
+     * Returns every plan of a set of courses for a student.
+     * <p>
+     * The stream is parallel, and plans are found as the stream is consumed, so a caller that only wants some of them
+     * can stop early. A sequential stream finds them one at a time in a fixed order.
+     * </p>
+     * <p>
+     * If the student already holds one of the courses, the index they hold is planned around like any other index of
+     * that course and need not have a vacancy.
+     * </p>
+     *
+     * @param student           the student planning
+     * @param courses           course codes e.g. CZ2001
+     *
+     * @return                  the plans, empty if a course does not exist, has no index with a vacancy or the courses
+     *                          would take the student over the AU limit
+     */
+    public static Stream<Plan> plan(Student student, Collection<String> courses) {
+        Problem problem = Problem.build(student, courses);
+        if (problem == null) return Stream.empty();
+
+        // expand the first courses until there are enough partial plans to share out
+        int target = PREFIXES_PER_THREAD * Math.max(1, ForkJoinPool.getCommonPoolParallelism());
+        ArrayList<Prefix> prefixes = new ArrayList<Prefix>();
+        prefixes.add(new Prefix(new int[0], problem.base));
+        int depth = 0;
+        while (depth < problem.size() && prefixes.size() < target) {
+            ArrayList<Prefix> next = new ArrayList<Prefix>();
+            for (Prefix prefix : prefixes) {
+                for (int k = 0; k < problem.bitmaps[depth].length; k++) {
+                    long[] timetable = problem.choose(depth, k, prefix.timetable);
+                    if (timetable != null) next.add(prefix.extend(k, timetable));
+                }
+            }
+            prefixes = next;
+            depth++;
+        }
+        int floor = depth;
+        return prefixes.parallelStream().flatMap(prefix -> StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(new Search(problem, prefix, floor), Spliterator.NONNULL), false));
+    }
+
+    /**
+     * Returns the best plans of a set of courses for a student, ordered by BEST_FIRST.
+     *
+     * @param student           the student planning
+     * @param courses           course codes e.g. CZ2001
+     * @param limit             the most plans to return
+     *
+     * @return                  the best plans, best first
+     */
+    public static List<Plan> rank(Student student, Collection<String> courses, int limit) {
+        if (limit <= 0) return new ArrayList<Plan>();
+        // each thread keeps its best plans with the worst on top, so that it can be dropped when a better one is found
+        PriorityQueue<Plan> best = TimetablePlanner.plan(student, courses).collect(
+            () -> new PriorityQueue<Plan>(BEST_FIRST.reversed()),
+            (queue, plan) -> TimetablePlanner.offer(queue, plan, limit),
+            (queue, other) -> other.forEach(plan -> TimetablePlanner.offer(queue, plan, limit)));
+        ArrayList<Plan> ranked = new ArrayList<Plan>(best);
+        ranked.sort(BEST_FIRST);
+        return ranked;
+    }
+
+    /**
+     * Adds a plan to a queue of the best plans, dropping the worst if there are more than the limit.
+     */
+    private static void offer(PriorityQueue<Plan> queue, Plan plan, int limit) {
+        queue.add(plan);
+        if (queue.size() > limit) queue.poll();
+    }
+
+    /**
+     * Plan is one index of every course planned.
+     */
+    public static class Plan {
+        /**
+         * The course codes in the order they were asked for
+         */
+        private final String[] courses;
+
+        /**
+         * The index of each course
+         */
+        private final String[] indexes;
+
+        /**
+         * The number of days with lessons, counting the courses the student already holds
+         */
+        private final int days;
+
+        /**
+         * Free half hours between the first and last lessons of each day
+         */
+        private final int idleHalfHours;
+
+        /**
+         * Class Constructor specifying the indexes and the week bitmap of the whole timetable
+         */
+        Plan(String[] courses, String[] indexes, long[] timetable) {
+            this.courses = courses;
+            this.indexes = indexes;
+            int days = 0;
+            int idle = 0;
+            for (int day = 0; day < 7; day++) {
+                long slots = TimetablePlanner.daySlots(timetable, day);
+                if (slots == 0) continue;
+                days++;
+                int span = 64 - Long.numberOfLeadingZeros(slots) - Long.numberOfTrailingZeros(slots);
+                idle += span - Long.bitCount(slots);
+            }
+            this.days = days;
+            this.idleHalfHours = idle;
+        }
+
+        /**
+         * Returns the index of each course.
+         *
+         * @return              index keyed by course code, in the order the courses were asked for
+         */
+        public LinkedHashMap<String, String> getIndexes() {
+            LinkedHashMap<String, String> indexes = new LinkedHashMap<String, String>();
+            for (int i = 0; i < this.courses.length; i++) {
+                indexes.put(this.courses[i], this.indexes[i]);
+            }
+            return indexes;
+        }
+
+        /**
+         * @return              the number of days of the week with lessons, counting the courses already held
+         */
+        public int getDays() {
+            return this.days;
+        }
+
+        /**
+         * @return              free half hours between the first and last lessons of each day, added up over the week
+         */
+        public int getIdleHalfHours() {
+            return this.idleHalfHours;
+        }
+
+        /**
+         * @return              the plan as course/index pairs e.g. CZ2001/201, CZ2002/203
+         */
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < this.courses.length; i++) {
+                if (i > 0) sb.append(", ");
+                sb.append(Catalogue.indexKey(this.courses[i], this.indexes[i]));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Returns the half hours of one day of a week bitmap, the first half hour of the day in the lowest bit.
+     */
+    private static long daySlots(long[] timetable, int day) {
+        int first = day * AllocationSolver.SLOTS_PER_DAY;
+        int word = first >>> 6;
+        int offset = first & 63;
+        long slots = timetable[word] >>> offset;
+        if (offset + AllocationSolver.SLOTS_PER_DAY > 64 && word + 1 < timetable.length) {
+            slots |= timetable[word + 1] << (64 - offset);
+        }
+        return slots & ((1L << AllocationSolver.SLOTS_PER_DAY) - 1);
+    }
+
+    /**
+     * Problem is the indexes of the courses being planned, in the order they are searched.
+     */
+    private static class Problem {
+        /**
+         * The course codes in the order they were asked for
+         */
+        private final String[] courses;
+
+        /**
+         * For each course searched, its position in courses
+         */
+        private final int[] position;
+
+        /**
+         * For each course searched, the names of its indexes
+         */
+        private final String[][] names;
+
+        /**
+         * For each course searched, the week bitmaps of its indexes
+         */
+        private final long[][][] bitmaps;
+
+        /**
+         * The week bitmap of the courses the student holds and is not planning
+         */
+        private final long[] base;
+
+        /**
+         * Class Constructor specifying the courses in search order
+         */
+        private Problem(String[] courses, int[] position, String[][] names, long[][][] bitmaps, long[] base) {
+            this.courses = courses;
+            this.position = position;
+            this.names = names;
+            this.bitmaps = bitmaps;
+            this.base = base;
+        }
+
+        /**
+         * Reads the indexes of the courses and the student's timetable.
+         *
+         * @return              the problem, or null if no plan is possible
+         */
+        static Problem build(Student student, Collection<String> courses) {
+            LinkedHashSet<String> wanted = new LinkedHashSet<String>();
+            for (String course : courses) {
+                if (!course.trim().equals("")) wanted.add(course.trim());
+            }
+            if (wanted.isEmpty()) return null;
+            Map<String, String> rows = IndexFinder.readRows(wanted);
+            String held = student.getStudentCourses() == null ? "" : student.getStudentCourses();
+            HashSet<String> holding = new HashSet<String>(Arrays.asList(held.split(";")));
+
+            // the student's timetable and AU without the courses being planned
+            long[] base = new long[AllocationSolver.WORDS];
+            int au = student.getTotalAU();
+            for (String key : holding) {
+                if (key.equals("")) continue;
+                if (wanted.contains(key.split("/")[0])) {
+                    String row = rows.get(key);
+                    if (row != null) au -= Integer.parseInt(FlatFileTable.column(row, 7).trim());
+                    continue;
+                }
+                long[] bitmap = ClashMatrix.bitmap(key);
+                for (int i = 0; i < base.length; i++) {
+                    base[i] |= bitmap[i];
+                }
+            }
+
+            String[] order = wanted.toArray(new String[0]);
+            ArrayList<ArrayList<String>> names = new ArrayList<ArrayList<String>>();
+            ArrayList<ArrayList<long[]>> bitmaps = new ArrayList<ArrayList<long[]>>();
+            for (int c = 0; c < order.length; c++) {
+                names.add(new ArrayList<String>());
+                bitmaps.add(new ArrayList<long[]>());
+            }
+            int[] courseAU = new int[order.length];
+            for (Map.Entry<String, String> entry : rows.entrySet()) {
+                String row = entry.getValue();
+                int c = Arrays.asList(order).indexOf(FlatFileTable.column(row, 0));
+                if (c < 0) continue;
+                try {
+                    courseAU[c] = Integer.parseInt(FlatFileTable.column(row, 7).trim());
+                    if (Integer.parseInt(FlatFileTable.column(row, 3).trim()) <= 0 && !holding.contains(entry.getKey())) continue;
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                names.get(c).add(FlatFileTable.column(row, 2));
+                bitmaps.get(c).add(ClashMatrix.bitmap(entry.getKey()));
+            }
+            for (int c = 0; c < order.length; c++) {
+                if (names.get(c).isEmpty()) return null;
+                au += courseAU[c];
+            }
+            if (au > Student.AU_LIMIT) return null;
+
+            // search the courses with the fewest indexes first, so that dead ends are found near the top
+            Integer[] search = new Integer[order.length];
+            for (int c = 0; c < order.length; c++) {
+                search[c] = c;
+            }
+            Arrays.sort(search, Comparator.comparingInt((Integer c) -> names.get(c).size()));
+            int[] position = new int[order.length];
+            String[][] searchNames = new String[order.length][];
+            long[][][] searchBitmaps = new long[order.length][][];
+            for (int d = 0; d < order.length; d++) {
+                position[d] = search[d];
+                searchNames[d] = names.get(search[d]).toArray(new String[0]);
+                searchBitmaps[d] = bitmaps.get(search[d]).toArray(new long[0][]);
+            }
+            return new Problem(order, position, searchNames, searchBitmaps, base);
+        }
+
+        /**
+         * @return              the number of courses
+         */
+        int size() {
+            return this.courses.length;
+        }
+
+        /**
+         * Chooses an index of a course on top of a timetable.
+         *
+         * @param depth         the course, in search order
+         * @param k             the index of the course
+         * @param timetable     the week bitmap of the indexes chosen so far
+         *
+         * @return              the week bitmap with the index added, or null if it clashes or leaves a later course with
+         *                      no index that fits
+         */
+        long[] choose(int depth, int k, long[] timetable) {
+            long[] lessons = this.bitmaps[depth][k];
+            if (AllocationSolver.clashes(lessons, timetable)) return null;
+            long[] chosen = new long[timetable.length];
+            for (int i = 0; i < chosen.length; i++) {
+                chosen[i] = timetable[i] | lessons[i];
+            }
+            for (int later = depth + 1; later < this.bitmaps.length; later++) {
+                boolean fits = false;
+                for (long[] option : this.bitmaps[later]) {
+                    if (!AllocationSolver.clashes(option, chosen)) {
+                        fits = true;
+                        break;
+                    }
+                }
+                if (!fits) return null;
+            }
+            return chosen;
+        }
+
+        /**
+         * Makes the plan of a full set of choices.
+         */
+        Plan plan(int[] chosen, long[] timetable) {
+            String[] indexes = new String[this.courses.length];
+            for (int d = 0; d < chosen.length; d++) {
+                indexes[this.position[d]] = this.names[d][chosen[d]];
+            }
+            return new Plan(this.courses, indexes, timetable);
+        }
+    }
+
+    /**
+     * Prefix is the indexes chosen for the first courses searched, with the week bitmap they make together.
+     */
+    private static class Prefix {
+        /**
+         * The index chosen for each of the first courses searched
+         */
+        private final int[] chosen;
+
+        /**
+         * The week bitmap of the student's other courses and the indexes chosen
+         */
+        private final long[] timetable;
+
+        /**
+         * Class Constructor specifying the choices and their week bitmap
+         */
+        Prefix(int[] chosen, long[] timetable) {
+            this.chosen = chosen;
+            this.timetable = timetable;
+        }
+
+        /**
+         * Returns the prefix with the index of one more course chosen.
+         */
+        Prefix extend(int k, long[] timetable) {
+            int[] chosen = Arrays.copyOf(this.chosen, this.chosen.length + 1);
+            chosen[this.chosen.length] = k;
+            return new Prefix(chosen, timetable);
+        }
+    }
+
+    /**
+     * Search walks every plan starting with a prefix, depth first, finding the next plan only when it is asked for.
+     */
+    private static class Search implements Iterator<Plan> {
+        /**
+         * The courses and their indexes
+         */
+        private final Problem problem;
+
+        /**
+         * The number of courses chosen by the prefix, which the search never goes back above
+         */
+        private final int floor;
+
+        /**
+         * The index chosen for each course so far
+         */
+        private final int[] chosen;
+
+        /**
+         * The next index to try for each course
+         */
+        private final int[] next;
+
+        /**
+         * The week bitmap before each course is chosen, and after the last
+         */
+        private final long[][] timetables;
+
+        /**
+         * The course being chosen
+         */
+        private int depth;
+
+        /**
+         * The plan found but not yet returned
+         */
+        private Plan found = null;
+
+        /**
+         * Class Constructor starting a search below a prefix
+         */
+        Search(Problem problem, Prefix prefix, int floor) {
+            this.problem = problem;
+            this.floor = floor;
+            this.chosen = Arrays.copyOf(prefix.chosen, problem.size());
+            this.next = new int[problem.size() + 1];
+            this.timetables = new long[problem.size() + 1][];
+            this.timetables[floor] = prefix.timetable;
+            this.depth = floor;
+            // a prefix of every course is already a whole plan
+            if (floor == problem.size()) this.found = problem.plan(this.chosen, prefix.timetable);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (this.found == null) this.found = this.advance();
+            return this.found != null;
+        }
+
+        @Override
+        public Plan next() {
+            if (!this.hasNext()) throw new NoSuchElementException();
+            Plan plan = this.found;
+            this.found = null;
+            return plan;
+        }
+
+        /**
+         * Walks on to the next plan.
+         *
+         * @return              the plan, or null if every plan below the prefix has been found
+         */
+        private Plan advance() {
+            if (this.floor == this.problem.size()) return null;
+            while (this.depth >= this.floor) {
+                if (this.next[this.depth] == this.problem.bitmaps[this.depth].length) {
+                    this.depth--;
+                    continue;
+                }
+                int k = this.next[this.depth]++;
+                long[] timetable = this.problem.choose(this.depth, k, this.timetables[this.depth]);
+                if (timetable == null) continue;
+                this.chosen[this.depth] = k;
+                this.timetables[this.depth + 1] = timetable;
+                if (this.depth + 1 == this.problem.size()) return this.problem.plan(this.chosen, timetable);
+                this.depth++;
+                this.next[this.depth] = 0;
+            }
+            return null;
+        }
+    }
+}
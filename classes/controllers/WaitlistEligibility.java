@@ -0,0 +1,164 @@
+package classes.controllers;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import classes.entities.*;
+
+/**
+ * WaitlistEligibility remembers whether each wait-listed student can be enrolled into the index they are waiting for.
+ * <p>
+ * Checking a student means reading the lessons of every course they are enrolled in to look for a clash, and a student
+ * who cannot be enrolled stays at the head of the waitlist and used to be checked again on every drop. Instead, the
+ * outcome of each check is kept for the waitlist entry, together with a stamp of everything it depended on: the
+ * student's enrolled courses and total AU, the AU of the index and the state of the lesson flat file. A student whose
+ * timetable has not changed since their last check is skipped or taken with a string comparison, and only students whose
+ * timetable did change are checked again.
+ * </p>
+ */
+
+public class WaitlistEligibility {
+    /**
+     * The remembered state of every waitlist entry, keyed by course/index e.g. CZ2001/201 and then by lower case name
+     */
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<String, Entry>> entries =
+        new ConcurrentHashMap<String, ConcurrentHashMap<String, Entry>>();
+
+    /**
+     * Empty Class Constructor
+     */
+    public WaitlistEligibility() {}
+
+    /**
+     * Returns the eligibility of a wait-listed student for an index, checking it again only if it may have changed.
+     *
+     * @param stud              the student, as currently in studentFlatFile.csv
+     * @param idx               the index the student is waiting for
+     *
+     * @return                  the up to date state of the waitlist entry
+     */
+    public static Entry check(Student stud, Index idx) {
+        String key = Catalogue.indexKey(idx.getCourse(), idx.getIndex());
+        ConcurrentHashMap<String, Entry> waitlist = entries.computeIfAbsent(key, k -> new ConcurrentHashMap<String, Entry>());
+        String stamp = stud.getStudentCourses() + "|" + stud.getTotalAU() + "|" + idx.getAcadUnits() + "|"
+            + WaitlistEligibility.lessonStamp();
+
+        Entry entry = waitlist.get(stud.getName().toLowerCase());
+        if (entry != null && entry.stamp.equals(stamp)) return entry;
+
+        StudentManager sm = new StudentManager(stud);
+        boolean inCourse = sm.checkIfExistingCourse(idx.getCourse());
+        int headroom = Student.AU_LIMIT - stud.getTotalAU() - idx.getAcadUnits();
+        // the clash check is the costly one, so it is left out once the student is ineligible anyway
+        boolean clashFree = !inCourse && headroom >= 0 && sm.checkTimeClash(idx.getCourse(), idx.getIndex());
+        entry = new Entry(stamp, inCourse, headroom, clashFree);
+        waitlist.put(stud.getName().toLowerCase(), entry);
+        return entry;
+    }
+
+    /**
+     * Returns the remembered eligibility of a waitlist entry without checking it.
+     *
+     * @param course            course code of the index
+     * @param index             the index
+     * @param name              name of the wait-listed student
+     *
+     * @return                  the state from the last check, or null if the entry has not been checked
+     */
+    public static Entry getEntry(String course, String index, String name) {
+        ConcurrentHashMap<String, Entry> waitlist = entries.get(Catalogue.indexKey(course, index));
+        return waitlist == null ? null : waitlist.get(name.toLowerCase());
+    }
+
+    /**
+     * Forgets the entries of students no longer on the waitlist of an index.
+     *
+     * @param course            course code of the index
+     * @param index             the index
+     * @param names             names of the students still on the waitlist
+     */
+    public static void retain(String course, String index, Collection<String> names) {
+        ConcurrentHashMap<String, Entry> waitlist = entries.get(Catalogue.indexKey(course, index));
+        if (waitlist == null) return;
+        HashSet<String> keep = new HashSet<String>();
+        for (String name : names) {
+            keep.add(name.toLowerCase());
+        }
+        waitlist.keySet().retainAll(keep);
+    }
+
+    /**
+     * Returns a stamp that changes whenever lessons are changed.
+     *
+     * @return                  the version of the lesson table if the Catalogue is loaded, else when the lesson flat file
+     *                          was last modified and its size
+     */
+    private static String lessonStamp() {
+        if (Catalogue.isLoaded()) return "v" + Catalogue.LESSONS.snapshot().getNumber();
+        File lessons = new File(Catalogue.LESSONS.getPath());
+        return "m" + lessons.lastModified() + "/" + lessons.length();
+    }
+
+    /**
+     * Entry is the eligibility of one student for the index they are waiting for, as of their last check.
+     */
+    public static class Entry {
+        /**
+         * Everything the check depended on
+         */
+        private final String stamp;
+
+        /**
+         * Whether the student is already in the course
+         */
+        private final boolean inCourse;
+
+        /**
+         * AU the student would have left under the limit after enrolling, negative if the limit would be exceeded
+         */
+        private final int headroom;
+
+        /**
+         * Whether the index fits the student's timetable, only checked if the student is otherwise eligible
+         */
+        private final boolean clashFree;
+
+        /**
+         * Class Constructor specifying the outcome of a check
+         */
+        Entry(String stamp, boolean inCourse, int headroom, boolean clashFree) {
+            this.stamp = stamp;
+            this.inCourse = inCourse;
+            this.headroom = headroom;
+            this.clashFree = clashFree;
+        }
+
+        /**
+         * @return              <code>true</code> if the student is already in the course, so the entry is redundant
+         */
+        public boolean isInCourse() {
+            return this.inCourse;
+        }
+
+        /**
+         * @return              AU left under the limit after enrolling, negative if the limit would be exceeded
+         */
+        public int getHeadroom() {
+            return this.headroom;
+        }
+
+        /**
+         * @return              <code>true</code> if the index fits the student's timetable
+         */
+        public boolean isClashFree() {
+            return this.clashFree;
+        }
+
+        /**
+         * @return              <code>true</code> if the student can be enrolled into the index
+         */
+        public boolean isEligible() {
+            return !this.inCourse && this.headroom >= 0 && this.clashFree;
+        }
+    }
+}
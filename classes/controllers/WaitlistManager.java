@@ -1,6 +1,8 @@
 package classes.controllers;
 
 import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.locks.*;
 
 import classes.entities.*;
 
@@ -18,6 +20,28 @@ public class WaitlistManager extends NotificationPublisher {
     public WaitlistManager() {
     }
  
+    /**
+     * The indexes and students as they are in the flat files, with eligibility remembered by WaitlistEligibility
+     */
+    private static final State LIVE = new State() {
+        public Index readIndex(String course, String index) {
+            Index idx = new Index(course, index);
+            return idx.getCourse() == null ? null : idx;
+        }
+
+        public HashMap<String, Student> readStudents(Collection<String> names) {
+            return Student.createByNames(names);
+        }
+
+        public WaitlistEligibility.Entry check(Student stud, Index idx) {
+            return WaitlistEligibility.check(stud, idx);
+        }
+
+        public void settle(String course, String index, Collection<String> waitlist) {
+            WaitlistEligibility.retain(course, index, waitlist);
+        }
+    };
+
     /**
      * Enrolls a student in their wait-listed course and notifies them.
      * 
@@ -27,45 +51,342 @@ public class WaitlistManager extends NotificationPublisher {
      * @return                      1 if the operation is successful, -1 if unsuccessful
      */
     public static int enrollStudent(String courseCode, String courseIndex) throws IOException {
-        // calls StudentManager.addCourse to push the 1st student in the wait list into the index he or she was waiting for
-        
-
         // get the wait list from that course and index
         Index freedIdx = new Index(courseCode, courseIndex);
         String[] waitList = freedIdx.getWaitlist();
+        if (waitList.length == 0 || waitList[0].equals("") || waitList[0].equals(" ")) {
+            return 1;
+        }
 
-        for (int i=0; i<waitList.length; i++) {
-            // get the first student on the wait list and add him/her to the course index
-            String frontStud = waitList[i];
-            
-            if (waitList[i].equals("") || waitList[i].equals(" ")){
-                return 1;
+        // push the first eligible student in the wait list into the index he or she was waiting for
+        if (WaitlistManager.promoteWaitlist(courseCode, courseIndex, 1) > 0) return 1;
+        return -1;
+    }
+
+    /**
+     * Enrolls wait-listed students into the vacancies of an index and notifies them.
+     * <p>
+     * Students are taken in waitlist order. A student who would exceed the AU limit or would have a timetable clash stays
+     * on the waitlist and the next student is tried, while a student who is already in the course is taken off the
+     * waitlist. Whether a student is eligible is remembered by WaitlistEligibility, so students whose timetable has not
+     * changed are not checked again.
+     * </p>
+     * <p>
+     * A promoted student is also taken off the waitlists of the other indexes of the course, since they can only hold one
+     * index of it. Each of those indexes that has vacancies then enrolls its own next eligible students, who are in turn
+     * taken off their other waitlists of the course, until the chain runs out.
+     * </p>
+     * <p>
+     * The whole chain is committed together: one write to indexFlatFile.csv for the rosters and vacancies of every index
+     * it touched, one write to studentFlatFile.csv for every student it moved, one notification pass and one write to the
+     * notification list. The first attempt works the chain out without holding a lock, then locks the indexes it
+     * touched before writing them. If its write is refused because an index changed in the meantime, the chain is worked
+     * out again holding the locks of the indexes it touched. The students are written only if none of them has changed
+     * since the chain read them, and otherwise the rosters are put back as they were, still under the locks, and the
+     * chain is worked out again too.
+     * </p>
+     * 
+     * @param courseCode            the code of the course with the vacancies
+     * @param courseIndex           the index of the course with the vacancies
+     * @param maxPromotions         the most students to enroll into the index, also limited by its vacancies
+     * 
+     * @return                      the number of students enrolled, counting those enrolled further down the chain, or -1
+     *                              if the chain could not be written within IndexManager.MAX_RETRIES attempts
+     * 
+     * @throws IllegalStateException if the rosters of a chain whose students could not be written cannot be put back
+     */
+    public static int promoteWaitlist(String courseCode, String courseIndex, int maxPromotions) {
+        Cascade cascade = null;
+        TreeSet<String> touched = new TreeSet<String>(Collections.singleton(courseIndex));
+        for (int attempt = 0; attempt < IndexManager.MAX_RETRIES && cascade == null; attempt++) {
+            List<ReentrantLock> held = attempt == 0 ? new ArrayList<ReentrantLock>()
+                : IndexManager.lockIndexes(courseCode, touched.toArray(new String[0]));
+            try {
+                Cascade planned = WaitlistManager.plan(courseCode, courseIndex, maxPromotions, LIVE);
+                if (planned.students.isEmpty()) {
+                    cascade = planned;
+                    continue;
+                }
+                if (attempt > 0 && !touched.containsAll(planned.indexes.keySet())) {
+                    // the chain reached an index whose lock is not held, so it is worked out again holding that lock too
+                    touched.addAll(planned.indexes.keySet());
+                    continue;
+                }
+                touched.addAll(planned.indexes.keySet());
+                if (attempt == 0) held = IndexManager.lockIndexes(courseCode, touched.toArray(new String[0]));
+                if (!Index.setRosters(planned.indexes.values())) continue;
+                if (Student.setEnrolmentsIfUnchanged(planned.students.values())) {
+                    cascade = planned;
+                } else {
+                    // a student changed after the chain read them, so the chain is undone and worked out again
+                    planned.restore();
+                }
+            } finally {
+                IndexManager.unlockIndexes(held);
             }
+        }
+        if (cascade == null) {
+            System.out.println("Failed to promote the waitlist of " + courseCode + "/" + courseIndex + " after "
+                + IndexManager.MAX_RETRIES + " attempts.");
+            return -1;
+        }
+        if (cascade.students.isEmpty()) return 0;
+
+        for (Map.Entry<String, ArrayList<String>> promoted : cascade.promoted.entrySet()) {
+            WaitlistTracker.recordPromotions(courseCode, promoted.getKey(), promoted.getValue().size());
+        }
+
+        // send notifications upon successful enroll, then unsubscribe the students from every waitlist they left
+        NotificationPublisher.notifyAll(cascade.messages, "waitlist");
+        NotificationPublisher.unsubscribeAll(cascade.withdrawn, "waitlist");
+        return cascade.messages.size();
+    }
+
+    /**
+     * Works out the chain of promotions that starts at an index, staging the changes on the indexes and students without
+     * writing them.
+     * 
+     * @param courseCode            the code of the course with the vacancies
+     * @param courseIndex           the index the chain starts at
+     * @param maxPromotions         the most students to enroll into that index
+     * @param state                 where the indexes and students are read from and eligibility is checked
+     * 
+     * @return                      the chain, with no students if nothing changes
+     */
+    static Cascade plan(String courseCode, String courseIndex, int maxPromotions, State state) {
+        Cascade cascade = new Cascade(courseCode, state);
+        Index first = cascade.index(courseIndex);
+        if (first == null) return cascade;
+        int courseVacancy = first.getCourseVacancy();
 
-            // try to add the course to the student FIRST (in case he/she is already overloaded)
-            // Student stud = Student.createByName(frontStud);
-            StudentManager sm = new StudentManager(frontStud);
+        HashMap<String, Student> candidates = new HashMap<String, Student>();
+        ArrayDeque<String> pending = new ArrayDeque<String>(Collections.singleton(courseIndex));
+        HashSet<String> queued = new HashSet<String>(pending);
+        while (!pending.isEmpty()) {
+            String index = pending.poll();
+            Index idx = cascade.index(index);
+            // further down the chain nothing was dropped, so only the vacancies the index already had are filled
+            int seats = Math.min(index.equals(courseIndex) ? maxPromotions : Integer.MAX_VALUE, idx.getIndexVacancy());
+            if (seats <= 0) continue;
 
-            // check if enrolling frontStud in the wait listed course will burst AUs
-            if (sm.checkAULimit(courseCode, courseIndex) == 1 && frontStud != null) {
-                sm.addCourse(courseCode, courseIndex, 1); // adding the student passes IF addCourseStatus == 1
-                
-                // remove student from waiting list in student file 
-                sm.removeStudentWaitlist(courseCode, courseIndex);
+            ArrayList<String> missing = new ArrayList<String>();
+            for (String name : idx.getWaitlist()) {
+                if (!candidates.containsKey(name.trim().toLowerCase())) missing.add(name.trim());
+            }
+            // students read earlier in the chain keep their staged changes
+            state.readStudents(missing).forEach(candidates::putIfAbsent);
 
-                // remove the first student from the wait list in that index
-                IndexManager.removeWaitlistStudent(courseCode, courseIndex, i);
+            ArrayList<String> enrolled = new ArrayList<String>();
+            for (String name : idx.getEnrolledStudents()) {
+                if (!name.equals("")) enrolled.add(name);
+            }
+            ArrayList<String> waitlist = new ArrayList<String>();
+            int promoted = 0;
+            for (String name : idx.getWaitlist()) {
+                if (name.trim().equals("")) continue;
+                Student stud = candidates.get(name.trim().toLowerCase());
+                if (promoted == seats || stud == null) {
+                    waitlist.add(name);
+                    continue;
+                }
+                WaitlistEligibility.Entry entry = state.check(stud, idx);
+                if (entry.isInCourse()) {
+                    // the student got into the course some other way and is no longer waiting for it
+                    cascade.withdraw(stud, index);
+                    continue;
+                }
+                if (!entry.isEligible()) {
+                    (entry.getHeadroom() < 0 ? cascade.overAU : cascade.clashing)
+                        .computeIfAbsent(index, k -> new ArrayList<String>()).add(stud.getUsername());
+                    waitlist.add(name);
+                    continue;
+                }
 
-                // send notification upon successful enroll
-                WaitlistManager.notify(sm.getUsername(), courseCode, courseIndex);
+                String courseKey = courseCode + "/" + index;
+                String studentCourses = stud.getStudentCourses();
+                studentCourses = studentCourses.equals("") ? courseKey : studentCourses + ";" + courseKey;
+                stud.stageEnrolment(studentCourses, stud.getTotalAU() + idx.getAcadUnits(), stud.getWaitlist());
+                cascade.withdraw(stud, index);
+                // the student's other waitlists of the course are redundant now, and may hold up vacancies of their own
+                for (String other : stud.getWaitlist().split(";")) {
+                    String[] key = other.trim().split("/");
+                    if (key.length != 2 || !key[0].equals(courseCode)) continue;
+                    Index otherIdx = cascade.index(key[1]);
+                    cascade.withdraw(stud, key[1]);
+                    if (otherIdx == null) continue;
+                    otherIdx.stageRoster(otherIdx.getEnrolledStudents(), WaitlistManager.without(otherIdx.getWaitlist(),
+                        stud.getName()), otherIdx.getIndexVacancy(), courseVacancy);
+                    if (otherIdx.getIndexVacancy() > 0 && queued.add(key[1])) pending.add(key[1]);
+                }
 
-                // unsubscribe the student from the notification list
-                NotificationPublisher.unsubscribe(sm.getUsername(), "waitlist", courseCode, courseIndex);
-                return 1;
+                enrolled.add(stud.getName());
+                promoted++;
+                cascade.promoted.computeIfAbsent(index, k -> new ArrayList<String>()).add(stud.getUsername());
+                cascade.messages.put(stud.getUsername(), "You have been accepted on the waitlist for " + courseKey + "!");
             }
+            state.settle(courseCode, index, waitlist);
+            courseVacancy -= promoted;
+            idx.stageRoster(enrolled.toArray(new String[0]), waitlist.toArray(new String[0]),
+                idx.getIndexVacancy() - promoted, courseVacancy);
         }
 
-        return -1;
+        // every index of the course written together must carry the same course vacancy
+        for (Index idx : cascade.indexes.values()) {
+            idx.stageRoster(idx.getEnrolledStudents(), idx.getWaitlist(), idx.getIndexVacancy(), courseVacancy);
+        }
+        return cascade;
+    }
+
+    /**
+     * Returns a waitlist without a student.
+     */
+    private static String[] without(String[] waitlist, String name) {
+        ArrayList<String> kept = new ArrayList<String>();
+        for (String waiting : waitlist) {
+            if (!waiting.trim().equalsIgnoreCase(name.trim())) kept.add(waiting);
+        }
+        return kept.toArray(new String[0]);
+    }
+
+    /**
+     * State is where a chain of promotions reads the indexes and students it works on.
+     * <p>
+     * The chain stages its changes on the objects it is given, so a State must hand out the same object every time for
+     * the changes to carry over from one index of the chain to the next, unless the objects are read afresh for each
+     * chain as with the flat files.
+     * </p>
+     */
+    interface State {
+        /**
+         * @return              the index, or null if it does not exist
+         */
+        Index readIndex(String course, String index);
+
+        /**
+         * @return              the students with the given names that exist, keyed by lower case name
+         */
+        HashMap<String, Student> readStudents(Collection<String> names);
+
+        /**
+         * @return              the eligibility of a wait-listed student for the index they are waiting for
+         */
+        WaitlistEligibility.Entry check(Student stud, Index idx);
+
+        /**
+         * Called with the students still waiting on an index once the chain is done with it.
+         */
+        void settle(String course, String index, Collection<String> waitlist);
+    }
+
+    /**
+     * Cascade is a chain of promotions staged on the indexes and students it changes.
+     */
+    static class Cascade {
+        /**
+         * The course of the chain
+         */
+        final String course;
+
+        /**
+         * Where the chain reads indexes from
+         */
+        private final State state;
+
+        /**
+         * Every index read by the chain, keyed by index
+         */
+        final TreeMap<String, Index> indexes = new TreeMap<String, Index>();
+
+        /**
+         * The enrolled list and waitlist of every index as read, before the chain staged anything, keyed by index
+         */
+        private final HashMap<String, String[][]> readRosters = new HashMap<String, String[][]>();
+
+        /**
+         * Indexes the chain looked for that do not exist
+         */
+        final HashSet<String> missing = new HashSet<String>();
+
+        /**
+         * Every student the chain changes, keyed by username
+         */
+        final LinkedHashMap<String, Student> students = new LinkedHashMap<String, Student>();
+
+        /**
+         * The message for every student promoted, keyed by username
+         */
+        final LinkedHashMap<String, String> messages = new LinkedHashMap<String, String>();
+
+        /**
+         * The usernames of the students promoted into each index, keyed by index
+         */
+        final TreeMap<String, ArrayList<String>> promoted = new TreeMap<String, ArrayList<String>>();
+
+        /**
+         * The usernames of the students left waiting on each index because of the AU limit, keyed by index
+         */
+        final TreeMap<String, ArrayList<String>> overAU = new TreeMap<String, ArrayList<String>>();
+
+        /**
+         * The usernames of the students left waiting on each index because of a timetable clash, keyed by index
+         */
+        final TreeMap<String, ArrayList<String>> clashing = new TreeMap<String, ArrayList<String>>();
+
+        /**
+         * The usernames of the students taken off each waitlist, keyed by course/index
+         */
+        final HashMap<String, ArrayList<String>> withdrawn = new HashMap<String, ArrayList<String>>();
+
+        /**
+         * Class Constructor for an empty chain
+         */
+        Cascade(String course, State state) {
+            this.course = course;
+            this.state = state;
+        }
+
+        /**
+         * Returns an index of the course, reading it the first time it is needed.
+         *
+         * @return              the index, or null if it does not exist
+         */
+        Index index(String index) {
+            if (this.indexes.containsKey(index) || this.missing.contains(index)) return this.indexes.get(index);
+            Index idx = this.state.readIndex(this.course, index);
+            if (idx == null) {
+                this.missing.add(index);
+                return null;
+            }
+            this.indexes.put(index, idx);
+            this.readRosters.put(index, new String[][] {idx.getEnrolledStudents(), idx.getWaitlist()});
+            return idx;
+        }
+
+        /**
+         * Takes the chain back out of the rosters, after the chain's own rosters have been written, with the locks of its
+         * indexes held.
+         *
+         * @throws IllegalStateException if the rosters could not be put back
+         */
+        void restore() {
+            LinkedHashMap<Index, String[][]> written = new LinkedHashMap<Index, String[][]>();
+            for (Map.Entry<String, Index> entry : this.indexes.entrySet()) {
+                written.put(entry.getValue(), this.readRosters.get(entry.getKey()));
+            }
+            IndexManager.revertRosters(written);
+        }
+
+        /**
+         * Takes an index off a student's waitlist, staging the change on the student.
+         */
+        void withdraw(Student stud, String index) {
+            String courseKey = this.course + "/" + index;
+            ArrayList<String> studentWaitlist = new ArrayList<String>(Arrays.asList(stud.getWaitlist().split(";")));
+            studentWaitlist.remove(courseKey);
+            stud.stageEnrolment(stud.getStudentCourses(), stud.getTotalAU(), String.join(";", studentWaitlist));
+            this.students.put(stud.getUsername(), stud);
+            this.withdrawn.computeIfAbsent(courseKey, k -> new ArrayList<String>()).add(stud.getUsername());
+        }
     }
 
     /**
@@ -0,0 +1,463 @@
+package classes.controllers;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import classes.entities.*;
+
+/**
+ * WaitlistTracker answers where a student stands on the waitlist of an index and how quickly that waitlist moves.
+ * <p>
+ * Each index has a Fenwick tree over the order in which students joined its waitlist, with a 1 for every student still
+ * waiting. A student's position is the number of students waiting who joined no later than them, a prefix sum that takes
+ * O(log n) however long the waitlist is. The tree is brought up to date from the waitlist column of the index only when
+ * that row has changed, adding students who joined at the end and clearing those who left, so polling an index that has
+ * not changed reads nothing at all.
+ * </p>
+ * <p>
+ * Every time WaitlistManager promotes students off a waitlist, the time and the number promoted are appended to
+ * promotionFlatFile.csv, so every program sees the promotions made by all of them. The promotion rate of an index over
+ * the last stars.promotionWindowHours hours, 24 by default, gives an estimate of how long a student has left to wait.
+ * The flat file is read again only when it has changed, and rows that have fallen out of the window are dropped from it
+ * once they make up most of it. Its first row, of no index, records when counting began.
+ * </p>
+ */
+
+public class WaitlistTracker {
+    /**
+     * The number of hours over which promotions are counted
+     */
+    public static final int WINDOW_HOURS = Math.max(1, Integer.getInteger("stars.promotionWindowHours", 24));
+
+    /**
+     * Location of promotionFlatFile.csv flat file
+     */
+    public static String promotionFile = "flatFiles/promotionFlatFile.csv";
+
+    /**
+     * Header row of promotionFlatFile.csv
+     */
+    private static final String PROMOTION_HEADER = "time,course,index,promoted";
+
+    /**
+     * The number of rows promotionFlatFile.csv may hold before the rows out of the window are dropped from it
+     */
+    private static final int COMPACT_ROWS = 1024;
+
+    /**
+     * Milliseconds in an hour
+     */
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Every promotion in promotionFlatFile.csv as {time, promoted}, in the order appended, keyed by course/index
+     */
+    private static HashMap<String, ArrayList<long[]>> promotions = new HashMap<String, ArrayList<long[]>>();
+
+    /**
+     * When counting began, as recorded in the first row of promotionFlatFile.csv
+     */
+    private static long since = Long.MAX_VALUE;
+
+    /**
+     * The number of rows of promotionFlatFile.csv after its header
+     */
+    private static int promotionRows = 0;
+
+    /**
+     * Identity, last modified time and size of promotionFlatFile.csv when the promotions were last read
+     */
+    private static String promotionState = null;
+
+    /**
+     * The tracked waitlist of every index that has been queried, keyed by course/index e.g. CZ2001/201
+     */
+    private static final ConcurrentHashMap<String, Queue> queues = new ConcurrentHashMap<String, Queue>();
+
+    /**
+     * Empty Class Constructor
+     */
+    public WaitlistTracker() {}
+
+    /**
+     * Returns the waitlist position of a student and the promotion rate of an index.
+     *
+     * @param course            course code of the index
+     * @param index             the index
+     * @param name              name of the student
+     *
+     * @return                  the status of the student on the waitlist, with position 0 if they are not on it
+     */
+    public static Status getStatus(String course, String index, String name) {
+        Queue queue = WaitlistTracker.queue(course, index);
+        long now = System.currentTimeMillis();
+        synchronized (queue) {
+            queue.refresh(course, index);
+            return new Status(queue.position(name.trim().toLowerCase()), queue.live,
+                WaitlistTracker.promotionsPerHour(Catalogue.indexKey(course, index), now));
+        }
+    }
+
+    /**
+     * Appends students promoted off the waitlist of an index to promotionFlatFile.csv.
+     *
+     * @param course            course code of the index
+     * @param index             the index
+     * @param promoted          the number of students promoted
+     */
+    public static void recordPromotions(String course, String index, int promoted) {
+        if (promoted <= 0) return;
+        FlatFileLock lock = null;
+        try {
+            lock = FlatFileLock.acquire(promotionFile);
+            synchronized (WaitlistTracker.class) {
+                long now = System.currentTimeMillis();
+                WaitlistTracker.refreshPromotions();
+                if (!new File(promotionFile).exists()) {
+                    // start counting afresh from now
+                    promotions = new HashMap<String, ArrayList<long[]>>();
+                    since = now;
+                    promotionRows = 0;
+                    WaitlistTracker.writePromotions();
+                    promotionState = FlatFileTable.stateOf(promotionFile);
+                }
+                // a flat file that could not be read is appended to but read again next time
+                boolean current = promotionState != null;
+                try (FileWriter fw = new FileWriter(promotionFile, true)) {
+                    fw.append(now + "," + course + "," + index + "," + promoted + "\n");
+                }
+                promotions.computeIfAbsent(Catalogue.indexKey(course, index), k -> new ArrayList<long[]>())
+                    .add(new long[] {now, promoted});
+                promotionRows++;
+                promotionState = current ? FlatFileTable.stateOf(promotionFile) : null;
+                if (current && promotionRows > COMPACT_ROWS) WaitlistTracker.compactPromotions(now);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            FlatFileLock.release(lock);
+        }
+    }
+
+    /**
+     * Returns the tracked waitlist of an index, creating an empty one if it has not been queried yet.
+     */
+    private static Queue queue(String course, String index) {
+        return queues.computeIfAbsent(Catalogue.indexKey(course, index), k -> new Queue());
+    }
+
+    /**
+     * Returns the promotions per hour of an index over the window, or over the time since counting began if shorter but
+     * never over less than an hour, so that a burst just after counting began does not promise a short wait.
+     */
+    private static synchronized double promotionsPerHour(String key, long now) {
+        WaitlistTracker.refreshPromotions();
+        long total = 0;
+        for (long[] promotion : promotions.getOrDefault(key, new ArrayList<long[]>())) {
+            if (promotion[0] > now - WINDOW_HOURS * HOUR_MILLIS) total += promotion[1];
+        }
+        double hours = Math.min(WINDOW_HOURS, Math.max(1.0, (now - Math.min(now, since)) / (double) HOUR_MILLIS));
+        return total / hours;
+    }
+
+    /**
+     * Reads promotionFlatFile.csv again if it has changed since it was last read.
+     */
+    private static void refreshPromotions() {
+        String state = FlatFileTable.stateOf(promotionFile);
+        if (state != null && state.equals(promotionState)) return;
+        promotions = new HashMap<String, ArrayList<long[]>>();
+        since = Long.MAX_VALUE;
+        promotionRows = 0;
+        promotionState = null;
+        if (state == null) return;
+        try (BufferedReader br = new BufferedReader(new FileReader(promotionFile))) {
+            String line = br.readLine();
+            while ((line = br.readLine()) != null) {
+                String[] row = line.split(",");
+                if (row.length < 4) continue;
+                try {
+                    long time = Long.parseLong(row[0].trim());
+                    long promoted = Long.parseLong(row[3].trim());
+                    since = Math.min(since, time);
+                    promotionRows++;
+                    if (promoted > 0) {
+                        promotions.computeIfAbsent(Catalogue.indexKey(row[1], row[2]), k -> new ArrayList<long[]>())
+                            .add(new long[] {time, promoted});
+                    }
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+            }
+            promotionState = state;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Drops the rows that have fallen out of the window from promotionFlatFile.csv once they make up most of it, its
+     * lock already held.
+     */
+    private static void compactPromotions(long now) throws IOException {
+        int expired = 0;
+        for (ArrayList<long[]> list : promotions.values()) {
+            for (long[] promotion : list) {
+                if (promotion[0] <= now - WINDOW_HOURS * HOUR_MILLIS) expired++;
+            }
+        }
+        if (expired * 2 <= promotionRows) return;
+        for (ArrayList<long[]> list : promotions.values()) {
+            list.removeIf(promotion -> promotion[0] <= now - WINDOW_HOURS * HOUR_MILLIS);
+        }
+        promotions.values().removeIf(List::isEmpty);
+        WaitlistTracker.writePromotions();
+        promotionState = FlatFileTable.stateOf(promotionFile);
+    }
+
+    /**
+     * Replaces promotionFlatFile.csv with the promotions held, after the row recording when counting began, its lock
+     * already held.
+     */
+    private static void writePromotions() throws IOException {
+        ArrayList<String> rows = new ArrayList<String>();
+        for (Map.Entry<String, ArrayList<long[]>> entry : promotions.entrySet()) {
+            String[] key = entry.getKey().split("/", 2);
+            for (long[] promotion : entry.getValue()) {
+                rows.add(promotion[0] + "," + key[0] + "," + key[1] + "," + promotion[1]);
+            }
+        }
+        // rows of different indexes are put back in time order
+        rows.sort(Comparator.comparingLong(row -> Long.parseLong(row.substring(0, row.indexOf(',')))));
+        File tempFile = FlatFileLock.tempFile(promotionFile);
+        try {
+            try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(tempFile)))) {
+                pw.write(PROMOTION_HEADER + "\n");
+                pw.write(since + ",,,0\n");
+                for (String row : rows) {
+                    pw.write(row + "\n");
+                }
+            }
+            FlatFileLock.replace(tempFile, promotionFile);
+        } finally {
+            tempFile.delete();
+        }
+        promotionRows = rows.size() + 1;
+    }
+
+    /**
+     * Status is the standing of one student on the waitlist of an index.
+     */
+    public static class Status {
+        /**
+         * The student's position counting from 1, or 0 if they are not on the waitlist
+         */
+        private final int position;
+
+        /**
+         * The number of students on the waitlist
+         */
+        private final int length;
+
+        /**
+         * Students promoted off the waitlist per hour, averaged over the promotion window
+         */
+        private final double promotionsPerHour;
+
+        /**
+         * Class Constructor specifying the standing of the student
+         */
+        Status(int position, int length, double promotionsPerHour) {
+            this.position = position;
+            this.length = length;
+            this.promotionsPerHour = promotionsPerHour;
+        }
+
+        /**
+         * @return              the student's position counting from 1, or 0 if they are not on the waitlist
+         */
+        public int getPosition() {
+            return this.position;
+        }
+
+        /**
+         * @return              the number of students on the waitlist
+         */
+        public int getLength() {
+            return this.length;
+        }
+
+        /**
+         * @return              students promoted off the waitlist per hour, averaged over the promotion window
+         */
+        public double getPromotionsPerHour() {
+            return this.promotionsPerHour;
+        }
+
+        /**
+         * Estimates how long the student has left to wait if the waitlist keeps moving at its recent rate.
+         *
+         * @return              the estimate in minutes, or -1 if the student is not waiting or nobody has been promoted
+         */
+        public long getEtaMinutes() {
+            if (this.position == 0 || this.promotionsPerHour <= 0) return -1;
+            return (long) Math.ceil(this.position / this.promotionsPerHour * 60);
+        }
+    }
+
+    /**
+     * Queue is the waitlist of one index as a Fenwick tree over join order.
+     * <p>
+     * Every student is given a slot when they join, and slots are handed out in increasing order so that slot order is
+     * waitlist order. A slot is cleared when its student leaves, and the tree is packed again once the slots run out.
+     * </p>
+     */
+    private static class Queue {
+        /**
+         * The Fenwick tree, counting the students waiting in each range of slots, indexed from 1
+         */
+        private int[] tree = new int[17];
+
+        /**
+         * The slot of every student waiting, keyed by lower case name
+         */
+        private HashMap<String, Integer> slots = new HashMap<String, Integer>();
+
+        /**
+         * The number of slots handed out
+         */
+        private int next = 0;
+
+        /**
+         * The number of students waiting
+         */
+        private int live = 0;
+
+        /**
+         * The row of indexFlatFile.csv the tree was last brought up to date from
+         */
+        private String row = null;
+
+        /**
+         * When indexFlatFile.csv was last modified and its size, as of the last read without the Catalogue
+         */
+        private String fileStamp = null;
+
+        /**
+         * Class Constructor for an empty waitlist
+         */
+        Queue() {}
+
+        /**
+         * Brings the tree up to date with the waitlist of the index if its row has changed.
+         */
+        void refresh(String course, String index) {
+            if (!Catalogue.isLoaded()) {
+                File indexFile = new File(Catalogue.INDEXES.getPath());
+                String stamp = indexFile.lastModified() + "/" + indexFile.length();
+                if (stamp.equals(this.fileStamp)) return;
+                this.fileStamp = stamp;
+                this.row = null;
+                String[] waitlist = new Index(course, index).getWaitlist();
+                this.sync(waitlist == null ? new String[0] : waitlist);
+                return;
+            }
+            String line = Catalogue.INDEXES.get(Catalogue.indexKey(course, index));
+            // rows are replaced rather than edited, so an unchanged row is the very same string
+            if (line == this.row && line != null) return;
+            this.fileStamp = null;
+            if (line == null || !line.equals(this.row)) {
+                this.sync(line == null ? new String[0] : FlatFileTable.column(line, 5).split(";"));
+            }
+            this.row = line;
+        }
+
+        /**
+         * Clears the slots of students who have left the waitlist and hands slots to those who have joined at the end.
+         * <p>
+         * The tree is built again instead if the waitlist has been reordered or the slots have run out.
+         * </p>
+         */
+        private void sync(String[] waitlist) {
+            LinkedHashSet<String> names = new LinkedHashSet<String>();
+            for (String name : waitlist) {
+                if (!name.trim().equals("")) names.add(name.trim().toLowerCase());
+            }
+
+            Iterator<Map.Entry<String, Integer>> it = this.slots.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Integer> slot = it.next();
+                if (names.contains(slot.getKey())) continue;
+                this.add(slot.getValue(), -1);
+                this.live--;
+                it.remove();
+            }
+
+            // students still waiting must keep their order, and students joining must come after all of them
+            ArrayList<String> joined = new ArrayList<String>();
+            int last = -1;
+            for (String name : names) {
+                Integer slot = this.slots.get(name);
+                if (slot == null) {
+                    joined.add(name);
+                } else if (!joined.isEmpty() || slot < last) {
+                    this.rebuild(names);
+                    return;
+                } else {
+                    last = slot;
+                }
+            }
+            if (this.next + joined.size() > this.tree.length - 1) {
+                this.rebuild(names);
+                return;
+            }
+            for (String name : joined) {
+                this.slots.put(name, this.next);
+                this.add(this.next++, 1);
+                this.live++;
+            }
+        }
+
+        /**
+         * Packs the waitlist into the first slots of a new tree with room for it to double.
+         */
+        private void rebuild(Collection<String> names) {
+            int capacity = Math.max(16, 2 * names.size());
+            this.tree = new int[capacity + 1];
+            this.slots = new HashMap<String, Integer>();
+            this.next = 0;
+            for (String name : names) {
+                this.slots.put(name, this.next++);
+                this.tree[this.next] = 1;
+            }
+            this.live = this.next;
+            // each node passes its count up to its parent, building the tree in linear time
+            for (int i = 1; i <= capacity; i++) {
+                int parent = i + (i & -i);
+                if (parent <= capacity) this.tree[parent] += this.tree[i];
+            }
+        }
+
+        /**
+         * Adds to the count of a slot.
+         */
+        private void add(int slot, int delta) {
+            for (int i = slot + 1; i < this.tree.length; i += i & -i) {
+                this.tree[i] += delta;
+            }
+        }
+
+        /**
+         * Returns the position of a student counting from 1, or 0 if they are not waiting.
+         */
+        int position(String name) {
+            Integer slot = this.slots.get(name);
+            if (slot == null) return 0;
+            int sum = 0;
+            for (int i = slot + 1; i > 0; i -= i & -i) {
+                sum += this.tree[i];
+            }
+            return sum;
+        }
+    }
+}
@@ -62,6 +62,11 @@ public class Admin extends User {
      */
     public static Admin createByUsername(String username) {
         Admin admin;
+        if (Catalogue.isLoaded()) {
+            String line = Catalogue.ADMINS.get(username.toLowerCase());
+            if (line == null) return new Admin();
+            return new Admin(FlatFileTable.column(line, 0), FlatFileTable.column(line, 1));
+        }
         try {
             BufferedReader br = new BufferedReader(new FileReader(Admin.adminFile));
             String line = "";
@@ -0,0 +1,314 @@
+package classes.entities;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Catalogue is a concrete class holding the in-memory copy of every flat file.
+ * <p>
+ * Once the Catalogue has been loaded, entities look rows up here instead of scanning their flat file. The flat files stay
+ * the record of truth: every write still goes to the file first, and the lines written are then passed to the Catalogue
+ * through rewritten or appended so that both copies stay the same.
+ * </p>
+ * <p>
+ * Besides one FlatFileTable per flat file, the Catalogue keeps cross-reference indexes for the lookups that are not by
+ * primary key:
+ * <ul>
+ * <li>Student name to username
+ * <li>Course code to the keys of its indexes
+ * <li>Username to notification subscriptions
+ * </ul>
+ * </p>
+ * <p>
+ * Other programs may share the flat files. At most every REFRESH_MILLIS, the Catalogue checks whether any flat file has
+ * been changed by someone else and loads that table from the flat file again.
+ * </p>
+ * <p>
+ * Reads never lock. Tables are copy-on-write, and each cross-reference index is rebuilt into a new map that replaces the
+ * old one, so only writers take the Catalogue lock.
+ * </p>
+ */
+
+public class Catalogue {
+    //static attributes
+    /**
+     * Rows of studentFlatFile.csv keyed by lower case username
+     */
+    public static final FlatFileTable STUDENTS = new FlatFileTable("flatFiles/studentFlatFile.csv",
+        line -> FlatFileTable.column(line, 0).toLowerCase());
+
+    /**
+     * Rows of adminFlatFile.csv keyed by lower case username
+     */
+    public static final FlatFileTable ADMINS = new FlatFileTable("flatFiles/adminFlatFile.csv",
+        line -> FlatFileTable.column(line, 0).toLowerCase());
+
+    /**
+     * Rows of indexFlatFile.csv keyed by course/index e.g. CZ2001/201
+     */
+    public static final FlatFileTable INDEXES = new FlatFileTable("flatFiles/indexFlatFile.csv",
+        line -> Catalogue.indexKey(FlatFileTable.column(line, 0), FlatFileTable.column(line, 2)));
+
+    /**
+     * Rows of lessonFlatFile.csv keyed by lesson id
+     */
+    public static final FlatFileTable LESSONS = new FlatFileTable("flatFiles/lessonFlatFile.csv",
+        line -> FlatFileTable.column(line, 0));
+
+    /**
+     * Rows of notificationFlatFile.csv, which has no unique key
+     */
+    public static final FlatFileTable NOTIFICATIONS = new FlatFileTable("flatFiles/notificationFlatFile.csv", null);
+
+    /**
+     * Every table of the Catalogue
+     */
+    private static final FlatFileTable[] TABLES = {STUDENTS, ADMINS, INDEXES, LESSONS, NOTIFICATIONS};
+
+    /**
+     * Whether the tables have been loaded and can be used in place of the flat files
+     */
+    private static volatile boolean loaded = false;
+
+    /**
+     * The least time between two checks for flat files changed by other programs, in milliseconds
+     */
+    private static final long REFRESH_MILLIS = Long.getLong("stars.refreshMillis", 100);
+
+    /**
+     * When the flat files were last checked for changes by other programs, in milliseconds since the epoch
+     */
+    private static final AtomicLong lastRefresh = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * Cross-reference from lower case student name to lower case username
+     */
+    private static volatile HashMap<String, String> usernameByName = new HashMap<String, String>();
+
+    /**
+     * Cross-reference from course code to the course/index keys of that course, in file order
+     */
+    private static volatile HashMap<String, ArrayList<String>> indexesByCourse = new HashMap<String, ArrayList<String>>();
+
+    /**
+     * Cross-reference from username to the notification subscriptions of that user, in file order
+     */
+    private static volatile HashMap<String, ArrayList<String>> subscriptionsByUsername = new HashMap<String, ArrayList<String>>();
+
+    /**
+     * Empty Class Constructor
+     */
+    public Catalogue() {}
+
+    /**
+     * Returns whether the Catalogue has been loaded.
+     *
+     * @return                  <code>true</code> if entities should read from the Catalogue instead of the flat files
+     */
+    public static boolean isLoaded() {
+        if (Catalogue.loaded) Catalogue.refreshIfDue();
+        return Catalogue.loaded;
+    }
+
+    /**
+     * Loads again every table whose flat file has been changed by another program, unless the flat files were checked
+     * less than REFRESH_MILLIS ago.
+     */
+    private static void refreshIfDue() {
+        long now = System.currentTimeMillis();
+        long last = Catalogue.lastRefresh.get();
+        if (now - last < REFRESH_MILLIS || !Catalogue.lastRefresh.compareAndSet(last, now)) return;
+        for (FlatFileTable table : Catalogue.TABLES) {
+            if (table.isOutOfSync()) Catalogue.reload(table);
+        }
+    }
+
+    /**
+     * Loads a table from its flat file again.
+     * <p>
+     * The flat file is read holding its write lock so that no write is half done. If the lock is busy the table is
+     * left alone until the next check, which also means a thread that is itself writing a flat file is never made to
+     * wait for another flat file here.
+     * </p>
+     *
+     * @param table             the table to load again
+     */
+    private static void reload(FlatFileTable table) {
+        try (FlatFileLock lock = FlatFileLock.tryAcquire(table.getPath())) {
+            if (lock == null || !table.isOutOfSync()) return;
+            ArrayList<String> lines = new ArrayList<String>();
+            try (BufferedReader br = new BufferedReader(new FileReader(table.getPath()))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    lines.add(line);
+                }
+            }
+            Catalogue.rewritten(table.getPath(), lines);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns every table of the Catalogue.
+     *
+     * @return                  the tables in a fixed order
+     */
+    public static FlatFileTable[] getTables() {
+        return Catalogue.TABLES.clone();
+    }
+
+    /**
+     * Returns the table mirroring a flat file.
+     *
+     * @param path              address of the flat file
+     *
+     * @return                  the table for the flat file, or null if the flat file is not part of the Catalogue
+     */
+    public static FlatFileTable tableOf(String path) {
+        for (FlatFileTable table : Catalogue.TABLES) {
+            if (table.getPath().equals(path)) return table;
+        }
+        return null;
+    }
+
+    /**
+     * Builds the cross-reference indexes from the tables and marks the Catalogue as loaded.
+     * <p>
+     * Called once every table has been filled.
+     * </p>
+     */
+    public static synchronized void buildCrossReferences() {
+        Catalogue.indexStudents();
+        Catalogue.indexCourses();
+        Catalogue.indexSubscriptions();
+        Catalogue.loaded = true;
+    }
+
+    /**
+     * Marks the Catalogue as unloaded so that entities go back to reading the flat files.
+     */
+    public static synchronized void unload() {
+        Catalogue.loaded = false;
+    }
+
+    /**
+     * Updates the Catalogue after a flat file has been rewritten.
+     *
+     * @param path              address of the flat file
+     * @param lines             every line written to the flat file, header included
+     */
+    public static synchronized void rewritten(String path, List<String> lines) {
+        FlatFileTable table = Catalogue.tableOf(path);
+        if (!Catalogue.loaded || table == null) return;
+        table.load(lines);
+        Catalogue.reindex(table);
+    }
+
+    /**
+     * Updates the Catalogue after a line has been appended to a flat file.
+     *
+     * @param path              address of the flat file
+     * @param line              the line appended, without its line separator
+     */
+    public static synchronized void appended(String path, String line) {
+        FlatFileTable table = Catalogue.tableOf(path);
+        if (!Catalogue.loaded || table == null) return;
+        table.append(line);
+        Catalogue.reindex(table);
+    }
+
+    /**
+     * Returns the username of the first student with a name.
+     *
+     * @param name              name of the student, in any case
+     *
+     * @return                  lower case username of the student, or null if no student has the name
+     */
+    public static String findUsernameByName(String name) {
+        return Catalogue.usernameByName.get(name.toLowerCase());
+    }
+
+    /**
+     * Returns the keys of every index of a course.
+     *
+     * @param course            course code e.g. CZ2001
+     *
+     * @return                  course/index keys in file order, empty if the course does not exist
+     */
+    public static ArrayList<String> getIndexKeys(String course) {
+        ArrayList<String> keys = Catalogue.indexesByCourse.get(course);
+        return keys == null ? new ArrayList<String>() : new ArrayList<String>(keys);
+    }
+
+    /**
+     * Returns the notification subscriptions of a user.
+     *
+     * @param username          username of the subscriber, case sensitive as in notificationFlatFile.csv
+     *
+     * @return                  raw notificationFlatFile.csv rows of the user in file order
+     */
+    public static ArrayList<String> getSubscriptions(String username) {
+        ArrayList<String> rows = Catalogue.subscriptionsByUsername.get(username);
+        return rows == null ? new ArrayList<String>() : new ArrayList<String>(rows);
+    }
+
+    /**
+     * Returns the key of an index row.
+     *
+     * @param course            course code e.g. CZ2001
+     * @param index             index of the course e.g. 201
+     *
+     * @return                  the key of the index in INDEXES e.g. CZ2001/201
+     */
+    public static String indexKey(String course, String index) {
+        return course + "/" + index;
+    }
+
+    /**
+     * Rebuilds the cross-reference index that depends on a table.
+     *
+     * @param table             the table that changed
+     */
+    private static void reindex(FlatFileTable table) {
+        if (table == STUDENTS) Catalogue.indexStudents();
+        else if (table == INDEXES) Catalogue.indexCourses();
+        else if (table == NOTIFICATIONS) Catalogue.indexSubscriptions();
+    }
+
+    /**
+     * Rebuilds the student name to username cross-reference.
+     */
+    private static void indexStudents() {
+        HashMap<String, String> names = new HashMap<String, String>();
+        for (String line : STUDENTS.rows()) {
+            names.putIfAbsent(FlatFileTable.column(line, 4).toLowerCase(), FlatFileTable.column(line, 0).toLowerCase());
+        }
+        Catalogue.usernameByName = names;
+    }
+
+    /**
+     * Rebuilds the course code to index keys cross-reference.
+     */
+    private static void indexCourses() {
+        HashMap<String, ArrayList<String>> courses = new HashMap<String, ArrayList<String>>();
+        for (String line : INDEXES.rows()) {
+            String course = SymbolTable.COURSES.intern(FlatFileTable.column(line, 0));
+            courses.computeIfAbsent(course, k -> new ArrayList<String>())
+                .add(Catalogue.indexKey(course, FlatFileTable.column(line, 2)));
+        }
+        Catalogue.indexesByCourse = courses;
+    }
+
+    /**
+     * Rebuilds the username to notification subscriptions cross-reference.
+     */
+    private static void indexSubscriptions() {
+        HashMap<String, ArrayList<String>> subscriptions = new HashMap<String, ArrayList<String>>();
+        for (String line : NOTIFICATIONS.rows()) {
+            subscriptions.computeIfAbsent(FlatFileTable.column(line.trim(), 0), k -> new ArrayList<String>()).add(line);
+        }
+        Catalogue.subscriptionsByUsername = subscriptions;
+    }
+}
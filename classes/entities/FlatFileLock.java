@@ -0,0 +1,184 @@
+package classes.entities;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * FlatFileLock is a concrete class for taking the write lock of a flat file, shared by every program using the same
+ * flatFiles directory.
+ * <p>
+ * Writers replace a flat file by renaming a temporary file over it, so the lock cannot be taken on the flat file itself.
+ * Instead each flat file has a lock file next to it, e.g. flatFiles/indexFlatFile.csv.lock, and the write lock is an
+ * operating system lock on the whole of that lock file. Other programs wait for it, and threads of this program wait for
+ * each other before taking it, since a program cannot hold two operating system locks on the same file.
+ * </p>
+ * <p>
+ * A FlatFileLock is taken before the try statement that writes the flat file and released in its finally block:
+ * <pre>
+ * FlatFileLock lock = null;
+ * try {
+ *     lock = FlatFileLock.acquire(path);
+ *     // read, write a temporary file, then replace the flat file
+ * } catch (IOException e) {
+ *     e.printStackTrace();
+ * } finally {
+ *     FlatFileLock.release(lock);
+ * }
+ * </pre>
+ * A FlatFileLock can also be released by closing it, for a try-with-resources statement that uses the lock in its body.
+ * A thread that already holds the lock of a flat file can take it again.
+ * </p>
+ */
+
+public class FlatFileLock implements AutoCloseable {
+    //static attributes
+    /**
+     * Lock of each flat file between threads of this program, keyed by the address of the flat file
+     */
+    private static final ConcurrentHashMap<String, ReentrantLock> threadLocks = new ConcurrentHashMap<String, ReentrantLock>();
+
+    //attributes
+    /**
+     * The lock held between threads of this program
+     */
+    private final ReentrantLock threadLock;
+
+    /**
+     * Channel of the lock file, or null if the thread already held the lock
+     */
+    private final FileChannel channel;
+
+    /**
+     * Class Constructor for a lock that has been taken
+     */
+    private FlatFileLock(ReentrantLock threadLock, FileChannel channel) {
+        this.threadLock = threadLock;
+        this.channel = channel;
+    }
+
+    /**
+     * Takes the write lock of a flat file, waiting for other threads and programs to release it.
+     *
+     * @param path              address of the flat file
+     *
+     * @return                  the lock, to be closed once the write is complete
+     *
+     * @throws IOException
+     */
+    public static FlatFileLock acquire(String path) throws IOException {
+        return FlatFileLock.take(path, true);
+    }
+
+    /**
+     * Takes the write lock of a flat file only if no other thread or program holds it.
+     *
+     * @param path              address of the flat file
+     *
+     * @return                  the lock, to be closed once the write is complete, or null if the lock is held elsewhere
+     *
+     * @throws IOException
+     */
+    public static FlatFileLock tryAcquire(String path) throws IOException {
+        return FlatFileLock.take(path, false);
+    }
+
+    /**
+     * Takes the write lock of a flat file.
+     *
+     * @param path              address of the flat file
+     * @param wait              whether to wait for the lock to be released if it is held elsewhere
+     *
+     * @return                  the lock, or null if wait is false and the lock is held elsewhere
+     *
+     * @throws IOException
+     */
+    private static FlatFileLock take(String path, boolean wait) throws IOException {
+        ReentrantLock threadLock = threadLocks.computeIfAbsent(path, p -> new ReentrantLock());
+        if (wait) threadLock.lock();
+        else if (!threadLock.tryLock()) return null;
+        if (threadLock.getHoldCount() > 1) return new FlatFileLock(threadLock, null);
+
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(Paths.get(path + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock fileLock = wait ? channel.lock() : channel.tryLock();
+            if (fileLock == null) {
+                channel.close();
+                threadLock.unlock();
+                return null;
+            }
+            return new FlatFileLock(threadLock, channel);
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) channel.close();
+            threadLock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates a temporary file for rewriting a flat file, with a name no other writer is using.
+     * <p>
+     * The temporary file is in the same directory as the flat file, so that it can be renamed over the flat file.
+     * </p>
+     *
+     * @param path              address of the flat file
+     *
+     * @return                  a new empty temporary file
+     *
+     * @throws IOException
+     */
+    public static File tempFile(String path) throws IOException {
+        File flatFile = new File(path).getAbsoluteFile();
+        return File.createTempFile(flatFile.getName() + ".", ".tmp", flatFile.getParentFile());
+    }
+
+    /**
+     * Replaces a flat file with a temporary file in one step.
+     * <p>
+     * Readers that already opened the flat file keep reading the old version.
+     * </p>
+     *
+     * @param tempFile          the temporary file, which no longer exists afterwards
+     * @param path              address of the flat file
+     *
+     * @throws IOException
+     */
+    public static void replace(File tempFile, String path) throws IOException {
+        Files.move(tempFile.toPath(), Paths.get(path), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Releases a lock taken by acquire or tryAcquire, if it was taken.
+     * <p>
+     * The thread lock is always released, even if the lock file cannot be closed.
+     * </p>
+     *
+     * @param lock              the lock, or null if it was never taken
+     */
+    public static void release(FlatFileLock lock) {
+        if (lock == null) return;
+        try {
+            lock.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Releases the lock.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            // closing the channel releases the lock on the lock file
+            if (this.channel != null) this.channel.close();
+        } finally {
+            this.threadLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package classes.entities;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * FlatFileTable is a concrete class holding the rows of one .csv flat file in memory.
+ * <p>
+ * Rows are kept as raw lines in the same order as the flat file, so entities can parse them exactly as they would parse
+ * a line read from the file. Tables with a key function also keep a lookup from key to row.
+ * </p>
+ * <p>
+ * A FlatFileTable does not write to its flat file. Entities write the flat file as before and then pass the lines they
+ * wrote to the table through Catalogue.
+ * </p>
+ * <p>
+ * The table is copy-on-write. Its contents are held in an immutable Version, and every load or append builds a new
+ * Version and publishes it in one step. Readers take the current Version without locking, so they never wait for a
+ * writer and never see a write half-applied, and a reader that keeps hold of a Version keeps seeing the same rows while
+ * newer Versions are published.
+ * </p>
+ */
+
+public class FlatFileTable {
+    //attributes
+    /**
+     * The address of the flat file this table mirrors
+     */
+    private final String path;
+
+    /**
+     * Derives the lookup key of a row, or null if rows of this table are not looked up by key
+     */
+    private final Function<String, String> keyOf;
+
+    /**
+     * The latest published contents of the table
+     */
+    private volatile Version current = new Version(0, new ArrayList<String>(), new HashMap<String, String>());
+
+    /**
+     * Identity, last modified time and size of the flat file when the table last matched it
+     */
+    private volatile String fileState = null;
+
+    /**
+     * Class Constructor specifying the flat file and how its rows are keyed
+     *
+     * @param path              address of the .csv flat file
+     * @param keyOf             derives the lookup key of a row, or null if the table has no key
+     */
+    public FlatFileTable(String path, Function<String, String> keyOf) {
+        this.path = path;
+        this.keyOf = keyOf;
+    }
+
+    /**
+     * Returns the address of the flat file this table mirrors.
+     *
+     * @return                  the address of the flat file
+     */
+    public String getPath() {
+        return this.path;
+    }
+
+    /**
+     * Replaces the contents of the table with every line of the flat file, header included.
+     *
+     * @param lines             the lines of the flat file in file order
+     */
+    public synchronized void load(List<String> lines) {
+        ArrayList<String> newLines = new ArrayList<String>(lines);
+        HashMap<String, String> newByKey = new HashMap<String, String>();
+        if (this.keyOf != null) {
+            for (int i = 1; i < newLines.size(); i++) {
+                newByKey.putIfAbsent(this.keyOf.apply(newLines.get(i)), newLines.get(i));
+            }
+        }
+        this.current = new Version(this.current.number + 1, newLines, newByKey);
+        this.fileState = FlatFileTable.stateOf(this.path);
+    }
+
+    /**
+     * Replaces the contents of the table with lines whose keys have already been derived, e.g. by a Snapshot.
+     *
+     * @param lines             the lines of the flat file in file order
+     * @param keys              the key of every row after the header in the same order, or null if the table has no key
+     */
+    public synchronized void load(List<String> lines, List<String> keys) {
+        ArrayList<String> newLines = new ArrayList<String>(lines);
+        HashMap<String, String> newByKey = new HashMap<String, String>();
+        if (this.keyOf != null) {
+            for (int i = 1; i < newLines.size(); i++) {
+                newByKey.putIfAbsent(keys.get(i - 1), newLines.get(i));
+            }
+        }
+        this.current = new Version(this.current.number + 1, newLines, newByKey);
+        this.fileState = FlatFileTable.stateOf(this.path);
+    }
+
+    /**
+     * Returns the key of every row of a Version of the table, so it can be saved and loaded without deriving the keys
+     * again.
+     *
+     * @param version           a Version of this table
+     *
+     * @return                  the key of every row after the header in file order, or null if the table has no key
+     */
+    public List<String> keysOf(Version version) {
+        if (this.keyOf == null) return null;
+        ArrayList<String> keys = new ArrayList<String>(version.rows().size());
+        for (String line : version.rows()) {
+            keys.add(this.keyOf.apply(line));
+        }
+        return keys;
+    }
+
+    /**
+     * Adds a line to the end of the table.
+     *
+     * @param line              the line appended to the flat file
+     */
+    public synchronized void append(String line) {
+        Version old = this.current;
+        ArrayList<String> newLines = new ArrayList<String>(old.lines.size() + 1);
+        newLines.addAll(old.lines);
+        newLines.add(line);
+        HashMap<String, String> newByKey = new HashMap<String, String>(old.byKey);
+        if (this.keyOf != null && newLines.size() > 1) newByKey.putIfAbsent(this.keyOf.apply(line), line);
+        this.current = new Version(old.number + 1, newLines, newByKey);
+        this.fileState = FlatFileTable.stateOf(this.path);
+    }
+
+    /**
+     * Returns whether the flat file has been changed since the table last matched it, e.g. by another program.
+     * <p>
+     * Every rewrite replaces the flat file with a new file and every append changes its size, so comparing the identity,
+     * last modified time and size of the flat file catches both.
+     * </p>
+     *
+     * @return                  <code>true</code> if the table should be loaded from the flat file again
+     */
+    public boolean isOutOfSync() {
+        String state = FlatFileTable.stateOf(this.path);
+        return state == null || !state.equals(this.fileState);
+    }
+
+    /**
+     * Reads the identity, last modified time and size of a flat file.
+     *
+     * @param path              address of the flat file
+     *
+     * @return                  the three values as one string, or null if the flat file cannot be read
+     */
+    public static String stateOf(String path) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+            return attributes.fileKey() + "/" + attributes.lastModifiedTime() + "/" + attributes.size();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the current contents of the table.
+     * <p>
+     * The Version returned never changes, so several lookups on it all see the table as it was at the same moment.
+     * </p>
+     *
+     * @return                  the latest published Version of the table
+     */
+    public Version snapshot() {
+        return this.current;
+    }
+
+    /**
+     * Returns the row with a key.
+     *
+     * @param key               the key being looked up
+     *
+     * @return                  the first row with the key, or null if there is no such row
+     */
+    public String get(String key) {
+        return this.current.get(key);
+    }
+
+    /**
+     * Returns every line of the table, header first, as it is in the flat file.
+     *
+     * @return                  an unmodifiable list of the lines of the table
+     */
+    public List<String> lines() {
+        return this.current.lines();
+    }
+
+    /**
+     * Returns every row of the table after the header.
+     *
+     * @return                  an unmodifiable list of the rows of the table
+     */
+    public List<String> rows() {
+        return this.current.rows();
+    }
+
+    /**
+     * Returns the number of rows in the table, header excluded.
+     *
+     * @return                  the number of rows
+     */
+    public int size() {
+        return this.current.rows().size();
+    }
+
+    /**
+     * Cuts a single column out of a flat file row without splitting the whole row.
+     *
+     * @param line              the raw flat file row
+     * @param col               the column being read
+     *
+     * @return                  the value of the column, or an empty string if the row is too short
+     */
+    public static String column(String line, int col) {
+        int start = 0;
+        for (int i = 0; i < col; i++) {
+            start = line.indexOf(User.csvSplitBy, start) + 1;
+            if (start == 0) return "";
+        }
+        int end = line.indexOf(User.csvSplitBy, start);
+        return end == -1 ? line.substring(start) : line.substring(start, end);
+    }
+
+    /**
+     * Version is an immutable copy of the contents of a FlatFileTable at one moment.
+     */
+    public static class Version {
+        /**
+         * Sequence number of the Version, increased by one every time the table changes
+         */
+        private final long number;
+
+        /**
+         * Every line of the flat file, header first
+         */
+        private final List<String> lines;
+
+        /**
+         * Lookup from key to the first row with that key
+         */
+        private final Map<String, String> byKey;
+
+        /**
+         * Class Constructor taking ownership of the lines and lookup, which must not be changed afterwards
+         */
+        private Version(long number, ArrayList<String> lines, HashMap<String, String> byKey) {
+            this.number = number;
+            this.lines = Collections.unmodifiableList(lines);
+            this.byKey = Collections.unmodifiableMap(byKey);
+        }
+
+        /**
+         * Returns the sequence number of the Version.
+         *
+         * @return              a number that is larger for every later Version of the same table
+         */
+        public long getNumber() {
+            return this.number;
+        }
+
+        /**
+         * Returns the row with a key.
+         *
+         * @param key           the key being looked up
+         *
+         * @return              the first row with the key, or null if there is no such row
+         */
+        public String get(String key) {
+            return this.byKey.get(key);
+        }
+
+        /**
+         * Returns every line of the Version, header first.
+         *
+         * @return              an unmodifiable list of the lines
+         */
+        public List<String> lines() {
+            return this.lines;
+        }
+
+        /**
+         * Returns every row of the Version after the header.
+         *
+         * @return              an unmodifiable list of the rows
+         */
+        public List<String> rows() {
+            return this.lines.isEmpty() ? this.lines : this.lines.subList(1, this.lines.size());
+        }
+    }
+}
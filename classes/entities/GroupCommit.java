@@ -0,0 +1,170 @@
+package classes.entities;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * GroupCommit is a concrete class that gathers the writes to one flat file into batches.
+ * <p>
+ * Every write that arrives within WINDOW_MILLIS of the first write of a batch, up to BATCH_SIZE writes, is handed to the
+ * writer of the flat file together. The writer applies them in arrival order with a single rewrite and a single fsync of
+ * the flat file, and every caller is then told the outcome of their own write. Under load this turns many rewrites and
+ * fsyncs per second into a few, at the cost of up to WINDOW_MILLIS of extra latency per write.
+ * </p>
+ * <p>
+ * Batches are written by one committer thread per flat file, which also means writes to the same flat file never run at
+ * the same time. The window and batch size are read from the stars.commitWindowMillis and stars.commitBatchSize system
+ * properties, 2 and 256 by default.
+ * </p>
+ *
+ * @param <R>               the type of one write request
+ */
+
+public class GroupCommit<R> {
+    //static attributes
+    /**
+     * How long a batch stays open for further writes after its first write arrives, in milliseconds
+     */
+    public static final long WINDOW_MILLIS = Long.getLong("stars.commitWindowMillis", 2);
+
+    /**
+     * The largest number of writes in one batch
+     */
+    public static final int BATCH_SIZE = Integer.getInteger("stars.commitBatchSize", 256);
+
+    /**
+     * Moving average of the time from the first write of a batch arriving until the batch is on disk, in milliseconds,
+     * over every flat file
+     */
+    private static volatile double latencyMillis = 0;
+
+    //attributes
+    /**
+     * Name of the committer thread
+     */
+    private final String name;
+
+    /**
+     * Writes a batch of requests in order, returning whether each request was written
+     */
+    private final Function<List<R>, List<Boolean>> writer;
+
+    /**
+     * Requests waiting for the next batch
+     */
+    private final LinkedBlockingQueue<Pending<R>> queue = new LinkedBlockingQueue<Pending<R>>();
+
+    /**
+     * The committer thread, started by the first commit
+     */
+    private Thread committer = null;
+
+    /**
+     * Class Constructor specifying how batches are written
+     *
+     * @param path              address of the flat file the batches are written to
+     * @param writer            writes a batch of requests in order, returning whether each request was written
+     */
+    public GroupCommit(String path, Function<List<R>, List<Boolean>> writer) {
+        this.name = "commit-" + new File(path).getName();
+        this.writer = writer;
+    }
+
+    /**
+     * Adds a write to the next batch and waits until the batch has been written.
+     *
+     * @param request           the write
+     *
+     * @return                  <code>true</code> if the write was made durable
+     */
+    public boolean commit(R request) {
+        Pending<R> pending = new Pending<R>(request);
+        this.start();
+        this.queue.add(pending);
+        return pending.outcome.join();
+    }
+
+    /**
+     * Starts the committer thread unless it is already running.
+     */
+    private synchronized void start() {
+        if (this.committer != null) return;
+        this.committer = new Thread(this::run, this.name);
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    /**
+     * Collects and writes batches for as long as the program runs.
+     */
+    private void run() {
+        ArrayList<Pending<R>> batch = new ArrayList<Pending<R>>();
+        while (true) {
+            batch.clear();
+            try {
+                batch.add(this.queue.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+            long start = System.nanoTime();
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(WINDOW_MILLIS);
+            try {
+                while (batch.size() < BATCH_SIZE) {
+                    Pending<R> next = this.queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // write what has been gathered so far
+            }
+
+            ArrayList<R> requests = new ArrayList<R>(batch.size());
+            for (Pending<R> pending : batch) {
+                requests.add(pending.request);
+            }
+            List<Boolean> results = null;
+            try {
+                results = this.writer.apply(requests);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            GroupCommit.latencyMillis = 0.8 * GroupCommit.latencyMillis + 0.2 * (System.nanoTime() - start) / 1e6;
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).outcome.complete(results != null && results.get(i));
+            }
+        }
+    }
+
+    /**
+     * Returns how long writes have recently been taking to reach the disk.
+     *
+     * @return                  moving average of the commit latency of recent batches in milliseconds
+     */
+    public static double getLatencyMillis() {
+        return GroupCommit.latencyMillis;
+    }
+
+    /**
+     * A request waiting to be written, and the outcome its caller is waiting for
+     */
+    private static class Pending<R> {
+        /**
+         * The write
+         */
+        private final R request;
+
+        /**
+         * Completed with whether the write was made durable
+         */
+        private final CompletableFuture<Boolean> outcome = new CompletableFuture<Boolean>();
+
+        /**
+         * Class Constructor specifying the write
+         */
+        Pending(R request) {
+            this.request = request;
+        }
+    }
+}
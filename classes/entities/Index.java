@@ -1,6 +1,7 @@
 package classes.entities;
 
 import java.io.*;
+import java.nio.file.*;
 import java.util.*;
 //import org.apache.commons.lang3;
 
@@ -28,9 +29,9 @@ import java.util.*;
 public class Index {
 	//attributes
 	/**
-	 * The unique identifier of this course
+	 * The unique identifier of this course, encoded in SymbolTable.COURSES
 	 */
-	private String course;
+	private int course = -1;
 
 	/**
 	 * The number of vacancies this course has
@@ -68,20 +69,26 @@ public class Index {
 	private int acadUnits;
 
 	/**
-	 * The school conducting this course
+	 * The school conducting this course, encoded in SymbolTable.SCHOOLS
 	 */
-	private String school;
+	private int school = -1;
+
+	/**
+	 * The raw indexFlatFile.csv row this Index was read from, used as its version stamp
+	 */
+	private String row = null;
 
 	//static attributes
 	/**
 	 * The address of the index flat file
 	 */
 	private static String indexPath = "flatFiles/indexFlatFile.csv";
-	
+
 	/**
-     * A reader object for reading a flat file
-     */
-    private static BufferedReader br = null;
+	 * Gathers the rewrites of indexFlatFile.csv into batches
+	 */
+	private static final GroupCommit<Map<Index, ? extends Map<String, String>>> commits =
+		new GroupCommit<Map<Index, ? extends Map<String, String>>>(indexPath, Index::writeRows);
 	 
 	/**
 	 * Class Constructor specifying the course of the Index
@@ -93,6 +100,13 @@ public class Index {
 	 * </p>
 	 */
 	public Index(String course) {
+		if (Catalogue.isLoaded()) {
+			ArrayList<String> keys = Catalogue.getIndexKeys(course);
+			if (!keys.isEmpty() && this.fill(Catalogue.INDEXES.get(keys.get(0)))) {
+				this.index = "0";
+			}
+			return;
+		}
 		try {
 			File indexFile = new File (indexPath);
             BufferedReader br = new BufferedReader(new FileReader(indexFile));
@@ -101,23 +115,10 @@ public class Index {
 			while ((line = br.readLine()) != null) {
                 String[] row = line.split(cvsSplitBy);
                 if (row[0].equals(course)) {
-					try{
-						// instantiate attributes
-						this.course = course;
-						this.courseVacancy = Integer.parseInt(row[1]);
+					// instantiate attributes
+					if (this.fill(line)) {
 						this.index = "0";
-						this.indexVacancy = Integer.parseInt(row[3]);
-						String[] studentArr = row[4].split(";");
-						this.enrolled = studentArr;
-						String[] waitlistArr = row[5].split(";");
-						this.waitlist = waitlistArr;
-						String[] sessionsArr = row[6].split(";");
-						this.sessions = sessionsArr;
-						this.acadUnits = Integer.parseInt(row[7]);
-						this.school = row[8];
 						break;
-					} catch (ArrayIndexOutOfBoundsException e){
-						e.printStackTrace();
 					}
                 }
 			}
@@ -136,6 +137,11 @@ public class Index {
 	 * </p>
 	 */
     public Index(String course, String index) {
+		if (Catalogue.isLoaded()) {
+			String line = Catalogue.INDEXES.get(Catalogue.indexKey(course, index));
+			if (line != null) this.fill(line);
+			return;
+		}
 		try {
 			File indexFile = new File (indexPath);
             BufferedReader br = new BufferedReader(new FileReader(indexFile));
@@ -144,23 +150,8 @@ public class Index {
             while ((line = br.readLine()) != null) {
                 String[] row = line.split(cvsSplitBy);
                 if (row[0].equals(course) && row[2].equals(index)) {
-					try{
-						// instantiate attributes
-						this.course = row[0];
-						this.courseVacancy = Integer.parseInt(row[1]);
-						this.index = row[2];
-						this.indexVacancy = Integer.parseInt(row[3]);
-						String[] studentArr = row[4].split(";");
-						this.enrolled = studentArr;
-						String[] waitlistArr = row[5].split(";");
-						this.waitlist = waitlistArr;
-						String[] sessionsArr = row[6].split(";");
-						this.sessions = sessionsArr;
-						this.acadUnits = Integer.parseInt(row[7]);
-						this.school = row[8];
-					} catch (ArrayIndexOutOfBoundsException e){
-						e.printStackTrace();
-					}
+					// instantiate attributes
+					this.fill(line);
                 }
 			}
 			br.close();
@@ -171,6 +162,53 @@ public class Index {
         }
 	}
 
+	/**
+	 * Class Constructor for an Index filled in by createByRow
+	 */
+	private Index() {}
+
+	/**
+	 * Creates an Index from a row of indexFlatFile.csv that has already been read, without reading the flat file.
+	 * 
+	 * @param line				the raw flat file row
+	 * 
+	 * @return					the Index, or null if the row is missing a column
+	 */
+	public static Index createByRow(String line) {
+		Index idx = new Index();
+		return idx.fill(line) ? idx : null;
+	}
+
+	/**
+	 * Instantiates attributes from an indexFlatFile.csv row.
+	 * 
+	 * @param line				the raw flat file row
+	 * 
+	 * @return					<code>true</code> if the row had every column
+	 */
+	private boolean fill(String line) {
+		String[] row = line.split(",");
+		try{
+			this.course = SymbolTable.COURSES.idOf(row[0]);
+			this.courseVacancy = Integer.parseInt(row[1]);
+			this.index = row[2];
+			this.indexVacancy = Integer.parseInt(row[3]);
+			String[] studentArr = row[4].split(";");
+			this.enrolled = studentArr;
+			String[] waitlistArr = row[5].split(";");
+			this.waitlist = waitlistArr;
+			String[] sessionsArr = row[6].split(";");
+			this.sessions = sessionsArr;
+			this.acadUnits = Integer.parseInt(row[7]);
+			this.school = SymbolTable.SCHOOLS.idOf(row[8]);
+			this.row = line;
+			return true;
+		} catch (ArrayIndexOutOfBoundsException e){
+			e.printStackTrace();
+			return false;
+		}
+	}
+
 	// getters
 	/**
      * Returns Index's Course Code.
@@ -178,6 +216,18 @@ public class Index {
 	 * @return this index's course code
      */
 	public String getCourse() {
+		return SymbolTable.COURSES.nameOf(this.course);
+	}
+
+	/**
+     * Returns Index's Course Code as its SymbolTable.COURSES id.
+	 * <p>
+	 * Two indexes belong to the same course exactly when their course ids are equal.
+	 * </p>
+	 * 
+	 * @return this index's course code id
+     */
+	public int getCourseId() {
 		return this.course;
 	}
 
@@ -250,6 +300,15 @@ public class Index {
 	 * @return this index's school
      */
     public String getSchool() {
+        return SymbolTable.SCHOOLS.nameOf(this.school);
+    }
+
+	/**
+     * Returns Index's school of conduct as its SymbolTable.SCHOOLS id.
+	 * 
+	 * @return this index's school id
+     */
+    public int getSchoolId() {
         return this.school;
     }
 
@@ -262,9 +321,7 @@ public class Index {
         Map<String,ArrayList<String>> listCourse = new HashMap<>();
         String cvsSplitBy = ",";
         try {
-            BufferedReader br = new BufferedReader(new FileReader(indexPath)); //file containing passwords
-            String line = "";
-            while ((line = br.readLine()) != null) {
+            for (String line : Index.readLines()) {
                 String[] courseL = line.split(cvsSplitBy);
                 // column 1 is username, column 3 is name
 				if (courseL[0].equals("courseCode") || courseL[2].equals("index")){
@@ -277,15 +334,14 @@ public class Index {
 				else{
 					ArrayList<String> index = new ArrayList<>();
 					index.add(courseL[2]);
-					listCourse.put(courseL[0], index);
+					listCourse.put(SymbolTable.COURSES.intern(courseL[0]), index);
 				}             
             }
 
 			if (listCourse.containsKey("courseCode")){
 				listCourse.remove("courseCode");
 			}
-			
-            br.close();
+
         } catch (FileNotFoundException e) {
             e.printStackTrace();
         } catch (IOException e) {
@@ -310,115 +366,314 @@ public class Index {
 
     ///this editor is to edit the information in the existing index.csv file 
     private boolean editField(String newValue, String option) {
-		File tempFile = new File("flatFiles/temp.csv");
-		File oldFile = new File (indexPath);
-		String line = "";
+		LinkedHashMap<String, String> changes = new LinkedHashMap<String, String>();
+		changes.put(option, newValue);
+		return this.editFields(changes);
+	}
+
+	/**
+	 * Edits the indexFlatFile.csv flat file to change several items in a single rewrite.
+	 * <p>
+	 * Takes the same options as editField. Rows are matched against the course and index this Index had before the edit.
+	 * </p>
+	 * 
+	 * @param changes			the new value of each field being changed, keyed by option, applied in order
+	 * 
+	 * @return					<code>true</code> if operation was successful
+	 */
+    private boolean editFields(Map<String, String> changes) {
+		return Index.editRows(Collections.singletonMap(this, changes));
+	}
+
+	/**
+	 * Edits the indexFlatFile.csv flat file to change items of several indexes in a single rewrite.
+	 * <p>
+	 * Takes the same options as editField. Rows are matched against the course and index each Index had before the edit.
+	 * </p>
+	 * <p>
+	 * The row each Index was read from is its version stamp. If any of those rows has been changed or removed since it
+	 * was read, nothing is written, so a stale Index can never overwrite a newer change. After a successful write each
+	 * Index takes its new row as its stamp.
+	 * </p>
+	 * <p>
+	 * The course vacancy, academic units and school are carried by every index of a course, so they are left out of the
+	 * stamp, and a change to one index does not make the other indexes of the course stale. The course vacancy is the
+	 * sum of the vacancies of the indexes of the course, so rather than being written as staged it is worked out again
+	 * from the rows as written, which keeps concurrent changes to different indexes of a course from overwriting it.
+	 * </p>
+	 * <p>
+	 * The rewrite is made by a GroupCommit together with the other edits that arrive at the same time, and this method
+	 * returns once the batch is on disk.
+	 * </p>
+	 * 
+	 * @param changes			for each Index being edited, the new value of each field keyed by option
+	 * 
+	 * @return					<code>true</code> if operation was successful, <code>false</code> if an Index was stale
+	 */
+    private static boolean editRows(Map<Index, ? extends Map<String, String>> changes) {
+		return Index.commits.commit(changes);
+	}
+
+	/**
+	 * Writes a batch of editRows requests to indexFlatFile.csv in a single rewrite.
+	 * <p>
+	 * Requests are applied in arrival order, each to the rows as left by the requests before it, and a stale request is
+	 * refused on its own without holding up the rest of the batch. The temporary file is forced to disk once for the
+	 * whole batch before it replaces the flat file.
+	 * </p>
+	 * 
+	 * @param batch				the changes of each editRows request, in arrival order
+	 * 
+	 * @return					whether each request was written
+	 */
+	private static synchronized List<Boolean> writeRows(List<Map<Index, ? extends Map<String, String>>> batch) {
+		File tempFile = null;
 		String csvSplitBy = ",";
-        
-        try {
-        	br = new BufferedReader(new FileReader(indexPath));
-            FileWriter fw = new FileWriter(tempFile);
-            BufferedWriter bw = new BufferedWriter(fw);
-            PrintWriter pw = new PrintWriter(bw);
-			
-			
-            while ((line = br.readLine()) != null) {
-				String[] row = line.split(csvSplitBy);
-				if(row[0].equals(this.course)) {
-					if(option.equals("modifyCourseCode")) {
-						//The 1st element in the row is 'course code', replace it with the new value for course code
-						row[0] = newValue;
-						// System.out.println("Course code value modified successfully.");
-					}else if(option.equals("modifyCourseVacancy")) {
-						//The 2nd element in the row is 'course vacancy', replace it with the new value for course vacancy
-						row[1] = newValue;
-						// System.out.println("Course vacancy value modified successfully.");
-					}else if(option.equals("modifySchool")) {
-						//The 9th element in the row is 'school', replace it with the new value for school
-						row[8] = newValue;
-						// System.out.println("School value modified successfully.");
-					}
-					else if(option.equals("modifyAU")) {
-						//The 8th element in the row is 'academic units', replace it with the new value for academic units
-						row[7] = newValue;
-						// System.out.println("Academic units value modified successfully.");
-					}
-				} 
-				if (row[0].equals(this.course) && row[2].equals(this.index)) {
-					//modify the row value according to the option
-					switch (option) {
-						case "modifyIndex":{
-							//The 3rd element in the row is 'index', replace it with the new value for index
-							row[2] = newValue;
-							//System.out.println("Index value modified successfully.");
-							break;
-						}
-				
-						case "modifyIndexVacancy":{
-							//The 4th element in the row is 'index vacancy', replace it with the new value for index vacancy 
-							row[3] = newValue;		
-							//System.out.println("Index vacancy value modified successfully.");
-							break;
-						}
-												
-						case "modifyEnrolled":{
-							//The 5th element in the row is 'enrolled students' for the current index
-							row[4] = newValue;
-							//System.out.println("Student enrollment modified successfully.");
-							break;
-						}
-				
-						case "modifyWaitlist": {
-							//The 6th element in the row is 'waitlist' for the current index
-							row[5] = newValue;
-							//System.out.println("Student waitlist status modified successfully.");
-							break;
+
+		FlatFileLock lock = null;
+		try {
+			lock = FlatFileLock.acquire(indexPath);
+			ArrayList<String> lines = new ArrayList<String>();
+			try (BufferedReader br = new BufferedReader(new FileReader(indexPath))) {
+				String line;
+				while ((line = br.readLine()) != null) {
+					lines.add(line);
+				}
+			}
+
+			ArrayList<Boolean> results = new ArrayList<Boolean>();
+			HashMap<Index, Integer> stamps = new HashMap<Index, Integer>();
+			for (Map<Index, ? extends Map<String, String>> changes : batch) {
+				results.add(Index.applyRows(lines, changes, stamps));
+			}
+			if (!results.contains(true)) {
+				// requests stamped from rows another program has since rewritten keep failing until the Catalogue catches up
+				if (Catalogue.INDEXES.isOutOfSync()) Catalogue.rewritten(indexPath, lines);
+				return results;
+			}
+
+			ArrayList<String> written = new ArrayList<String>(lines.size());
+			tempFile = FlatFileLock.tempFile(indexPath);
+			try (FileOutputStream out = new FileOutputStream(tempFile);
+					PrintWriter pw = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out)))) {
+				for (String line : lines) {
+					String myContent = String.join(",", line.split(csvSplitBy));
+					written.add(myContent);
+					myContent += "\n";
+					pw.write(myContent);
+				}
+				pw.flush();
+				if (pw.checkError()) throw new IOException("Error writing " + tempFile);
+				// a single fsync makes every request of the batch durable
+				out.getFD().sync();
+			}
+
+			// replace the flat file in one step, readers that already opened it keep reading the old version
+			FlatFileLock.replace(tempFile, indexPath);
+			Catalogue.rewritten(indexPath, written);
+			for (Map.Entry<Index, Integer> stamp : stamps.entrySet()) {
+				stamp.getKey().row = written.get(stamp.getValue());
+				stamp.getKey().courseVacancy = Integer.parseInt(FlatFileTable.column(stamp.getKey().row, 1).trim());
+			}
+			return results;
+
+		} catch (IOException e) {
+			e.printStackTrace();
+			if (tempFile != null) tempFile.delete();
+			return new ArrayList<Boolean>(Collections.nCopies(batch.size(), false));
+		} finally {
+			FlatFileLock.release(lock);
+		}
+	}
+
+	/**
+	 * Applies the changes of one editRows request to the lines of indexFlatFile.csv.
+	 * <p>
+	 * The lines are left untouched if any Index of the request is stale.
+	 * </p>
+	 * 
+	 * @param lines				every line of indexFlatFile.csv, edited in place
+	 * @param changes			for each Index being edited, the new value of each field keyed by option
+	 * @param stamps			receives the line number of the row of each Index of the request
+	 * 
+	 * @return					<code>true</code> if the changes were applied, <code>false</code> if an Index was stale
+	 */
+	private static boolean applyRows(ArrayList<String> lines, Map<Index, ? extends Map<String, String>> changes,
+			Map<Index, Integer> stamps) {
+		String csvSplitBy = ",";
+		HashSet<String> courses = new HashSet<String>();
+		for (Index stamped : changes.keySet()) {
+			courses.add(stamped.getCourse());
+			if (stamped.row != null) courses.add(FlatFileTable.column(stamped.row, 0));
+		}
+
+		HashMap<Integer, String> edited = new HashMap<Integer, String>();
+		HashMap<Index, Integer> ownRows = new HashMap<Index, Integer>();
+		// the courses whose vacancy the request changes, with the sum of the vacancies of their indexes as edited
+		HashMap<String, Integer> vacancies = new HashMap<String, Integer>();
+		for (int n = 0; n < lines.size(); n++) {
+			String line = lines.get(n);
+			// rows of other courses cannot be changed by the request
+			if (!courses.contains(FlatFileTable.column(line, 0))) continue;
+
+			String[] row = line.split(csvSplitBy);
+			String rowCourse = row[0];
+			String rowIndex = row.length > 2 ? row[2] : null;
+			for (Map.Entry<Index, ? extends Map<String, String>> edit : changes.entrySet()) {
+				Index stamped = edit.getKey();
+				if (stamped.row != null && rowCourse.equals(FlatFileTable.column(stamped.row, 0))
+						&& FlatFileTable.column(stamped.row, 2).equals(rowIndex)) {
+					// this is the row the Index was read from, the columns of the index must not have changed since
+					if (!Index.sameIndexColumns(line, stamped.row)) return false;
+					ownRows.put(stamped, n);
+				}
+				boolean courseRow = rowCourse.equals(edit.getKey().getCourse());
+				boolean indexRow = courseRow && rowIndex != null && rowIndex.equals(edit.getKey().index);
+				for (Map.Entry<String, String> change : edit.getValue().entrySet()) {
+					String option = change.getKey();
+					String newValue = change.getValue();
+					if(courseRow) {
+						if(option.equals("modifyCourseCode")) {
+							//The 1st element in the row is 'course code', replace it with the new value for course code
+							row[0] = newValue;
+							// System.out.println("Course code value modified successfully.");
+						}else if(option.equals("modifyCourseVacancy")) {
+							//The 2nd element in the row is 'course vacancy', worked out again below once every index is edited
+							vacancies.putIfAbsent(rowCourse, 0);
+							// System.out.println("Course vacancy value modified successfully.");
+						}else if(option.equals("modifySchool")) {
+							//The 9th element in the row is 'school', replace it with the new value for school
+							row[8] = newValue;
+							// System.out.println("School value modified successfully.");
 						}
-				
-						case "addNewSessionToIndex":{
-							//The 7th element in the row is the sessions to the current index 
-							row[6] = newValue;
-							//System.out.println("Session added");
-							break;
+						else if(option.equals("modifyAU")) {
+							//The 8th element in the row is 'academic units', replace it with the new value for academic units
+							row[7] = newValue;
+							// System.out.println("Academic units value modified successfully.");
 						}
-						
-						// not used
-						case "removeSessionFromIndex":{
-							//The 7th element in the row is the sessions to the current index 
-							row[6] = newValue;
-							//System.out.println("Session removed"); 
-							break;
+					} 
+					if (indexRow) {
+						//modify the row value according to the option
+						switch (option) {
+							case "modifyIndex":{
+								//The 3rd element in the row is 'index', replace it with the new value for index
+								row[2] = newValue;
+								//System.out.println("Index value modified successfully.");
+								break;
+							}
+			
+							case "modifyIndexVacancy":{
+								//The 4th element in the row is 'index vacancy', replace it with the new value for index vacancy 
+								row[3] = newValue;		
+								//System.out.println("Index vacancy value modified successfully.");
+								break;
+							}
+											
+							case "modifyEnrolled":{
+								//The 5th element in the row is 'enrolled students' for the current index
+								row[4] = newValue;
+								//System.out.println("Student enrollment modified successfully.");
+								break;
+							}
+			
+							case "modifyWaitlist": {
+								//The 6th element in the row is 'waitlist' for the current index
+								row[5] = newValue;
+								//System.out.println("Student waitlist status modified successfully.");
+								break;
+							}
+			
+							case "addNewSessionToIndex":{
+								//The 7th element in the row is the sessions to the current index 
+								row[6] = newValue;
+								//System.out.println("Session added");
+								break;
+							}
+					
+							// not used
+							case "removeSessionFromIndex":{
+								//The 7th element in the row is the sessions to the current index 
+								row[6] = newValue;
+								//System.out.println("Session removed"); 
+								break;
+							}
 						}
 					}
 				}
-				String myContent = String.join(",", row);
-				myContent += "\n";
-				pw.write(myContent);  
 			}
+			edited.put(n, String.join(",", row));
+		}
 
-            pw.flush();
-            pw.close();
-            br.close();
-  
-			File dump = new File(indexPath);
-			dump.delete();
-			tempFile.renameTo(new File(indexPath));
+		// an Index whose row has disappeared is stale too
+		for (Index stamped : changes.keySet()) {
+			if (stamped.row != null && !ownRows.containsKey(stamped)) return false;
+		}
 
+		if (!vacancies.isEmpty()) {
+			for (String line : edited.values()) {
+				String[] row = line.split(csvSplitBy);
+				if (vacancies.containsKey(row[0])) vacancies.merge(row[0], Integer.parseInt(row[3].trim()), Integer::sum);
+			}
+			for (Map.Entry<Integer, String> edit : edited.entrySet()) {
+				String[] row = edit.getValue().split(csvSplitBy);
+				if (!vacancies.containsKey(row[0])) continue;
+				row[1] = Integer.toString(vacancies.get(row[0]));
+				edit.setValue(String.join(",", row));
+			}
+		}
+		for (Map.Entry<Integer, String> edit : edited.entrySet()) {
+			lines.set(edit.getKey(), edit.getValue());
+		}
+		stamps.putAll(ownRows);
+		return true;
+	}
+
+	/**
+	 * Returns whether two rows of indexFlatFile.csv agree on every column other than those carried by the whole course.
+	 * 
+	 * @param row				a row
+	 * @param other				another row
+	 * 
+	 * @return					<code>true</code> if the rows differ at most in course vacancy, academic units and school
+	 */
+	private static boolean sameIndexColumns(String row, String other) {
+		String[] a = row.split(",");
+		String[] b = other.split(",");
+		for (int col = 0; col < Math.max(a.length, b.length); col++) {
+			// course vacancy, academic units and school
+			if (col == 1 || col == 7 || col == 8) continue;
+			if (!(col < a.length ? a[col] : "").equals(col < b.length ? b[col] : "")) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether the columns of the index in the row this Index was read from have been changed since.
+	 * 
+	 * @return					<code>true</code> if the row has been changed or removed
+	 */
+	public boolean isStale() {
+		if (this.row == null) return false;
+		String course = FlatFileTable.column(this.row, 0);
+		String index = FlatFileTable.column(this.row, 2);
+		if (Catalogue.isLoaded()) {
+			String line = Catalogue.INDEXES.get(Catalogue.indexKey(course, index));
+			return line == null || !Index.sameIndexColumns(line, this.row);
+		}
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader(indexPath));
+			String line = "";
+			while ((line = reader.readLine()) != null) {
+				if (FlatFileTable.column(line, 0).equals(course) && FlatFileTable.column(line, 2).equals(index)) {
+					reader.close();
+					return !Index.sameIndexColumns(line, this.row);
+				}
+			}
+			reader.close();
 		} catch (IOException e) {
 			e.printStackTrace();
-			return false;
-		} finally {
-        	if (br != null) {
-            	try {
-                    br.close();
-                    return true;
-            	} catch (IOException e) {
-                    e.printStackTrace();
-                    return false;
-             	}
-         	}
 		}
-    return false;
+		return true;
 	}
 
 	/**
@@ -432,17 +687,22 @@ public class Index {
 	public static boolean addCourse(String course, String index) {
 		BufferedWriter bw = null;
 		
+		FlatFileLock lock = null;
 		try {
+	        lock = FlatFileLock.acquire(indexPath);
 	        FileWriter pw = new FileWriter(indexPath, true); 
 	        pw.append(course+",0,"+index+",0,0,0,0,0,0"); 
 	        pw.append("\n");
             // System.out.println("Student has been added successfully");
 	        pw.flush();
 	        pw.close();
+			Catalogue.appended(indexPath, course+",0,"+index+",0,0,0,0,0,0");
             return true;
     	} catch (IOException e) {
             return false;
-    	}
+    	} finally {
+	        FlatFileLock.release(lock);
+		}
 	}
 
 	//setters - both set the current object as well as modify the flat file when called
@@ -460,9 +720,9 @@ public class Index {
      * @return 					<code>true</code> if operation was sucessful
      */
 	public boolean setCourse(String newCourse) {
-		this.editField(newCourse, "modifyCourseCode");
-		this.course = newCourse;
-		return true;
+		boolean result = this.editField(newCourse, "modifyCourseCode");
+		this.course = SymbolTable.COURSES.idOf(newCourse);
+		return result;
 	}
 
 	/**
@@ -480,8 +740,8 @@ public class Index {
      */
 	public boolean setCourseVacancy(int vacancy) {
 		this.courseVacancy = vacancy;
-		this.editField(Integer.toString(this.courseVacancy), "modifyCourseVacancy");
-		return true;
+		boolean result = this.editField(Integer.toString(this.courseVacancy), "modifyCourseVacancy");
+		return result;
 	}
 
 	/**
@@ -498,9 +758,9 @@ public class Index {
      * @return 					<code>true</code> if operation was sucessful
      */
     public boolean setIndex(String newIndex) {
-		this.editField(newIndex, "modifyIndex");
+		boolean result = this.editField(newIndex, "modifyIndex");
 		this.index = newIndex;
-		return true;
+		return result;
 	}
 
 	/**
@@ -518,8 +778,29 @@ public class Index {
      */
 	public boolean setIndexVacancy(int vacancy) {
 		this.indexVacancy = vacancy;
-		this.editField(Integer.toString(this.indexVacancy), "modifyIndexVacancy");
-		return true;
+		boolean result = this.editField(Integer.toString(this.indexVacancy), "modifyIndexVacancy");
+		return result;
+	}
+
+	/**
+     * Edits the Index's number of index vacancies and total number of course vacancies together
+     * <p>
+     * Writes to indexFlatFile.csv once after both attributes have been changed.
+     * </p>
+     * 
+     * @param indexVacancy      the new total number of vacancies of the index
+	 * @param courseVacancy		the new total number of vacancies of the course
+	 * 
+     * @return 					<code>true</code> if operation was sucessful
+     */
+	public boolean setVacancies(int indexVacancy, int courseVacancy) {
+		this.indexVacancy = indexVacancy;
+		this.courseVacancy = courseVacancy;
+
+		LinkedHashMap<String, String> changes = new LinkedHashMap<String, String>();
+		changes.put("modifyIndexVacancy", Integer.toString(indexVacancy));
+		changes.put("modifyCourseVacancy", Integer.toString(courseVacancy));
+		return this.editFields(changes);
 	}
 
 	/**
@@ -538,9 +819,9 @@ public class Index {
      */
 	public boolean setEnrolled(String[] newStudentArr, String newStudentList) {	
 		this.enrolled = newStudentArr;
-		this.editField(newStudentList, "modifyEnrolled");
+		boolean result = this.editField(newStudentList, "modifyEnrolled");
 
-		return true;
+		return result;
 	}
 	/**
      * Edits the Index's currently waitlisted list of students
@@ -559,8 +840,87 @@ public class Index {
 	public boolean setWaitlist(String[] waitlistArr, String waitlistList) {
 		// method should only be called from Waitlist Manager
 		this.waitlist = waitlistArr;
-		this.editField(waitlistList, "modifyWaitlist");
-		return true;
+		boolean result = this.editField(waitlistList, "modifyWaitlist");
+		return result;
+	}
+
+	/**
+     * Edits the Index's enrolled list, waitlist and vacancies together
+     * <p>
+     * Writes to indexFlatFile.csv once after all four attributes have been changed, so that a batch of enrolments is
+	 * committed as a single rewrite.
+     * </p>
+     *
+     * @param enrolledArr       the new array of enrolled students
+	 * @param waitlistArr		the new array of waitlisted students
+	 * @param indexVacancy		the new total number of vacancies of the index
+	 * @param courseVacancy		the new total number of vacancies of the course
+	 *
+     * @return 					<code>true</code> if operation was sucessful
+     */
+	public boolean setRoster(String[] enrolledArr, String[] waitlistArr, int indexVacancy, int courseVacancy) {
+		this.enrolled = enrolledArr;
+		this.waitlist = waitlistArr;
+		this.indexVacancy = indexVacancy;
+		this.courseVacancy = courseVacancy;
+
+		LinkedHashMap<String, String> changes = new LinkedHashMap<String, String>();
+		changes.put("modifyEnrolled", String.join(";", enrolledArr));
+		changes.put("modifyWaitlist", String.join(";", waitlistArr));
+		changes.put("modifyIndexVacancy", Integer.toString(indexVacancy));
+		changes.put("modifyCourseVacancy", Integer.toString(courseVacancy));
+		return this.editFields(changes);
+	}
+
+	/**
+     * Changes the Index's currently enrolled list of students without writing it
+     * <p>
+     * The change is written to indexFlatFile.csv by setRosters, together with those of other indexes.
+     * </p>
+     *
+     * @param enrolledArr       the new array of enrolled students
+     */
+	public void stageEnrolled(String[] enrolledArr) {
+		this.enrolled = enrolledArr;
+	}
+
+	/**
+     * Changes the Index's enrolled list, waitlist and vacancies without writing them
+     * <p>
+     * The change is written to indexFlatFile.csv by setRosters, together with those of other indexes. Every index of the
+	 * same course written together must be given the same course vacancy.
+     * </p>
+     *
+     * @param enrolledArr       the new array of enrolled students
+	 * @param waitlistArr		the new array of waitlisted students
+	 * @param indexVacancy		the new total number of vacancies of the index
+	 * @param courseVacancy		the new total number of vacancies of the course
+     */
+	public void stageRoster(String[] enrolledArr, String[] waitlistArr, int indexVacancy, int courseVacancy) {
+		this.enrolled = enrolledArr;
+		this.waitlist = waitlistArr;
+		this.indexVacancy = indexVacancy;
+		this.courseVacancy = courseVacancy;
+	}
+
+	/**
+     * Writes the enrolled list, waitlist and vacancies of several indexes in a single rewrite of indexFlatFile.csv
+     *
+     * @param indexes           the indexes being written
+	 *
+     * @return 					<code>true</code> if operation was sucessful
+     */
+	public static boolean setRosters(Collection<Index> indexes) {
+		LinkedHashMap<Index, Map<String, String>> changes = new LinkedHashMap<Index, Map<String, String>>();
+		for (Index idx : indexes) {
+			LinkedHashMap<String, String> fields = new LinkedHashMap<String, String>();
+			fields.put("modifyEnrolled", String.join(";", idx.enrolled));
+			fields.put("modifyWaitlist", String.join(";", idx.waitlist));
+			fields.put("modifyIndexVacancy", Integer.toString(idx.indexVacancy));
+			fields.put("modifyCourseVacancy", Integer.toString(idx.courseVacancy));
+			changes.put(idx, fields);
+		}
+		return Index.editRows(changes);
 	}
 
 	/**
@@ -579,8 +939,8 @@ public class Index {
      */
 	public boolean setSessions(String[] newSessionArr, String newSessionList) {
 		this.sessions = newSessionArr;
-		this.editField(newSessionList, "addNewSessionToIndex"); 
-		return true;
+		boolean result = this.editField(newSessionList, "addNewSessionToIndex"); 
+		return result;
     } 
 	
 	/**
@@ -598,8 +958,8 @@ public class Index {
      */
     public boolean setAcadUnits(int acadUnits) { 
         this.acadUnits = acadUnits; 
-        this.editField(Integer.toString(acadUnits), "modifyAU"); 
-        return true; 
+        boolean result = this.editField(Integer.toString(acadUnits), "modifyAU"); 
+        return result; 
     }
 
 	/**
@@ -616,9 +976,9 @@ public class Index {
      * @return 					<code>true</code> if operation was sucessful
 	 */
 	public boolean setSchool(String school) {
-		this.school = school;
-		this.editField(school, "modifySchool");
-		return true;
+		this.school = SymbolTable.SCHOOLS.idOf(school);
+		boolean result = this.editField(school, "modifySchool");
+		return result;
 	}
 
 	/**
@@ -629,6 +989,7 @@ public class Index {
 	 * @return 					<code>true</code> if course code exists, false if it does not exist
 	 */
     public static boolean checkCourse(String course) {
+		if (Catalogue.isLoaded()) return !Catalogue.getIndexKeys(course).isEmpty();
     	 BufferedReader br = null;
          String delimiter = ",";
          String[] tempArr;
@@ -664,6 +1025,7 @@ public class Index {
 	 * @return 				<code>true</code> if course code:index pair exists, false if it does not exist
 	 */
 	public static boolean checkIndex(String course, String index) {
+		if (Catalogue.isLoaded()) return Catalogue.INDEXES.get(Catalogue.indexKey(course, index)) != null;
 		BufferedReader br = null;
 		String delimiter = ",";
 		String[] tempArr;
@@ -704,12 +1066,9 @@ public class Index {
 		String[] tempArr;
 		String students = "";
 
-        BufferedReader br = null;
         try {
-            br = new BufferedReader(new FileReader(indexPath));
-            String newLine;
 			// System.out.println("Printing list of students...");
-            while((newLine = br.readLine()) != null) {
+            for (String newLine : Index.readLines()) {
                 tempArr = newLine.split(delimiter);
                 // if no index indicated print all about the course
                 if (tempArr[0].equals(courseCode)){
@@ -727,14 +1086,7 @@ public class Index {
             }
         } catch(IOException ioe) {
             ioe.printStackTrace();
-        } finally {
-            try{
-				if(br!=null)
-				br.close();
-			}catch(Exception ex){
-				// System.out.println("Error in closing the BufferedWriter"+ex);
-			}
-		}
+        }
 		return students;
 	}
 
@@ -753,12 +1105,9 @@ public class Index {
 		String[] tempArr;
 		String students = "";
 
-        BufferedReader br = null;
         try {
-            br = new BufferedReader(new FileReader(indexPath));
-            String newLine;
 			// System.out.println("Printing list of students...");
-            while((newLine = br.readLine()) != null) {
+            for (String newLine : Index.readLines()) {
                 tempArr = newLine.split(delimiter);
                 // if no index indicated print all about the course
                 if (tempArr[0].equals(courseCode) && tempArr[2].equals(index)){
@@ -776,15 +1125,33 @@ public class Index {
             }
         } catch(IOException ioe) {
             ioe.printStackTrace();
-        } finally {
-            try{
-				if(br!=null)
-				br.close();
-			}catch(Exception ex){
-				// System.out.println("Error in closing the BufferedWriter"+ex);
+        }
+		return students;
+	}
+
+	/**
+	 * Returns one consistent version of every line of indexFlatFile.csv, header first.
+	 * <p>
+	 * Read paths work on the returned lines instead of keeping the flat file open, so they never hold up a writer and
+	 * never see an enrolment half-applied. When the Catalogue is loaded this is the current Version of its index table.
+	 * Otherwise the flat file is read in one go, and since writers replace the flat file with a single rename the lines
+	 * read are always one whole version of it.
+	 * </p>
+	 * 
+	 * @return						every line of indexFlatFile.csv
+	 * 
+	 * @throws IOException
+	 */
+	private static List<String> readLines() throws IOException {
+		if (Catalogue.isLoaded()) return Catalogue.INDEXES.snapshot().lines();
+		ArrayList<String> lines = new ArrayList<String>();
+		try (BufferedReader reader = new BufferedReader(new FileReader(indexPath))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
 			}
 		}
-		return students;
+		return lines;
 	}
 
 	
@@ -798,15 +1165,12 @@ public class Index {
 		String delimiter = ",";
         String[] tempArr;
 
-        BufferedReader br = new BufferedReader(new FileReader(indexPath));
-        String newLine;
-        br.readLine();
-        while((newLine = br.readLine()) != null) {
+        List<String> lines = Index.readLines();
+        for (String newLine : lines.subList(Math.min(1, lines.size()), lines.size())) {
             tempArr = newLine.split(delimiter);
             System.out.print(tempArr[0] + ": " + tempArr[2] + "\n");
             System.out.println();
         }
-		br.close();
 	}
 	
 	/**
@@ -983,41 +1347,36 @@ public class Index {
         String[] tempArr;
         // String[] headerArr;
 
-        BufferedReader br = new BufferedReader(new FileReader(indexPath));
-		String newLine;
+        List<String> lines = Index.readLines();
 		// String headers = br.readLine();
         // headerArr = headers.split(delimiter);
         
         if (choice == 2) { // display course AND all index vacancies
             int totalCourseVacancy = 0;
-            while((newLine = br.readLine()) != null) {
+            for (String newLine : lines) {
                 tempArr = newLine.split(delimiter);
                 if (tempArr[0].equals(chosenCourse)) {
                     System.out.println(chosenCourse + "/" + tempArr[2] + ": " + tempArr[3] + " vacancies");
                     totalCourseVacancy += Integer.parseInt(tempArr[3]);
                 }
 			}
-			br.close();
             return Integer.toString(totalCourseVacancy);
         } else {
-            while((newLine = br.readLine()) != null) {
+            for (String newLine : lines) {
                 tempArr = newLine.split(delimiter);
                 if (tempArr[0].equals(chosenCourse) && tempArr[2].equals(chosenIndex)) {
                     if (choice == 0) { // only course vacancy
 						System.out.print("Number of vacancies for " + tempArr[0] + ": " + tempArr[1] + "\n"); 
-						br.close();
 						return tempArr[1];
 					}
                     else if (choice == 1) { // index vacancy
 						System.out.print("Number of vacancies for " + tempArr[0] + "/" + tempArr[2] + ": " + tempArr[3] + "\n"); 
-						br.close();
 						return tempArr[3];
 					}
                 }
                 System.out.println();
             }
 		}
-		br.close();
 		return null;
     }
 }
@@ -1,6 +1,7 @@
     package classes.entities;
 
 import java.io.*;
+import java.util.*;
 
 /**
  * Lesson is a concrete class for interacting with lesson sessions.
@@ -28,14 +29,14 @@ public class Lesson {
     private int id;
 
     /**
-     * Lesson location
+     * Lesson location, encoded in SymbolTable.LOCATIONS
      */
-    private String location;
+    private int location = -1;
 
     /**
-     * The day that the lesson is being conducted
+     * The day that the lesson is being conducted, encoded in SymbolTable.DAYS
      */
-    private String day;
+    private int day = -1;
 
     /**
      * The starting time of the lesson
@@ -48,15 +49,25 @@ public class Lesson {
     private String endTime;
 
     /**
-     * The class type of the lesson
+     * The class type of the lesson, encoded in SymbolTable.CLASS_TYPES
      */
-    private String classType;
+    private int classType = -1;
 
     /**
      * The address of the lesson flat file
      */
     private static String lessonFile = "flatFiles/lessonFlatFile.csv";
 
+    /**
+     * The address of the flat file holding the id of the next new lesson
+     */
+    private static String sequenceFile = "flatFiles/lessonSequenceFlatFile.csv";
+
+    /**
+     * Header row of lessonSequenceFlatFile.csv
+     */
+    private static final String SEQUENCE_HEADER = "nextId";
+
     /**
      * A reader object for reading the lesson flat file
      */
@@ -77,18 +88,20 @@ public class Lesson {
      * </p>
      */
     public Lesson(int id) {
+        if (Catalogue.isLoaded()) {
+            String row = Catalogue.LESSONS.get(Integer.toString(id));
+            if (row != null) this.fill(id, row.split(cvsSplitBy));
+            return;
+        }
         try {
             BufferedReader br = new BufferedReader(new FileReader(lessonFile));
+            // a local line, since lessons may be read by several threads at once
+            String line;
             while ((line = br.readLine()) != null) {
                 String[] row = line.split(cvsSplitBy);
                 if (row[0].equals(Integer.toString(id))) {
                     // instantiate attributes
-                    this.id = id;
-                    this.location = row[1];
-                    this.day = row[2];
-                    this.startTime = row[3];
-                    this.endTime = row[4];
-                    this.classType = row[5];
+                    this.fill(id, row);
                 }
             }
             br.close();
@@ -107,6 +120,21 @@ public class Lesson {
         }
     }
 
+    /**
+     * Instantiates attributes from a lessonFlatFile.csv row.
+     * 
+     * @param id                the unique identifier of the lesson
+     * @param row               the flat file row split into columns
+     */
+    private void fill(int id, String[] row) {
+        this.id = id;
+        this.location = SymbolTable.LOCATIONS.idOf(row[1]);
+        this.day = SymbolTable.DAYS.idOf(row[2]);
+        this.startTime = row[3];
+        this.endTime = row[4];
+        this.classType = SymbolTable.CLASS_TYPES.idOf(row[5]);
+    }
+
     // getters
     /**
      * Returns Lesson's location.
@@ -114,7 +142,7 @@ public class Lesson {
      * @return this lesson's location
      */
     public String getLocation() {
-        return this.location;
+        return SymbolTable.LOCATIONS.nameOf(this.location);
     }
 
     /**
@@ -123,6 +151,15 @@ public class Lesson {
      * @return this lesson's day of conduct
      */
     public String getDay() {
+        return SymbolTable.DAYS.nameOf(this.day);
+    }
+
+    /**
+     * Returns Lesson's day of week of conduct as its SymbolTable.DAYS id.
+     * 
+     * @return this lesson's day of conduct id
+     */
+    public int getDayId() {
         return this.day;
     }
 
@@ -151,7 +188,7 @@ public class Lesson {
      * @return this lesson's class type
      */
     public String getClassType() {
-        return this.classType;
+        return SymbolTable.CLASS_TYPES.nameOf(this.classType);
     }
 
 
@@ -170,38 +207,78 @@ public class Lesson {
      * 
      */
     public static int addLesson(String location, String newDay, String newStartTime, String newEndTime, String classType){
-        int count = 0;
-        try {
-            BufferedReader br = new BufferedReader(new FileReader(lessonFile)); //file containing passwords
-            String line = "";
-            //counts how many rows there are and stores as count
-            while ((line = br.readLine()) != null) {
-                count++;
+        // the lock also guards the id sequence, so two lessons are never given the same id
+    	FlatFileLock lock = null;
+    	try {
+            lock = FlatFileLock.acquire(lessonFile);
+            int id = Lesson.nextId();
+
+            // timing clash
+            if (checkTime(id, location, newDay, newStartTime, newEndTime) == false) {
+                return -1;
             }
-            br.close();
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
 
-        // timing clash
-        if (checkTime(count + 1, location, newDay, newStartTime, newEndTime) == false) {
-            return -1;
-        }
-        
-    	try {
+            // the id is used up before the row is written, so a failed write skips an id rather than reusing one
+            Lesson.writeNextId(id + 1);
 	        FileWriter pw = new FileWriter(lessonFile, true); 
-	        pw.append(count+1 + "," + location + "," + newDay + "," + newStartTime + "," + newEndTime + "," + classType);
+            String row = id + "," + location + "," + newDay + "," + newStartTime + "," + newEndTime + "," + classType;
+	        pw.append(row);
 	        pw.append("\n");
 	        pw.flush();
 	        pw.close();
-            return count+1;
+            Catalogue.appended(lessonFile, row);
+            RoomSchedule.book(lessonFile, id, location, newDay, newStartTime, newEndTime);
+            return id;
     	} catch (IOException e) {
             return -1;
+    	} finally {
+            FlatFileLock.release(lock);
     	}
     }
 
+    /**
+     * Reads the id of the next new lesson from lessonSequenceFlatFile.csv.
+     * <p>
+     * If the sequence has not been started, lessons are numbered on from the rows of lessonFlatFile.csv as they always
+     * have been. The caller must hold the lock of lessonFlatFile.csv.
+     * </p>
+     *
+     * @return                  the id of the next new lesson
+     */
+    private static int nextId() {
+        int next = 0;
+        try (BufferedReader br = new BufferedReader(new FileReader(sequenceFile))) {
+            br.readLine();
+            String line = br.readLine();
+            if (line != null) next = Integer.parseInt(line.trim());
+        } catch (FileNotFoundException e) {
+            // the sequence has not been started
+        } catch (IOException | NumberFormatException e) {
+            e.printStackTrace();
+        }
+        // lessons may also have been added to the flat file without the sequence, e.g. by hand
+        return Math.max(next, RoomSchedule.firstFreeId(lessonFile));
+    }
+
+    /**
+     * Writes the id of the next new lesson to lessonSequenceFlatFile.csv. The caller must hold the lock of
+     * lessonFlatFile.csv.
+     *
+     * @param next              the id of the next new lesson
+     */
+    private static void writeNextId(int next) throws IOException {
+        File tempFile = FlatFileLock.tempFile(sequenceFile);
+        try {
+            try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(tempFile)))) {
+                pw.write(SEQUENCE_HEADER + "\n");
+                pw.write(next + "\n");
+            }
+            FlatFileLock.replace(tempFile, sequenceFile);
+        } finally {
+            tempFile.delete();
+        }
+    }
+
     /**
      * Changes the location of the Lesson and edits the lessonFlatFile.csv accordingly.
      * 
@@ -209,12 +286,26 @@ public class Lesson {
      */
     // not used at the moment, but allows to change location
     public void setLocation(String newLocation) {
-        this.location = newLocation;
-        this.editField("setLocation");
+        this.location = SymbolTable.LOCATIONS.idOf(newLocation);
+        FlatFileLock lock = null;
+        try {
+            lock = FlatFileLock.acquire(lessonFile);
+            if (this.editField("setLocation")) {
+                RoomSchedule.book(lessonFile, this.id, newLocation, this.getDay(), this.startTime, this.endTime);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            FlatFileLock.release(lock);
+        }
     }
 
     /**
      * Determins if there is an overlap in lessons.
+     * <p>
+     * Looks the room up in RoomSchedule instead of reading lessonFlatFile.csv, which takes O(log n) in the number of
+     * lessons in the room that day.
+     * </p>
      * 
      * @param id                the id of the lesson being checked
      * @param location          the location of the lesson being checked
@@ -225,85 +316,7 @@ public class Lesson {
      * @return true if there is no overlap, false if there is overlap
      */
     private static boolean checkTime(int id, String location, String newDay, String newStartTime, String newEndTime) {
-        // read file to see if any lesson uses the same location on the same day
-        // if same day, check if the lessons overlaps
-        // return error code if timing overlaps 
-        
-        try {
-            BufferedReader br = new BufferedReader(new FileReader(lessonFile));
-            String line = "";
-            while ((line = br.readLine()) != null) {
-                String[] row = line.split(cvsSplitBy);
-                String existingLocation;
-                String existingDay;
-                String existingStartTime;
-                String existingEndTime;
-                
-                try {
-	                existingLocation = row[1];
-	                existingDay = row[2];
-	                existingStartTime = row[3];
-	                existingEndTime = row[4];
-                } catch (ArrayIndexOutOfBoundsException exception) {
-                	continue;
-                }
-
-                int newStart;
-                int newEnd;
-                int oldStart;
-                int oldEnd;
-                
-                // check start and end time to see if any overlaps occur if same location and same day
-                if (existingLocation.equals(location)){
-                    if (existingDay.equals(newDay)){
-                        // new end time is after old start time
-                        // new start time is after old start time and before old end time 
-                        try {
-                            newStart = Integer.parseInt(newStartTime);
-                            newEnd = Integer.parseInt(newEndTime);
-                            oldStart = Integer.parseInt(existingStartTime);
-                            oldEnd = Integer.parseInt(existingEndTime);
-                        } catch (NumberFormatException e) {
-                        	// System.out.println("Exception");
-                            return false;
-                        }
-                        
-                        // this lesson was the one occupying it 
-                        if (row[0].equals(Integer.toString(id))) {
-                        	continue;
-                        }
-                        
-                        //comparisons - not sure exactly how they work ~dk
-                        if (newEnd < newStart) {
-                        	return false;
-                        }
-                      
-                        if (newStart < oldStart && newEnd > oldStart){
-                            return false;
-                        }
-
-                        else if (newEnd > oldStart && newStart < oldEnd){
-                            return false;
-                        }
-                        
-                    }
-                }
-            }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            if (br != null) {
-                try {
-                    br.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        return true;
+        return RoomSchedule.isFree(lessonFile, id, location, newDay, newStartTime, newEndTime);
     }
 
     /**
@@ -321,15 +334,26 @@ public class Lesson {
      * 
      */
     public void setTime(String newDay, String newStartTime, String newEndTime) {
-    	if (checkTime(this.id, this.location, newDay, newStartTime, newEndTime) == true) {
-            this.day = newDay;
-            this.startTime = newStartTime;
-            this.endTime = newEndTime;
-    		this.editField("setTime");
-    	}
-    	else {
-    		System.out.println("Location is occupied at this time. Modification failed.");
-    	}
+        // the room is checked and booked under the lock, so no other lesson can take it in between
+        FlatFileLock lock = null;
+        try {
+    	    lock = FlatFileLock.acquire(lessonFile);
+    	    if (checkTime(this.id, this.getLocation(), newDay, newStartTime, newEndTime) == true) {
+                this.day = SymbolTable.DAYS.idOf(newDay);
+                this.startTime = newStartTime;
+                this.endTime = newEndTime;
+    		    if (this.editField("setTime")) {
+                    RoomSchedule.book(lessonFile, this.id, this.getLocation(), newDay, newStartTime, newEndTime);
+                }
+    	    }
+    	    else {
+    		    System.out.println("Location is occupied at this time. Modification failed.");
+    	    }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+    	    FlatFileLock.release(lock);
+        }
     }
 
     /**
@@ -348,17 +372,27 @@ public class Lesson {
      * 
      */
     public void setLocationAndTime(String Location, String newDay, String newStartTime, String newEndTime){
-    	this.location = Location;
-        if (checkTime(this.id, Location, newDay, newStartTime, newEndTime) == true) {
-            this.location = Location;
-            this.day = newDay;
-            this.startTime = newStartTime;
-            this.endTime = newEndTime;
-        	this.editField("setLocationAndTime");
+    	this.location = SymbolTable.LOCATIONS.idOf(Location);
+        FlatFileLock lock = null;
+        try {
+            lock = FlatFileLock.acquire(lessonFile);
+            if (checkTime(this.id, Location, newDay, newStartTime, newEndTime) == true) {
+                this.location = SymbolTable.LOCATIONS.idOf(Location);
+                this.day = SymbolTable.DAYS.idOf(newDay);
+                this.startTime = newStartTime;
+                this.endTime = newEndTime;
+        	    if (this.editField("setLocationAndTime")) {
+                    RoomSchedule.book(lessonFile, this.id, Location, newDay, newStartTime, newEndTime);
+                }
+            }
+            else {
+    		    System.out.println("Location is occupied at this time. Modification failed.");
+    	    }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            FlatFileLock.release(lock);
         }
-        else {
-    		System.out.println("Location is occupied at this time. Modification failed.");
-    	}
     }
 
     /**
@@ -368,23 +402,28 @@ public class Lesson {
      * </p>
      * 
      * @param option            the field being changed
+     * 
+     * @return                  <code>true</code> if the flat file was written, <code>false</code> otherwise
      */
 
     ///this editor is to edit the information in the existing index.csv file 
-    private void editField(String option) {
+    private boolean editField(String option) {
     	//initialization
-    	File tempFile = new File("tempLesson.csv");
-        File lessonF = new File (lessonFile);
+    	File tempFile = null;
         String line = "";
 		String csvSplitBy = ",";
         
         // id, location, day, startTime, endTime
 
+        FlatFileLock lock = null;
         try {
+        	lock = FlatFileLock.acquire(lessonFile);
+        	tempFile = FlatFileLock.tempFile(lessonFile);
         	br = new BufferedReader(new FileReader(lessonFile));
             FileWriter fw = new FileWriter(tempFile);
             BufferedWriter bw = new BufferedWriter(fw);
             PrintWriter pw = new PrintWriter(bw);   
+            ArrayList<String> written = new ArrayList<String>();
              
             while ((line = br.readLine()) != null) {       	
                 String[] row = line.split(csvSplitBy);   
@@ -393,14 +432,14 @@ public class Lesson {
                 	switch (option) {
 	                	case "setLocation":{
 	                		// replace location with new location
-	                		row[1] = this.location;	
+	                		row[1] = this.getLocation();	
 	                		System.out.println("Location modified successfully.");
 	                		break;
 	                	}
 	                	 	                	 
 	                	case "setTime":{
 	                		// replace day, startTime and endTime
-	                		row[2] = this.day;
+	                		row[2] = this.getDay();
                             row[3] = this.startTime;
                             row[4] = this.endTime;
 	                		System.out.println ("Time modified successfully.");
@@ -409,8 +448,8 @@ public class Lesson {
 	                	 
 	                	case "setLocationAndTime":{
 	                		// replace location, day, startTime, endTime
-                            row[1] = this.location;	
-	                		row[2] = this.day;
+                            row[1] = this.getLocation();	
+	                		row[2] = this.getDay();
                             row[3] = this.startTime;
                             row[4] = this.endTime;
 	                		System.out.println ("Location and Time modified successfully.");
@@ -420,6 +459,7 @@ public class Lesson {
                 }
                      
                 String myContent = String.join(",", row);
+                written.add(myContent);
                 myContent += "\n";
                 pw.write(myContent);                        
             }
@@ -428,13 +468,16 @@ public class Lesson {
             pw.close();
             br.close();
   
-            File dump = new File(lessonFile);
-            tempFile.renameTo(dump);
-            tempFile.delete();
+            FlatFileLock.replace(tempFile, lessonFile);
+            Catalogue.rewritten(lessonFile, written);
+            return true;
 
         } catch (IOException e) {
         	e.printStackTrace();
+        	if (tempFile != null) tempFile.delete();
+            return false;
      	} finally {
+        	FlatFileLock.release(lock);
         	if (br != null) {
             	try {
                 	br.close();
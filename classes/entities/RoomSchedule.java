@@ -0,0 +1,259 @@
+package classes.entities;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * RoomSchedule keeps the lessons of lessonFlatFile.csv grouped by location and day, so that checking whether a room is
+ * free does not read the flat file.
+ * <p>
+ * The lessons held in one room on one day are kept sorted by starting time, together with the latest ending time of
+ * every lesson up to each one. A lesson can only overlap lessons starting before it ends, which a binary search finds in
+ * O(log n). Walking back from the last of them stops as soon as no earlier lesson runs past its start, so the check is
+ * quick for the short, rarely overlapping lessons a room holds. It is still O(n) at worst, when one long lesson runs
+ * past many short ones, or when the only lesson running past is the one being moved. Adding or removing a lesson works
+ * out the latest ending times again, which is O(n) in the lessons of that room and day.
+ * </p>
+ * <p>
+ * The schedule is loaded from the flat file once and kept up to date by Lesson as it writes. It is loaded again whenever
+ * the flat file has been changed by anything else, which is noticed from the identity, last modified time and size of
+ * the flat file in the same way as FlatFileTable. Lesson writes holding the lock of the flat file, so the schedule is
+ * always checked and updated against the flat file as it is.
+ * </p>
+ */
+
+public class RoomSchedule {
+    /**
+     * The lessons of each room on each day, keyed by location and day e.g. LT1,Mon
+     */
+    private static final HashMap<String, Bookings> rooms = new HashMap<String, Bookings>();
+
+    /**
+     * The location and day of every lesson, keyed by lesson id
+     */
+    private static final HashMap<Integer, String> roomOf = new HashMap<Integer, String>();
+
+    /**
+     * Address of the flat file the schedule was loaded from
+     */
+    private static String lessonPath = null;
+
+    /**
+     * Identity, last modified time and size of lessonFlatFile.csv when the schedule last matched it
+     */
+    private static String fileState = null;
+
+    /**
+     * The largest lesson id in the flat file
+     */
+    private static int maxId = 0;
+
+    /**
+     * The number of lines in the flat file, header included
+     */
+    private static int lineCount = 0;
+
+    /**
+     * Empty Class Constructor
+     */
+    public RoomSchedule() {}
+
+    /**
+     * Determines if a room is free for a lesson.
+     * <p>
+     * A lesson never clashes with itself, so a lesson being moved may overlap the time it is moving from.
+     * </p>
+     *
+     * @param path              address of lessonFlatFile.csv
+     * @param id                the id of the lesson being checked
+     * @param location          the location of the lesson being checked
+     * @param day               the day the lesson is being held
+     * @param startTime         the starting time of the lesson in 24 hour hhmm
+     * @param endTime           the ending time of the lesson in 24 hour hhmm
+     *
+     * @return                  <code>true</code> if there is no overlap, <code>false</code> if there is overlap or a time
+     *                          of a lesson in the room that day cannot be read
+     */
+    static synchronized boolean isFree(String path, int id, String location, String day, String startTime,
+            String endTime) {
+        RoomSchedule.refresh(path);
+        Bookings bookings = rooms.get(location + "," + day);
+        if (bookings == null) return true;
+        if (!bookings.unreadable.isEmpty()) return false;
+        // a lesson never clashes with itself, so a room holding only the lesson being checked is free
+        int own = (location + "," + day).equals(roomOf.get(id)) ? 1 : 0;
+        if (bookings.lessons.size() <= own) return true;
+        int start;
+        int end;
+        try {
+            start = Integer.parseInt(startTime);
+            end = Integer.parseInt(endTime);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (end < start) return false;
+        return !bookings.overlaps(id, start, end);
+    }
+
+    /**
+     * Records where and when a lesson is held after Lesson has written it, replacing any earlier booking of the lesson.
+     *
+     * @param path              address of lessonFlatFile.csv, which the caller holds the lock of
+     * @param id                the id of the lesson
+     * @param location          the location of the lesson
+     * @param day               the day the lesson is held
+     * @param startTime         the starting time of the lesson
+     * @param endTime           the ending time of the lesson
+     */
+    static synchronized void book(String path, int id, String location, String day, String startTime, String endTime) {
+        if (!path.equals(RoomSchedule.lessonPath) || fileState == null) {
+            // nothing to keep up to date, the schedule is loaded from the flat file when next needed
+            return;
+        }
+        String old = roomOf.remove(id);
+        if (old != null) {
+            rooms.get(old).remove(id);
+        } else {
+            lineCount++;
+        }
+        RoomSchedule.add(id, location, day, startTime, endTime);
+        maxId = Math.max(maxId, id);
+        fileState = FlatFileTable.stateOf(path);
+    }
+
+    /**
+     * Returns the id the next new lesson would be given if ids were still counted from the rows of the flat file.
+     *
+     * @param path              address of lessonFlatFile.csv
+     *
+     * @return                  one more than both the largest id and the number of lines of the flat file
+     */
+    static synchronized int firstFreeId(String path) {
+        RoomSchedule.refresh(path);
+        return Math.max(maxId, lineCount) + 1;
+    }
+
+    /**
+     * Loads the schedule from the flat file again if it has changed since the schedule last matched it.
+     */
+    private static void refresh(String path) {
+        String state = FlatFileTable.stateOf(path);
+        if (state != null && state.equals(fileState) && path.equals(lessonPath)) return;
+        rooms.clear();
+        roomOf.clear();
+        maxId = 0;
+        lineCount = 0;
+        try (BufferedReader br = new BufferedReader(new FileReader(path))) {
+            String line = br.readLine();
+            if (line != null) lineCount++;
+            while ((line = br.readLine()) != null) {
+                lineCount++;
+                String[] row = line.split(",");
+                if (row.length < 5) continue;
+                int id;
+                try {
+                    id = Integer.parseInt(row[0].trim());
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                maxId = Math.max(maxId, id);
+                RoomSchedule.add(id, row[1], row[2], row[3], row[4]);
+            }
+            lessonPath = path;
+            fileState = state;
+        } catch (IOException e) {
+            e.printStackTrace();
+            fileState = null;
+        }
+    }
+
+    /**
+     * Adds a lesson to the bookings of its room and day.
+     */
+    private static void add(int id, String location, String day, String startTime, String endTime) {
+        String room = location + "," + day;
+        roomOf.put(id, room);
+        Bookings bookings = rooms.computeIfAbsent(room, r -> new Bookings());
+        try {
+            bookings.add(id, Integer.parseInt(startTime), Integer.parseInt(endTime));
+        } catch (NumberFormatException e) {
+            bookings.unreadable.add(id);
+        }
+    }
+
+    /**
+     * Bookings is the lessons of one room on one day, sorted by starting time.
+     */
+    private static class Bookings {
+        /**
+         * Each lesson as {start, end, id}, sorted by start
+         */
+        private final ArrayList<int[]> lessons = new ArrayList<int[]>();
+
+        /**
+         * The latest ending time of the lessons up to and including each position
+         */
+        private int[] latestEnd = new int[0];
+
+        /**
+         * Ids of lessons whose times cannot be read
+         */
+        private final HashSet<Integer> unreadable = new HashSet<Integer>();
+
+        /**
+         * Adds a lesson. A lesson ending before it starts is taken to be over the moment it starts, so it only overlaps a
+         * lesson running across its starting time.
+         */
+        void add(int id, int start, int end) {
+            int at = this.countStartingBefore(start);
+            this.lessons.add(at, new int[] {start, Math.max(start, end), id});
+            this.rebuild();
+        }
+
+        /**
+         * Removes a lesson.
+         */
+        void remove(int id) {
+            this.unreadable.remove(id);
+            if (this.lessons.removeIf(lesson -> lesson[2] == id)) this.rebuild();
+        }
+
+        /**
+         * Returns whether a lesson other than the given one overlaps a time.
+         */
+        boolean overlaps(int id, int start, int end) {
+            // only lessons starting before the end can overlap, and one does if any of them ends after the start
+            for (int i = this.countStartingBefore(end) - 1; i >= 0 && this.latestEnd[i] > start; i--) {
+                int[] lesson = this.lessons.get(i);
+                if (lesson[2] != id && lesson[1] > start) return true;
+            }
+            return false;
+        }
+
+        /**
+         * Returns the number of lessons starting before a time.
+         */
+        private int countStartingBefore(int time) {
+            int low = 0;
+            int high = this.lessons.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (this.lessons.get(mid)[0] < time) low = mid + 1;
+                else high = mid;
+            }
+            return low;
+        }
+
+        /**
+         * Works out the latest ending times again after the lessons have changed.
+         */
+        private void rebuild() {
+            this.latestEnd = new int[this.lessons.size()];
+            int latest = Integer.MIN_VALUE;
+            for (int i = 0; i < this.latestEnd.length; i++) {
+                latest = Math.max(latest, this.lessons.get(i)[1]);
+                this.latestEnd[i] = latest;
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package classes.entities;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Snapshot is a concrete class for saving the Catalogue to a single binary file and reading it back.
+ * <p>
+ * Reading a Snapshot is much faster than parsing every flat file, so it is used at startup whenever it is still up to
+ * date. It holds the tables as the Catalogue keeps them, every row together with its lookup key, so loading it derives
+ * nothing from the rows. The flat files stay the record of truth: each table in the Snapshot remembers the state of its
+ * flat file as FlatFileTable.stateOf reads it, and the Snapshot is ignored if any flat file has changed since it was
+ * written. Every rewrite replaces a flat file with a new file, so its identity changes even when its size and last
+ * modified time do not, and every append changes its size; no flat file has to be read to find out.
+ * </p>
+ * <p>
+ * Layout of the snapshot file, all numbers big-endian:
+ * <ul>
+ * <li>int MAGIC, int VERSION, int number of tables
+ * <li>per table: int path length, path in UTF-8, int flat file state length, flat file state in UTF-8,
+ * int payload length, payload, long CRC32 of the payload
+ * <li>payload: int number of lines, then per line int length and the line in UTF-8, header line first, then boolean
+ * whether the table is keyed, and if it is, per row after the header int length and its key in UTF-8
+ * </ul>
+ * </p>
+ */
+
+public class Snapshot {
+    //static attributes
+    /**
+     * The address of the snapshot file
+     */
+    public static String snapshotFile = "flatFiles/catalogue.snapshot";
+
+    /**
+     * Marks the start of a snapshot file, "STRS" in ASCII
+     */
+    private static final int MAGIC = 0x53545253;
+
+    /**
+     * Format version, to be increased whenever the layout changes
+     */
+    private static final int VERSION = 3;
+
+    /**
+     * Empty Class Constructor
+     */
+    public Snapshot() {}
+
+    /**
+     * Writes every table of the Catalogue to the snapshot file.
+     * <p>
+     * Writes to a temporary file that is subsequently renamed to replace the previous snapshot file. Nothing is written if
+     * another program has changed a flat file that the Catalogue has not loaded again yet.
+     * </p>
+     *
+     * @return                  <code>true</code> if the operation was successful
+     */
+    public static boolean write() {
+        if (!Catalogue.isLoaded()) return false;
+        FlatFileTable[] tables = Catalogue.getTables();
+        String[] states = new String[tables.length];
+        FlatFileTable.Version[] versions = new FlatFileTable.Version[tables.length];
+        File tempFile;
+        try {
+            for (int i = 0; i < tables.length; i++) {
+                versions[i] = tables[i].snapshot();
+                states[i] = FlatFileTable.stateOf(tables[i].getPath());
+                if (states[i] == null) return false;
+            }
+            // a table behind its flat file, changed by another program before its state was read, would be recorded as
+            // up to date
+            for (int i = 0; i < tables.length; i++) {
+                if (tables[i].isOutOfSync() || tables[i].snapshot() != versions[i]) return false;
+            }
+            tempFile = FlatFileLock.tempFile(Snapshot.snapshotFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(tables.length);
+            for (int i = 0; i < tables.length; i++) {
+                byte[] path = tables[i].getPath().getBytes(StandardCharsets.UTF_8);
+                byte[] state = states[i].getBytes(StandardCharsets.UTF_8);
+                byte[] payload = Snapshot.encode(versions[i].lines(), tables[i].keysOf(versions[i]));
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+
+                out.writeInt(path.length);
+                out.write(path);
+                out.writeInt(state.length);
+                out.write(state);
+                out.writeInt(payload.length);
+                out.write(payload);
+                out.writeLong(crc.getValue());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            tempFile.delete();
+            return false;
+        }
+        try {
+            FlatFileLock.replace(tempFile, Snapshot.snapshotFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+            tempFile.delete();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the snapshot file into the tables of the Catalogue.
+     * <p>
+     * The snapshot file is memory-mapped rather than read through a stream. Nothing is loaded unless the whole snapshot
+     * is valid: right magic number and version, every payload checksum matching, and every flat file in the state it was
+     * in when the snapshot was written.
+     * </p>
+     *
+     * @return                  <code>true</code> if every table was loaded from the snapshot file
+     */
+    public static boolean read() {
+        File file = new File(Snapshot.snapshotFile);
+        if (!file.exists()) return false;
+
+        HashMap<FlatFileTable, List<List<String>>> contents = new HashMap<FlatFileTable, List<List<String>>>();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return false;
+
+            int tableCount = buffer.getInt();
+            for (int i = 0; i < tableCount; i++) {
+                byte[] pathBytes = new byte[buffer.getInt()];
+                buffer.get(pathBytes);
+                String path = new String(pathBytes, StandardCharsets.UTF_8);
+                byte[] stateBytes = new byte[buffer.getInt()];
+                buffer.get(stateBytes);
+                String state = new String(stateBytes, StandardCharsets.UTF_8);
+                int payloadLength = buffer.getInt();
+                ByteBuffer payload = buffer.slice();
+                payload.limit(payloadLength);
+                buffer.position(buffer.position() + payloadLength);
+                long checksum = buffer.getLong();
+
+                // a flat file edited after the snapshot was taken makes the whole snapshot stale
+                FlatFileTable table = Catalogue.tableOf(path);
+                if (table == null || !state.equals(FlatFileTable.stateOf(path))) return false;
+
+                CRC32 crc = new CRC32();
+                crc.update(payload.duplicate());
+                if (crc.getValue() != checksum) return false;
+
+                contents.put(table, Snapshot.decode(payload));
+            }
+            if (contents.size() != Catalogue.getTables().length) return false;
+        } catch (IOException | RuntimeException e) {
+            // unreadable or truncated snapshot, fall back to the flat files
+            return false;
+        }
+
+        for (Map.Entry<FlatFileTable, List<List<String>>> entry : contents.entrySet()) {
+            entry.getKey().load(entry.getValue().get(0), entry.getValue().get(1));
+        }
+        return true;
+    }
+
+    /**
+     * Encodes the lines of a table and the keys of its rows into a snapshot payload.
+     *
+     * @param lines             every line of the table, header first
+     * @param keys              the key of every row after the header, or null if the table has no key
+     *
+     * @return                  the encoded payload
+     *
+     * @throws IOException
+     */
+    private static byte[] encode(List<String> lines, List<String> keys) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(lines.size());
+        for (String line : lines) {
+            Snapshot.writeString(out, line);
+        }
+        out.writeBoolean(keys != null);
+        if (keys != null) {
+            for (String key : keys) {
+                Snapshot.writeString(out, key);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a snapshot payload into the lines of a table and the keys of its rows.
+     *
+     * @param payload           the payload, positioned at its start
+     *
+     * @return                  every line of the table, header first, then the key of every row after the header, or
+     *                          null if the table has no key
+     */
+    private static List<List<String>> decode(ByteBuffer payload) {
+        int count = payload.getInt();
+        ArrayList<String> lines = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            lines.add(Snapshot.readString(payload));
+        }
+        ArrayList<String> keys = null;
+        if (payload.get() != 0) {
+            keys = new ArrayList<String>(Math.max(0, count - 1));
+            for (int i = 1; i < count; i++) {
+                keys.add(Snapshot.readString(payload));
+            }
+        }
+        return Arrays.asList(lines, keys);
+    }
+
+    /**
+     * Writes a string to a payload as its length followed by its UTF-8 bytes.
+     *
+     * @param out               the payload being written
+     * @param value             the string
+     *
+     * @throws IOException
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(encoded.length);
+        out.write(encoded);
+    }
+
+    /**
+     * Reads a string written by writeString from a payload.
+     *
+     * @param payload           the payload, positioned at the string
+     *
+     * @return                  the string
+     */
+    private static String readString(ByteBuffer payload) {
+        byte[] encoded = new byte[payload.getInt()];
+        payload.get(encoded);
+        return new String(encoded, StandardCharsets.UTF_8);
+    }
+}
@@ -39,13 +39,13 @@ public class Student extends User{
      */
     private String hashedPassword;
     /**
-     * The student's start date of access to STARS
+     * The student's start date of access to STARS, in epoch minutes
      */
-    private LocalDateTime startAccess;
+    private long startAccess = UNDECODED;
     /**
-     * The student;s end date of access to STARS
+     * The student;s end date of access to STARS, in epoch minutes
      */
-    private LocalDateTime endAccess;
+    private long endAccess = UNDECODED;
     /**
      * The student's name (both first and last names)
      */
@@ -69,11 +69,18 @@ public class Student extends User{
     /**
      * The student's total number of academic units
      */
-    private int totalAU;
+    private int totalAU = Integer.MIN_VALUE;
     /**
      * The courses currently in the student's wait list
      */
     private String waitlist;
+    /**
+     * The raw studentFlatFile.csv row this student was read from, or null if every field was given up front.
+     * <p>
+     * Fields are only decoded from the row the first time they are asked for.
+     * </p>
+     */
+    private String row;
     
     //static attributes
     /**
@@ -81,16 +88,27 @@ public class Student extends User{
      */
     private static String studentFile = "flatFiles/studentFlatFile.csv";
 
+    /**
+     * The most AU a student may hold
+     */
+    public static final int AU_LIMIT = 21;
+
     /**
      * The format of localdatetime objects used by student
      */
     private static DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm", Locale.ENGLISH);
+
+    /**
+     * Marks a numeric field that has not been decoded from the raw row yet
+     */
+    private static final long UNDECODED = Long.MIN_VALUE;
     
     /** 
      * Class Constructor for an empty Student.
      */
     public Student() { 
         this.username = "student not found";
+        this.totalAU = 0;
     }
     
     /**
@@ -100,8 +118,8 @@ public class Student extends User{
     String name, String matricNumber, String gender, String nationality, String enrolled, int totalAU, String waitlist) {
         this.username = username;
         this.hashedPassword = hashedPassword;
-        this.startAccess = startAccess;
-        this.endAccess = endAccess;
+        this.startAccess = Student.toEpochMinutes(startAccess);
+        this.endAccess = Student.toEpochMinutes(endAccess);
         this.name = name;
         this.matricNumber = matricNumber;
         this.gender = gender;
@@ -111,6 +129,28 @@ public class Student extends User{
         this.waitlist = waitlist;
     }
 
+    /**
+     * Class Constructor for a Student backed by a raw studentFlatFile.csv row.
+     * <p>
+     * Only the username is taken from the row straight away, the remaining columns are decoded on first access.
+     * </p>
+     */
+    private Student(String username, String row) {
+        this.username = username;
+        this.row = row;
+    }
+
+    /**
+     * Creates a Student object from a row of studentFlatFile.csv that has already been read, without reading the flat file.
+     * 
+     * @param line                  the raw flat file row
+     * 
+     * @return                      the Student backed by the row
+     */
+    public static Student createByRow(String line) {
+        return new Student(FlatFileTable.column(line, 0), line);
+    }
+
     /**
      * Creates a Student object according to a username.
      * <p>
@@ -123,18 +163,21 @@ public class Student extends User{
      */
     public static Student createByUsername(String username) {
         Student student;
+        if (Catalogue.isLoaded()) {
+            String line = Catalogue.STUDENTS.get(username.toLowerCase());
+            if (line == null) return new Student();
+            return new Student(FlatFileTable.column(line, 0), line);
+        }
         try {
             BufferedReader br = new BufferedReader(new FileReader(Student.studentFile));
             String line = "";
             //iterate through flat file rows
             while ((line = br.readLine()) != null) {
-                //save flat file row
-                String[] row = line.split(User.csvSplitBy);
-                //check if username corresponds
-                if (row[0].toLowerCase().equals(username.toLowerCase())) {
-                    // instantiate attributes
-                    student = new Student(row[0], row[1], LocalDateTime.parse(row[2], formatter), LocalDateTime.parse(row[3], formatter), 
-                    row[4], row[5], row[6], row[7], row[8], Integer.parseInt(row[9]), row[10]);
+                //check if username corresponds, without splitting the rest of the row
+                if (line.regionMatches(true, 0, username, 0, username.length()) 
+                    && line.length() > username.length() && line.charAt(username.length()) == ',') {
+                    // keep the raw row, attributes are decoded when first used
+                    student = new Student(line.substring(0, username.length()), line);
                     br.close();
                     return student;
                 }
@@ -161,18 +204,20 @@ public class Student extends User{
      */
     public static Student createByName(String name) {
         Student student;
+        if (Catalogue.isLoaded()) {
+            String username = Catalogue.findUsernameByName(name);
+            if (username == null) return new Student();
+            return Student.createByUsername(username);
+        }
         try {
             BufferedReader br = new BufferedReader(new FileReader(Student.studentFile));
             String line = "";
             //iterate through flat file rows
             while ((line = br.readLine()) != null) {
-                //save flat file row
-                String[] row = line.split(User.csvSplitBy);
-                //check if username corresponds
-                if (row[4].toLowerCase().equals(name.toLowerCase())) {
-                    // instantiate attributes
-                    student = new Student(row[0], row[1], LocalDateTime.parse(row[2], formatter), LocalDateTime.parse(row[3], formatter), 
-                    row[4], row[5], row[6], row[7], row[8], Integer.parseInt(row[9]), row[10]);
+                //check if name corresponds, only the name column is cut out of the row
+                if (FlatFileTable.column(line, 4).equalsIgnoreCase(name)) {
+                    // keep the raw row, attributes are decoded when first used
+                    student = new Student(FlatFileTable.column(line, 0), line);
                     br.close();
                     return student;
                 }
@@ -187,6 +232,64 @@ public class Student extends User{
         return student;
     }
 
+    /**
+     * Creates the Student objects of several names with a single pass through studentFlatFile.csv.
+     * 
+     * @param names                 names of the Students being instantiated, in any case
+     * 
+     * @return                      the Students found, keyed by lower case name; names without a student are left out
+     */
+    public static HashMap<String, Student> createByNames(Collection<String> names) {
+        return Student.createByColumn(names, 4);
+    }
+
+    /**
+     * Creates the Student objects of several usernames with a single pass through studentFlatFile.csv.
+     * 
+     * @param usernames             usernames of the Students being instantiated, in any case
+     * 
+     * @return                      the Students found, keyed by lower case username; usernames without a student are left out
+     */
+    public static HashMap<String, Student> createByUsernames(Collection<String> usernames) {
+        return Student.createByColumn(usernames, 0);
+    }
+
+    /**
+     * Creates the Student objects whose username or name is one of several values.
+     * 
+     * @param values                the usernames or names being looked for, in any case
+     * @param col                   0 to look up usernames, 4 to look up names
+     * 
+     * @return                      the Students found, keyed by lower case value
+     */
+    private static HashMap<String, Student> createByColumn(Collection<String> values, int col) {
+        HashMap<String, Student> students = new HashMap<String, Student>();
+        HashSet<String> wanted = new HashSet<String>();
+        for (String value : values) {
+            if (!value.trim().equals("")) wanted.add(value.toLowerCase());
+        }
+        if (wanted.isEmpty()) return students;
+        if (Catalogue.isLoaded()) {
+            for (String value : wanted) {
+                String username = col == 0 ? value : Catalogue.findUsernameByName(value);
+                if (username == null) continue;
+                String line = Catalogue.STUDENTS.get(username);
+                if (line != null) students.put(value, new Student(FlatFileTable.column(line, 0), line));
+            }
+            return students;
+        }
+        try (BufferedReader br = new BufferedReader(new FileReader(Student.studentFile))) {
+            String line = br.readLine();
+            while ((line = br.readLine()) != null && students.size() < wanted.size()) {
+                String value = FlatFileTable.column(line, col).toLowerCase();
+                if (wanted.contains(value)) students.putIfAbsent(value, new Student(FlatFileTable.column(line, 0), line));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return students;
+    }
+
     //getters
     /**
      * Returns Student's unique username.
@@ -203,6 +306,20 @@ public class Student extends User{
      * @return      this Student's starting access date
      */
     public LocalDateTime getStartDate(){
+        long minutes = this.getStartMinutes();
+        if (minutes == UNDECODED) return null;
+        return LocalDateTime.ofEpochSecond(minutes * 60, 0, ZoneOffset.UTC);
+    }
+
+    /**
+     * Returns Student's start date of access to STARS system in epoch minutes.
+     * 
+     * @return      this Student's starting access date, in minutes since 01/01/1970 00:00
+     */
+    public long getStartMinutes(){
+        if (this.startAccess == UNDECODED && this.row != null) {
+            this.startAccess = Student.toEpochMinutes(LocalDateTime.parse(this.field(2), formatter));
+        }
         return this.startAccess;
     }
 
@@ -212,6 +329,20 @@ public class Student extends User{
      * @return       this Student's ending access date
      */
     public LocalDateTime getEndDate(){
+        long minutes = this.getEndMinutes();
+        if (minutes == UNDECODED) return null;
+        return LocalDateTime.ofEpochSecond(minutes * 60, 0, ZoneOffset.UTC);
+    }
+
+    /**
+     * Returns Student's end date of access to STARS system in epoch minutes.
+     * 
+     * @return      this Student's ending access date, in minutes since 01/01/1970 00:00
+     */
+    public long getEndMinutes(){
+        if (this.endAccess == UNDECODED && this.row != null) {
+            this.endAccess = Student.toEpochMinutes(LocalDateTime.parse(this.field(3), formatter));
+        }
         return this.endAccess;
     }
 
@@ -221,6 +352,7 @@ public class Student extends User{
      * @return       this Student's name
      */
     public String getName() {
+        if (this.name == null) this.name = this.field(4);
         return this.name;
     }
 
@@ -230,6 +362,7 @@ public class Student extends User{
      * @return       this Student's matriculation number
      */
     public String getMatricNumber() {
+        if (this.matricNumber == null) this.matricNumber = this.field(5);
         return this.matricNumber;
     }
     
@@ -239,6 +372,7 @@ public class Student extends User{
      * @return       this Student's currently enrolled list of courses
      */
     public String getStudentCourses() {
+        if (this.enrolled == null) this.enrolled = this.field(8);
         return this.enrolled;
     }
 
@@ -248,6 +382,7 @@ public class Student extends User{
      * @return       this Student's gender
      */
     public String getGender() {
+        if (this.gender == null) this.gender = this.field(6);
         return this.gender;
     }
 
@@ -257,6 +392,7 @@ public class Student extends User{
      * @return       this Student's nationality
      */
     public String getNationality() {
+        if (this.nationality == null) this.nationality = this.field(7);
         return this.nationality;
     }
 
@@ -266,6 +402,7 @@ public class Student extends User{
      * @return       this Student's total number of AUs
      */
     public int getTotalAU() { 
+        if (this.totalAU == Integer.MIN_VALUE) this.totalAU = Integer.parseInt(this.field(9));
         return this.totalAU;
     }
 
@@ -275,6 +412,7 @@ public class Student extends User{
      * @return       this Student's wait-listed courses
      */
     public String getWaitlist() { 
+        if (this.waitlist == null) this.waitlist = this.field(10);
         return this.waitlist;
     }
 
@@ -306,8 +444,8 @@ public class Student extends User{
     public void setAccessPeriod(LocalDateTime startDate, LocalDateTime endDate){
         this.editField(startDate.format(Student.formatter), 2);
         this.editField(endDate.format(Student.formatter), 3);
-        this.startAccess = startDate;
-        this.endAccess = endDate;
+        this.startAccess = Student.toEpochMinutes(startDate);
+        this.endAccess = Student.toEpochMinutes(endDate);
     }
 
     /**
@@ -362,6 +500,118 @@ public class Student extends User{
         return result;
     }
 
+    /**
+     * Changes this student's enrolled courses, total AU and waitlist without writing them.
+     * <p>
+     * The changes are written to studentFlatFile.csv by setEnrolments, together with those of other students.
+     * </p>
+     *
+     * @param newEnrolled           the new list of enrolled courses in ";" delineated format
+     * @param newAU                 the new total AU value
+     * @param newWaitlist           the new waitlist in ";" delineated format
+     */
+    public void stageEnrolment(String newEnrolled, int newAU, String newWaitlist) {
+        this.enrolled = newEnrolled;
+        this.totalAU = newAU;
+        this.waitlist = newWaitlist;
+    }
+
+    /**
+     * Writes the enrolled courses, total AU and waitlist of several students in a single rewrite of studentFlatFile.csv.
+     *
+     * @param students              the students being written
+     *
+     * @return                      <code>true</code> if the operation was successful
+     */
+    public static boolean setEnrolments(Collection<Student> students) {
+        if (students.isEmpty()) return true;
+        return User.editRows(Student.enrolmentChanges(students), Student.studentFile);
+    }
+
+    /**
+     * Writes the enrolled courses, total AU and waitlist of several students in a single rewrite of studentFlatFile.csv,
+     * provided none of them has changed since they were read.
+     * <p>
+     * The row each Student was read from is its version stamp, as with Index.setRosters. If any of those rows has been
+     * changed or removed since it was read, nothing is written and the students should be read again. After a successful
+     * write each Student takes its new row as its stamp.
+     * </p>
+     *
+     * @param students              the students being written
+     *
+     * @return                      <code>true</code> if the operation was successful, <code>false</code> if a student was
+     *                              stale or the students could not be written
+     */
+    public static boolean setEnrolmentsIfUnchanged(Collection<Student> students) {
+        if (students.isEmpty()) return true;
+        HashMap<String, String> stamps = new HashMap<String, String>();
+        for (Student stud : students) {
+            if (stud.row != null) stamps.put(stud.getUsername(), stud.row);
+        }
+        if (!User.editRowsIfUnchanged(Student.enrolmentChanges(students), stamps, Student.studentFile)) return false;
+        for (Student stud : students) {
+            if (stud.row != null) stud.row = stamps.get(stud.getUsername());
+        }
+        return true;
+    }
+
+    /**
+     * Returns the enrolled courses, total AU and waitlist of several students as changes for User.editRows.
+     */
+    private static HashMap<String, Map<Integer, String>> enrolmentChanges(Collection<Student> students) {
+        HashMap<String, Map<Integer, String>> changes = new HashMap<String, Map<Integer, String>>();
+        for (Student stud : students) {
+            HashMap<Integer, String> columns = new HashMap<Integer, String>();
+            columns.put(8, stud.getStudentCourses());
+            columns.put(9, Integer.toString(stud.getTotalAU()));
+            columns.put(10, stud.getWaitlist());
+            changes.put(stud.getUsername(), columns);
+        }
+        return changes;
+    }
+
+    /**
+     * Writes the access periods of several students in a single rewrite of studentFlatFile.csv.
+     *
+     * @param periods               the start and end of the access period of each student, keyed by username
+     *
+     * @return                      <code>true</code> if the operation was successful
+     */
+    public static boolean setAccessPeriods(Map<String, LocalDateTime[]> periods) {
+        if (periods.isEmpty()) return true;
+        HashMap<String, Map<Integer, String>> changes = new HashMap<String, Map<Integer, String>>();
+        for (Map.Entry<String, LocalDateTime[]> period : periods.entrySet()) {
+            HashMap<Integer, String> columns = new HashMap<Integer, String>();
+            columns.put(2, period.getValue()[0].format(Student.formatter));
+            columns.put(3, period.getValue()[1].format(Student.formatter));
+            changes.put(period.getKey(), columns);
+        }
+        return User.editRows(changes, Student.studentFile);
+    }
+
+    /**
+     * Returns a column of this Student's raw row.
+     * 
+     * @param col               the column being read
+     * 
+     * @return                  the value of the column, or null if this Student has no raw row
+     */
+    private String field(int col) {
+        if (this.row == null) return null;
+        return FlatFileTable.column(this.row, col);
+    }
+
+    /**
+     * Converts a date to the number of minutes since 01/01/1970 00:00.
+     * 
+     * @param date              the date being converted
+     * 
+     * @return                  the date in epoch minutes
+     */
+    private static long toEpochMinutes(LocalDateTime date) {
+        return date.toEpochSecond(ZoneOffset.UTC) / 60;
+    }
+
     /**
      * Returns a Hashmap of student usernames and student names
      * 
@@ -369,16 +619,22 @@ public class Student extends User{
      */
     public static HashMap<String, String> getStudentList(){
         HashMap<String, String> studentList = new HashMap<String, String>();
+        if (Catalogue.isLoaded()) {
+            for (String line : Catalogue.STUDENTS.rows()) {
+                studentList.put(FlatFileTable.column(line, 0), FlatFileTable.column(line, 4));
+            }
+            return studentList;
+        }
         
         try {
             BufferedReader br = new BufferedReader(new FileReader(studentFile)); //file containing passwords
             String line = "";
             while ((line = br.readLine()) != null) {
-                String[] nameList = line.split(User.csvSplitBy);
                 // column 1 is username, column 5 is name
-		if (nameList[0].equals("username"))
+                String username = FlatFileTable.column(line, 0);
+		if (username.equals("username"))
 	 	    continue;
-                studentList.put(nameList[0], nameList[4]);
+                studentList.put(username, FlatFileTable.column(line, 4));
             }
             br.close();
         } catch (FileNotFoundException e) {
@@ -389,6 +645,53 @@ public class Student extends User{
         return studentList;
     }
 
+    /**
+     * Returns a Hashmap of student usernames and the start and end of their access periods
+     * 
+     * @return              Hashmap<String, LocalDateTime[]> of username:{start, end} key:value pairs
+     */
+    public static HashMap<String, LocalDateTime[]> getAccessList(){
+        HashMap<String, LocalDateTime[]> accessList = new HashMap<String, LocalDateTime[]>();
+        for (String line : Student.studentRows()) {
+            LocalDateTime start = LocalDateTime.parse(FlatFileTable.column(line, 2), formatter);
+            LocalDateTime end = LocalDateTime.parse(FlatFileTable.column(line, 3), formatter);
+            accessList.put(FlatFileTable.column(line, 0), new LocalDateTime[] {start, end});
+        }
+        return accessList;
+    }
+
+    /**
+     * Returns a Hashmap of student usernames and matriculation numbers
+     * 
+     * @return              Hashmap<String, String> of username:matricnumber key:value pairs
+     */
+    public static HashMap<String, String> getMatricList(){
+        HashMap<String, String> matricList = new HashMap<String, String>();
+        for (String line : Student.studentRows()) {
+            matricList.put(FlatFileTable.column(line, 0), FlatFileTable.column(line, 5));
+        }
+        return matricList;
+    }
+
+    /**
+     * Returns every row of studentFlatFile.csv after the header, from the Catalogue if it is loaded.
+     * 
+     * @return              the rows of studentFlatFile.csv
+     */
+    private static List<String> studentRows(){
+        if (Catalogue.isLoaded()) return Catalogue.STUDENTS.rows();
+        ArrayList<String> rows = new ArrayList<String>();
+        try (BufferedReader br = new BufferedReader(new FileReader(studentFile))) {
+            String line = br.readLine();
+            while ((line = br.readLine()) != null) {
+                if (!line.trim().equals("")) rows.add(line);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return rows;
+    }
+
     /**
      * Returns a Hashmap that can be used to determine if Username exists in the studentFlatFile.csv flat file.
      * 
@@ -450,17 +753,23 @@ public class Student extends User{
         String end = endAccess.format(Student.formatter);
 
 
+    	FlatFileLock lock = null;
     	try {
+	        lock = FlatFileLock.acquire(Student.studentFile);
 	        FileWriter pw = new FileWriter(Student.studentFile, true); 
-	        pw.append(username + "," + hashedPassword + "," + start + "," + end + "," + name + 
-                    "," + matricNumber + "," + gender + "," + nationality + "," + coursesEnrolled + "," + totalAU + "," + waitlist); 
+            String row = username + "," + hashedPassword + "," + start + "," + end + "," + name + 
+                    "," + matricNumber + "," + gender + "," + nationality + "," + coursesEnrolled + "," + totalAU + "," + waitlist;
+	        pw.append(row); 
 	        pw.append("\n");
             // System.out.println("Student has been added successfully");
 	        pw.flush();
 	        pw.close();
+            Catalogue.appended(Student.studentFile, row);
             return true;
     	} catch (IOException e) {
             return false;
+    	} finally {
+	        FlatFileLock.release(lock);
     	}
     }
 
@@ -0,0 +1,147 @@
+package classes.entities;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * SymbolTable is a concrete class for dictionary-encoding low-cardinality flat file values.
+ * <p>
+ * Values such as course codes, schools, days, locations and class types repeat across every row of the flat files.
+ * A SymbolTable hands out one small integer id per distinct value, so entities can store and compare the id instead of
+ * keeping their own String copy of the value.
+ * </p>
+ * <p>
+ * Ids are never reused or removed, so an id stays valid for the lifetime of the program.
+ * </p>
+ */
+
+public class SymbolTable {
+    //static attributes
+    /**
+     * Symbol table for course codes e.g. CZ2001
+     */
+    public static final SymbolTable COURSES = new SymbolTable();
+
+    /**
+     * Symbol table for schools e.g. SCSE
+     */
+    public static final SymbolTable SCHOOLS = new SymbolTable();
+
+    /**
+     * Symbol table for days of the week in three-letter format e.g. Mon
+     */
+    public static final SymbolTable DAYS = new SymbolTable();
+
+    /**
+     * Symbol table for lesson locations e.g. N4 B2-10
+     */
+    public static final SymbolTable LOCATIONS = new SymbolTable();
+
+    /**
+     * Symbol table for lesson class types e.g. lab
+     */
+    public static final SymbolTable CLASS_TYPES = new SymbolTable();
+
+    //attributes
+    /**
+     * Lookup from value to id
+     */
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * Lookup from id to value, grown when a new value is added
+     */
+    private volatile String[] values = new String[16];
+
+    /**
+     * The number of ids handed out so far
+     */
+    private int size = 0;
+
+    /**
+     * Class Constructor for an empty SymbolTable
+     */
+    public SymbolTable() {}
+
+    /**
+     * Returns the id of a value, adding the value to the table if it has not been seen before.
+     *
+     * @param value             the value being encoded
+     *
+     * @return                  the id of the value, or -1 if the value is null
+     */
+    public int idOf(String value) {
+        if (value == null) return -1;
+        Integer id = this.ids.get(value);
+        if (id != null) return id;
+        return this.add(value);
+    }
+
+    /**
+     * Returns the id of a value without adding it to the table.
+     *
+     * @param value             the value being looked up
+     *
+     * @return                  the id of the value, or -1 if the value has never been encoded
+     */
+    public int find(String value) {
+        if (value == null) return -1;
+        Integer id = this.ids.get(value);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Returns the value of an id.
+     *
+     * @param id                the id being decoded
+     *
+     * @return                  the shared String instance for the id, or null if the id is -1
+     */
+    public String nameOf(int id) {
+        if (id < 0) return null;
+        return this.values[id];
+    }
+
+    /**
+     * Returns the shared String instance for a value, so that repeated values share a single copy.
+     *
+     * @param value             the value being interned
+     *
+     * @return                  the shared String instance equal to value
+     */
+    public String intern(String value) {
+        return this.nameOf(this.idOf(value));
+    }
+
+    /**
+     * Returns the number of distinct values in the table.
+     *
+     * @return                  the number of ids handed out
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * Adds a new value to the table.
+     *
+     * @param value             the value being added
+     *
+     * @return                  the id of the value
+     */
+    private synchronized int add(String value) {
+        // another thread may have added the value while we were waiting
+        Integer id = this.ids.get(value);
+        if (id != null) return id;
+
+        String[] table = this.values;
+        if (this.size == table.length) {
+            table = Arrays.copyOf(table, table.length * 2);
+        }
+        table[this.size] = value;
+        // publish the value before its id so that nameOf never sees an empty slot
+        this.values = table;
+        this.ids.put(value, this.size);
+        return this.size++;
+    }
+}
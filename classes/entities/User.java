@@ -1,7 +1,9 @@
 package classes.entities;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
+import java.nio.file.*;
 
 /**
  * User is an abstract class implemented by Student and Admin.
@@ -22,9 +24,10 @@ public abstract class User {
     protected static final String csvSplitBy = ",";
 
     /**
-     * A reader object for reading a flat file
+     * Gathers the rewrites of each flat file into batches, keyed by the address of the flat file
      */
-    private static BufferedReader br = null;
+    private static final ConcurrentHashMap<String, GroupCommit<RowEdit>> commits =
+        new ConcurrentHashMap<String, GroupCommit<RowEdit>>();
 
     /**
      * Returns a Hashmap that can be used to determine if username exists in the .csv flat file specified.
@@ -38,6 +41,13 @@ public abstract class User {
      */
     public static HashMap<String, String> getUserPassword(String file){
         HashMap<String, String> usernamePassword = new HashMap<String, String>();
+        FlatFileTable table = Catalogue.tableOf(file);
+        if (Catalogue.isLoaded() && table != null) {
+            for (String line : table.lines()) {
+                usernamePassword.put(FlatFileTable.column(line, 0).toLowerCase(), FlatFileTable.column(line, 1));
+            }
+            return usernamePassword;
+        }
         
         try {
             BufferedReader br = new BufferedReader(new FileReader(file)); //file containing passwords
@@ -71,54 +81,219 @@ public abstract class User {
      * @return                  Boolean representing whether the edit function was successful
      */
     public boolean editField(String username, String newValue, int option, String file) {
-    	//initialization
-    	File tempFile = new File("flatFiles/temp.csv");
-        File oldFile = new File(file);
-        String line = "";  
-		String csvSplitBy = ",";
-        
+        if (option == 1) {
+            newValue = HashingMachine.hashPassword(newValue);
+        }
+        HashMap<Integer, String> columns = new HashMap<Integer, String>();
+        columns.put(option, newValue);
+        HashMap<String, Map<Integer, String>> changes = new HashMap<String, Map<Integer, String>>();
+        changes.put(username, columns);
+        return User.editRows(changes, file);
+    }
+
+    /**
+     * Edits several rows of a .csv flat file in a single rewrite.
+     * <p>
+     * Writes to a temporary file that is subsequently renamed to replace the original file, so a batch of edits to many
+     * users costs one pass over the file instead of one pass per edit. Values are written as given, passwords are not
+     * hashed here.
+     * </p>
+     * <p>
+     * The rewrite is made by a GroupCommit together with the other edits to the same file that arrive at the same time,
+     * and this method returns once the batch is on disk.
+     * </p>
+     * 
+     * @param changes           new values keyed by username, then by the column being edited
+     * @param file              address of the .csv flat file
+     * 
+     * @return                  Boolean representing whether the edit function was successful
+     */
+    protected static boolean editRows(Map<String, ? extends Map<Integer, String>> changes, String file) {
+        return User.commit(new RowEdit(changes, new HashMap<String, String>()), file);
+    }
+
+    /**
+     * Edits several rows of a .csv flat file in a single rewrite, provided none of them has changed since it was read.
+     * <p>
+     * Works as editRows, but the row each user was read from is its version stamp, as with Index.setRosters. If any of
+     * those rows has been changed or removed since it was read, nothing is written, so a stale user can never overwrite
+     * a newer change. After a successful write each stamp is replaced by the row written.
+     * </p>
+     * 
+     * @param changes           new values keyed by username, then by the column being edited
+     * @param stamps            the row each user was read from keyed by username, updated once written
+     * @param file              address of the .csv flat file
+     * 
+     * @return                  <code>true</code> if the edit was written, <code>false</code> if a row was stale or the
+     *                          edit could not be written
+     */
+    protected static boolean editRowsIfUnchanged(Map<String, ? extends Map<Integer, String>> changes,
+            Map<String, String> stamps, String file) {
+        return User.commit(new RowEdit(changes, stamps), file);
+    }
+
+    /**
+     * Hands an edit to the GroupCommit of a flat file and waits for it to be written.
+     */
+    private static boolean commit(RowEdit edit, String file) {
+        GroupCommit<RowEdit> commit = commits.computeIfAbsent(file,
+            f -> new GroupCommit<RowEdit>(f, batch -> User.writeRows(batch, f)));
+        return commit.commit(edit);
+    }
+
+    /**
+     * Writes a batch of editRows requests to a .csv flat file in a single rewrite.
+     * <p>
+     * Requests are applied in arrival order, each to the rows as left by the requests before it, so a later request wins
+     * where two requests edit the same column, and a stale request is refused on its own without holding up the rest of
+     * the batch. The temporary file is forced to disk once for the whole batch before it replaces the flat file.
+     * </p>
+     * 
+     * @param batch             the changes of each editRows request, in arrival order
+     * @param file              address of the .csv flat file
+     * 
+     * @return                  whether each request was written
+     */
+    private static List<Boolean> writeRows(List<RowEdit> batch, String file) {
+        File tempFile = null;
 
+        FlatFileLock lock = null;
         try {
-        	br = new BufferedReader(new FileReader(file));
-            FileWriter fw = new FileWriter(tempFile);
-            BufferedWriter bw = new BufferedWriter(fw);
-            PrintWriter pw = new PrintWriter(bw);   
-             
-            while ((line = br.readLine()) != null) {       	
-                String[] row = line.split(csvSplitBy);   
-                if (row[0].toLowerCase().equals(username.toLowerCase())) {
-                    if (option == 1) {
-                        newValue = HashingMachine.hashPassword(newValue);
-                    } 
-                    row[option] = newValue;
-                }
-                String myContent = String.join(",", row);
-                myContent += "\n";
-                pw.write(myContent);                        
-            }
-                
-            pw.flush();
-            pw.close();
-            br.close();
-  
-            File dump = new File(file);
-            dump.delete();
-            tempFile.renameTo(new File(file));
-            
+            lock = FlatFileLock.acquire(file);
+            tempFile = FlatFileLock.tempFile(file);
+            return User.rewrite(batch, file, tempFile);
         } catch (IOException e) {
             e.printStackTrace();
-            return false;
-     	} finally {
-        	if (br != null) {
-            	try {
-                    br.close();
-                    return true;
-            	} catch (IOException e) {
-                    e.printStackTrace();
-                    return false;
-             	}
-         	}
-		}
-    return false;
+            if (tempFile != null) tempFile.delete();
+            return new ArrayList<Boolean>(Collections.nCopies(batch.size(), false));
+        } finally {
+            FlatFileLock.release(lock);
+        }
+    }
+
+    /**
+     * Writes the edits of a batch through a temporary file while writeRows holds the lock of the flat file.
+     * 
+     * @param batch             the edits of each request, in arrival order
+     * @param file              address of the .csv flat file
+     * @param tempFile          the temporary file that replaces the flat file
+     * 
+     * @return                  whether each request was written
+     * 
+     * @throws IOException
+     */
+    private static List<Boolean> rewrite(List<RowEdit> batch, String file, File tempFile) throws IOException {
+        ArrayList<String> lines = new ArrayList<String>();
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                // trailing empty columns of rows that are not edited are dropped, as they always have been
+                lines.add(String.join(",", line.split(csvSplitBy)));
+            }
+        }
+        // the line numbers of the rows of each user
+        HashMap<String, ArrayList<Integer>> rowsOf = new HashMap<String, ArrayList<Integer>>();
+        for (int n = 0; n < lines.size(); n++) {
+            rowsOf.computeIfAbsent(lines.get(n).split(csvSplitBy)[0].toLowerCase(), u -> new ArrayList<Integer>()).add(n);
+        }
+
+        ArrayList<Boolean> results = new ArrayList<Boolean>();
+        for (RowEdit edit : batch) {
+            results.add(User.applyRows(lines, rowsOf, edit));
+        }
+        if (!results.contains(true)) {
+            tempFile.delete();
+            // requests stamped from rows another program has since rewritten keep failing until the Catalogue catches up
+            FlatFileTable table = Catalogue.tableOf(file);
+            if (table != null && table.isOutOfSync()) Catalogue.rewritten(file, lines);
+            return results;
+        }
+
+        ArrayList<String> written = new ArrayList<String>(lines.size());
+        try (FileOutputStream out = new FileOutputStream(tempFile);
+                PrintWriter pw = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out)))) {
+            for (String line : lines) {
+                written.add(line);
+                pw.write(line + "\n");
+            }
+
+            pw.flush();
+            if (pw.checkError()) throw new IOException("Error writing " + tempFile);
+            // a single fsync makes every request of the batch durable
+            out.getFD().sync();
+        }
+
+        // the temporary file is closed before it replaces the flat file
+        FlatFileLock.replace(tempFile, file);
+        Catalogue.rewritten(file, written);
+        for (int i = 0; i < batch.size(); i++) {
+            if (!results.get(i)) continue;
+            for (Map.Entry<String, String> stamp : batch.get(i).stamps.entrySet()) {
+                stamp.setValue(written.get(rowsOf.get(stamp.getKey().toLowerCase()).get(0)));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Applies the changes of one request to the lines of a flat file.
+     * <p>
+     * The lines are left untouched if the row of any stamped user has changed since it was read.
+     * </p>
+     * 
+     * @param lines             every line of the flat file, edited in place
+     * @param rowsOf            the line numbers of the rows of each user, keyed by lower case username
+     * @param edit              the request
+     * 
+     * @return                  <code>true</code> if the changes were applied, <code>false</code> if a user was stale
+     */
+    private static boolean applyRows(ArrayList<String> lines, HashMap<String, ArrayList<Integer>> rowsOf, RowEdit edit) {
+        for (Map.Entry<String, String> stamp : edit.stamps.entrySet()) {
+            ArrayList<Integer> rows = rowsOf.get(stamp.getKey().toLowerCase());
+            // trailing empty columns do not count, since rows that are not edited are written without them
+            if (rows == null || !String.join(",", lines.get(rows.get(0)).split(csvSplitBy))
+                    .equals(String.join(",", stamp.getValue().split(csvSplitBy)))) {
+                return false;
+            }
+        }
+
+        for (Map.Entry<String, ? extends Map<Integer, String>> change : edit.changes.entrySet()) {
+            for (int n : rowsOf.getOrDefault(change.getKey().toLowerCase(), new ArrayList<Integer>())) {
+                String[] row = lines.get(n).split(csvSplitBy);
+                for (Map.Entry<Integer, String> column : change.getValue().entrySet()) {
+                    // trailing empty columns are dropped by split, put them back before writing past them
+                    if (column.getKey() >= row.length) row = Arrays.copyOf(row, column.getKey() + 1);
+                    for (int i = 0; i < row.length; i++) {
+                        if (row[i] == null) row[i] = "";
+                    }
+                    row[column.getKey()] = column.getValue();
+                }
+                lines.set(n, String.join(",", row));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * RowEdit is one request to edit the rows of a flat file.
+     */
+    private static class RowEdit {
+        /**
+         * New values keyed by username, then by the column being edited
+         */
+        private final Map<String, ? extends Map<Integer, String>> changes;
+
+        /**
+         * The row each stamped user was read from keyed by username, empty if the request is not stamped
+         */
+        private final Map<String, String> stamps;
+
+        /**
+         * Class Constructor specifying the changes and stamps of the request
+         */
+        RowEdit(Map<String, ? extends Map<Integer, String>> changes, Map<String, String> stamps) {
+            this.changes = changes;
+            this.stamps = stamps;
+        }
     }
 }
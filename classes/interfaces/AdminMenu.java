@@ -10,7 +10,7 @@ import classes.entities.*;
 
 /**
  * AdminMenu is an interface class for system administrators to interact with the STARS system.
- * Administrators are able to perform 17 different functions through interacting with the AdminMenu interface class.
+ * Administrators are able to perform 20 different functions through interacting with the AdminMenu interface class.
  * <ol>
  * <li>Print out a list of all students
  * <li>Editing student access period
@@ -29,6 +29,9 @@ import classes.entities.*;
  * <li>Changing the sessions of a preexisting course index
  * <li>Checking how many vacancies are available for a preexisting course / course index
  * <li>Change password
+ * <li>Staggering student access periods by cohort
+ * <li>Opening a ballot and allocating its seats
+ * <li>Simulating the waitlist promotions of proposed changes
  * </ol>
  */
 
@@ -55,7 +58,7 @@ public class AdminMenu {
         int userChoice = 0;
 
         AdminManager am = new AdminManager(username);
-        while (userChoice != 18) {
+        while (userChoice != 21) {
             userChoice = selectFunction();
             int index;
             switch (userChoice) {
@@ -555,7 +558,123 @@ public class AdminMenu {
                     break;   
                 }
 
-               
+                case 18 -> {
+                    // stagger access periods by cohort
+                    try {
+                        System.out.println("Enter number of leading matric number characters naming a cohort (e.g. 3 for U20): ");
+                        int prefixLength = Integer.parseInt(sc.nextLine());
+                        System.out.println("Enter first opening date and time in DD/MM/YYYY HH:MM format: ");
+                        LocalDateTime firstOpen = LocalDateTime.parse(sc.nextLine(), formatter);
+                        System.out.println("Enter minutes between slots: ");
+                        int slotMinutes = Integer.parseInt(sc.nextLine());
+                        System.out.println("Enter maximum students per slot (0 for no limit): ");
+                        int maxPerSlot = Integer.parseInt(sc.nextLine());
+                        System.out.println("Enter closing date and time in DD/MM/YYYY HH:MM format: ");
+                        LocalDateTime close = LocalDateTime.parse(sc.nextLine(), formatter);
+
+                        LinkedHashMap<String, LocalDateTime> opens = am.scheduleAccessPeriods(prefixLength, firstOpen,
+                            slotMinutes, maxPerSlot, close);
+                        if (opens == null) {
+                            System.out.println("Unable to schedule access periods, check that every slot opens before closing.");
+                            break;
+                        }
+                        if (opens.isEmpty()) {
+                            System.out.println("There are no students to schedule access periods for.");
+                            break;
+                        }
+                        TreeMap<LocalDateTime, Integer> slots = new TreeMap<LocalDateTime, Integer>();
+                        for (LocalDateTime open : opens.values()) slots.merge(open, 1, Integer::sum);
+                        for (Map.Entry<LocalDateTime, Integer> slot : slots.entrySet()) {
+                            System.out.println(slot.getKey().format(formatter) + "  " + slot.getValue() + " student(s)");
+                        }
+
+                        // expected load over the slots and the sessions after the last one
+                        LocalDateTime peakAt = firstOpen;
+                        double peak = 0;
+                        Map<LocalDateTime, Double> curve = AccessScheduler.sessionCurve(firstOpen, slots.lastKey().plusMinutes(
+                            AccessScheduler.LOGIN_SPREAD_MINUTES + AccessScheduler.SESSION_MINUTES), 1);
+                        for (Map.Entry<LocalDateTime, Double> point : curve.entrySet()) {
+                            if (point.getValue() > peak) {
+                                peak = point.getValue();
+                                peakAt = point.getKey();
+                            }
+                        }
+                        System.out.printf("Expected peak of %.1f concurrent sessions at %s (current session limit %d)\n", peak,
+                            peakAt.format(formatter), AdmissionManager.getSessionLimit());
+                    } catch (NumberFormatException | DateTimeParseException e) {
+                        System.out.println("Invalid input. Please try again later.");
+                    }
+                    break;
+                }
+
+                case 19 -> {
+                    // open a ballot or allocate a closed one
+                    BallotManager.Window window = BallotManager.getWindow();
+                    if (window != null) {
+                        System.out.println("Current ballot closes " + window.getClose().format(formatter)
+                            + (window.isAllocated() ? ", allocated" : ", not yet allocated"));
+                    }
+                    System.out.println("Enter 1 to open a new ballot, 2 to allocate the closed ballot, any other number to cancel: ");
+                    String ballotChoice = sc.nextLine();
+                    try {
+                        if (ballotChoice.equals("1")) {
+                            System.out.println("Enter opening date and time in DD/MM/YYYY HH:MM format: ");
+                            LocalDateTime open = LocalDateTime.parse(sc.nextLine(), formatter);
+                            System.out.println("Enter closing date and time in DD/MM/YYYY HH:MM format: ");
+                            LocalDateTime close = LocalDateTime.parse(sc.nextLine(), formatter);
+                            System.out.println("Enter lottery seed (any whole number): ");
+                            long seed = Long.parseLong(sc.nextLine());
+                            if (BallotManager.openBallot(open, close, seed)) System.out.println("Ballot opened.");
+                            else System.out.println("Unable to open ballot, check that it opens before it closes.");
+                        } else if (ballotChoice.equals("2")) {
+                            int seats = BallotManager.allocate();
+                            if (seats == -1) System.out.println("Unable to allocate, check that the ballot has closed and has not been allocated.");
+                            else System.out.println("Ballot allocated " + seats + " seat(s).");
+                        }
+                    } catch (NumberFormatException | DateTimeParseException e) {
+                        System.out.println("Invalid input. Please try again later.");
+                    }
+                    break;
+                }
+
+                case 20 -> {
+                    // dry run of proposed changes against the current waitlists
+                    PromotionSimulator.Scenario scenario = new PromotionSimulator.Scenario();
+                    System.out.println("Enter one change per line, then an empty line to simulate:");
+                    System.out.println("  <course> <index> vacancy <change>   e.g. CZ2001 201 vacancy 3");
+                    System.out.println("  <course> <index> drop");
+                    System.out.println("  <course> <index> sessions <ids>     e.g. CZ2001 201 sessions 1;2;5");
+                    String line = sc.nextLine().trim();
+                    while (!line.equals("")) {
+                        String[] change = line.split("\\s+");
+                        try {
+                            if (change.length == 4 && change[2].equals("vacancy")) {
+                                scenario.changeVacancy(change[0], change[1], Integer.parseInt(change[3]));
+                            } else if (change.length == 3 && change[2].equals("drop")) {
+                                scenario.dropIndex(change[0], change[1]);
+                            } else if (change.length == 4 && change[2].equals("sessions")) {
+                                scenario.changeSessions(change[0], change[1],
+                                    Arrays.stream(change[3].split(";")).mapToInt(Integer::parseInt).toArray());
+                            } else {
+                                System.out.println("Unrecognised change, skipped.");
+                            }
+                        } catch (NumberFormatException e) {
+                            System.out.println("Invalid number, change skipped.");
+                        }
+                        line = sc.nextLine().trim();
+                    }
+
+                    PromotionSimulator.Report report = am.simulatePromotions(scenario);
+                    AdminMenu.printOutcome("Promoted", report.getPromoted());
+                    AdminMenu.printOutcome("Left waiting, over AU limit", report.getOverAU());
+                    AdminMenu.printOutcome("Left waiting, timetable clash", report.getClashing());
+                    AdminMenu.printOutcome("Taken off waitlist", report.getWithdrawn());
+                    AdminMenu.printOutcome("Lose their seat", report.getDisplaced());
+                    AdminMenu.printOutcome("New lessons clash with their timetable", report.getNewClashes());
+                    System.out.println(report.getPromotedCount() + " student(s) would be promoted (simulated in "
+                        + report.getElapsedMicros() + " microseconds)");
+                    break;
+                }
             }
             System.out.println("");
         }
@@ -563,10 +682,24 @@ public class AdminMenu {
         System.exit(0);
     }
 
+    /**
+     * Prints one outcome of a promotion simulation, one course index per line.
+     * 
+     * @param title             what happens to the students listed
+     * @param outcome           usernames of the students, keyed by course/index
+     */
+    private static void printOutcome(String title, Map<String, ArrayList<String>> outcome) {
+        if (outcome.isEmpty()) return;
+        System.out.println(title + ":");
+        for (Map.Entry<String, ArrayList<String>> entry : outcome.entrySet()) {
+            System.out.println("  " + entry.getKey() + ": " + String.join(", ", entry.getValue()));
+        }
+    }
+
     /**
      * Guard for user input when selecting which operation they would like to perform.
      * 
-     * @return                  user choice, from 1-18
+     * @return                  user choice, from 1-21
      */
     public static int selectFunction() {
         Scanner sc = new Scanner(System.in);
@@ -578,15 +711,16 @@ public class AdminMenu {
                 "9:  Add Course into System\n10: Add Index to existing course\n11: Edit Course Code\n"+
                 "12: Edit School\n13: Edit Existing Index\n" + 
                 "14: Edit Index Vacancy\n15: Edit Session\n16: Check Available Vacancies\n" +
-                "17: Change Password\n18: Log Out");
+                "17: Change Password\n18: Schedule Access Periods by Cohort\n19: Ballot\n" +
+                "20: Simulate Waitlist Promotions\n21: Log Out");
         int userInput = -1;
         try{
             userInput = Integer.parseInt(sc.nextLine());
         } catch (NumberFormatException e){
             // System.out.println("Invalid choice. Please select again: ");
         }
-        if (userInput < 1 || userInput > 18) {
-            while(userInput < 1 || userInput > 18) {
+        if (userInput < 1 || userInput > 21) {
+            while(userInput < 1 || userInput > 21) {
                 System.out.println("Invalid choice. Please select again: ");
                 try{
                     userInput = Integer.parseInt(sc.nextLine());
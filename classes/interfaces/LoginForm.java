@@ -24,6 +24,11 @@ public class LoginForm {
      */
     final static int MAX_RETRIES = 10;
 
+    /**
+     * Defines how often a student waiting to be let in checks their place in the queue, in milliseconds
+     */
+    final static long QUEUE_POLL_MILLIS = 3000;
+
     /**
      * Instantiates a scanner for reading user input
      */
@@ -40,6 +45,12 @@ public class LoginForm {
      */
     public static void main(String[] args) throws IOException {
 
+        // load every flat file into memory before anyone logs in
+        Map<String, Long> timings = StartupLoader.load();
+        if (Boolean.getBoolean("stars.timings")) {
+            System.out.println("Startup took " + StartupLoader.formatTimings(timings));
+        }
+
         // Welcome message
         System.out.println("Welcome to My Student Automated Registration System (MySTARS)");
 
@@ -88,6 +99,12 @@ public class LoginForm {
         else{
 
             if(AuthenticationManager.checkAccessPeriod(username)){
+                // wait in the queue until there is room in the student menu
+                if (!waitForAdmission(username)){
+                    System.out.println("Exiting MySTARS Planner...\n");
+                    System.exit(0);
+                }
+
                 // call student menu
                 try{
                     classes.interfaces.StudentMenu.start(username);
@@ -129,6 +146,38 @@ public class LoginForm {
         return null;
     }
     
+    /**
+     * Waits in the queue for the student menu, showing the student their place in the queue
+     * 
+     * @param username              username of the student
+     * 
+     * @return                      <code>true</code> once the student has been let in, <code>false</code> if the queue could not be joined or their ticket expired
+     */
+    protected static boolean waitForAdmission(String username){
+        long ticket = AdmissionManager.enter(username);
+        // without a working waiting room nobody is let in, or the student menu could be overrun
+        if (ticket == -1){
+            System.out.println("The queue is unavailable at the moment. Please try again later.");
+            return false;
+        }
+        AdmissionManager.keepAlive(ticket);
+
+        AdmissionManager.Status status = AdmissionManager.poll(ticket);
+        while (status != null && status.getPosition() > 0){
+            String wait = status.getWaitSeconds() < 0 ? "" 
+                : ", estimated wait " + Math.max(1, (status.getWaitSeconds() + 59) / 60) + " min";
+            System.out.println("The system is busy. You are number " + status.getPosition() + " in the queue" + wait + ".");
+            try{
+                Thread.sleep(QUEUE_POLL_MILLIS);
+            } catch (InterruptedException e){
+                return false;
+            }
+            status = AdmissionManager.poll(ticket);
+        }
+        if (status == null) System.out.println("Your place in the queue has expired. Please log in again.");
+        return status != null;
+    }
+
     /**
      * Checks if password is valid
      * 
@@ -7,16 +7,17 @@ import classes.entities.*;
 
 /**
  * StudentMenu is an interface class for students to interact with the STARS system.
- * Students are able to perform 8 different functions through interacting with the StudentMenu interface.
+ * Students are able to perform 9 different functions through interacting with the StudentMenu interface.
  * <ol>
  * <li>Enroll themselves into a course
  * <li>Drop themselves from a course
  * <li>Display a list of courses they are enrolled in
  * <li>Check the vacancies available for a course and their respective indexes
  * <li>Change their index number in a course they are currently registered in
- * <li>Swop their index number with another student within the same course
+ * <li>Swop their index number with another student within the same course, or post a request on the swap market
  * <li>Print out their timetable
  * <li>Change their password
+ * <li>Plan clash-free combinations of indexes for a set of courses
  * </ol>
  */
 
@@ -38,7 +39,7 @@ public class StudentMenu {
         Scanner sc = new Scanner(System.in);
         int userChoice = 0;
         StudentManager sm = new StudentManager(username);
-        while(userChoice != 9) {
+        while(userChoice != 10) {
             userChoice = selectFunction();
             switch (userChoice) {
                 case 1 -> {
@@ -78,7 +79,9 @@ public class StudentMenu {
 
                     int addCourseOutcome = sm.addCourse(chosenCourse, chosenIndex, 0);
                     
-                    if (addCourseOutcome == -1)
+                    if (addCourseOutcome == -2)
+                        System.out.println("Too many requests, please try again in " + (sm.getRetryAfterMillis() + 999) / 1000 + " second(s)\n");
+                    else if (addCourseOutcome == -1)
                     	System.out.println("Unable to add course, check if you inputted the correct Course Code and corresponding Course Indexes\n");                    	
                     else if (addCourseOutcome == 0)
                     	System.out.println("You are already in this Course, unable to add course!\n");
@@ -95,20 +98,33 @@ public class StudentMenu {
                 
                         if (waitlistChoice == 1){
                         	int addWaitlistOutcome = sm.addWaitlist(chosenCourse, chosenIndex);
-                        	if (addWaitlistOutcome == 0)
+                        	if (addWaitlistOutcome == -2)
+                        		System.out.println("Too many requests, please try again in " + (sm.getRetryAfterMillis() + 999) / 1000 + " second(s)\n");
+                        	else if (addWaitlistOutcome == 0)
                         		System.out.println("The course is already in your waitlist\n");
                         	else if (addWaitlistOutcome == 1)
                         		System.out.println ("Successfully added the course to your waitlist!\n");
                         	else 
-                        		System.out.println("You currently hold " + addWaitlistOutcome + " Academic Units, unable to add course as it will exceed the recommended maximum of 21 Academic Units\n");            
+                        		System.out.println("You currently hold " + addWaitlistOutcome + " Academic Units, unable to add course as it will exceed the recommended maximum of " + Student.AU_LIMIT + " Academic Units\n");            
                         }
                         else {System.out.println("Exit the current session\n");}
                     }
                     else if (addCourseOutcome == 3) {
                         System.out.println("Your chosen index will clash with another course, unable to add course.");
+                        ArrayList<String> alternatives = sm.findClashFreeIndexes(chosenCourse);
+                        if (alternatives.isEmpty())
+                            System.out.println("No other index of " + chosenCourse + " with vacancies fits your timetable.\n");
+                        else
+                            System.out.println("These indexes of " + chosenCourse + " have vacancies and fit your timetable: " + String.join(", ", alternatives) + "\n");
+                    }
+                    else if (addCourseOutcome == 4) {
+                        System.out.println("A ballot is open, your request has been recorded. Seats will be allocated when the ballot closes.\n");
+                    }
+                    else if (addCourseOutcome == -3) {
+                        System.out.println("Bidding has closed and seats are being allocated, please try again once the ballot has been allocated.\n");
                     }
                     else 
-                    	System.out.println("You currently hold " + addCourseOutcome + " Academic Units, unable to add course as it will exceed the recommended maximum of 21 Academic Units\n");
+                    	System.out.println("You currently hold " + addCourseOutcome + " Academic Units, unable to add course as it will exceed the recommended maximum of " + Student.AU_LIMIT + " Academic Units\n");
                         
                     break;
                 }
@@ -189,6 +205,7 @@ public class StudentMenu {
 
                     // print out the vacancy of the course
                     if (sm.displayIndexVacancy(chosenCourse, "", 2)) System.out.println("Unable to display course vacancies, check that you have inputted the correct Course Code\n");;
+                    sm.displayWaitlistStatus(chosenCourse);
                     break;
                 }
 
@@ -234,6 +251,30 @@ public class StudentMenu {
                     sm.displayStudentCourses();
                     System.out.println();
 
+                    System.out.println("Enter 1 to swop with a peer you know, or 2 to post a request on the swap market: ");
+                    if (sc.nextLine().trim().equals("2")) {
+                        System.out.println("Please input the course code of your currently enrolled course that you wish to swop: ");
+                        String marketCourse = sc.nextLine();
+                        System.out.println("Please input the index of your currently enrolled course which you wish to swop: ");
+                        String marketIndex = sc.nextLine();
+                        System.out.println("Please input every index you would accept instead, separated by spaces: ");
+                        String[] wantIndexes = sc.nextLine().trim().split("\\s+");
+
+                        int postOutcome = SwapManager.post(username, marketCourse, marketIndex, wantIndexes);
+                        if (postOutcome == -1)
+                            System.out.println("The index you have input is invalid, you are not enrolled in this index.");
+                        else if (postOutcome == 0)
+                            System.out.println("None of those indexes fit your timetable and AU limit.");
+                        else if (postOutcome == 1)
+                            System.out.println("Swapped successfully.");
+                        else if (postOutcome == -2)
+                            System.out.println("The swap market could not be updated, please try again later.");
+                        else
+                            System.out.println("Your request has been posted, you will be swapped as soon as a match is found.");
+                        sm = new StudentManager(username);
+                        break;
+                    }
+
                     System.out.println("Please note that the swopping of index requires a mutual agreement, both of you have to Login to your account here in order to complete the swop.\n");
                     String quitOption = "1";
 
@@ -316,6 +357,8 @@ public class StudentMenu {
                             System.out.println("The two index are not within the same course");
                         else if (swapOutcome == 3)
                             System.out.println("Unsuccessful swap due to a TimeTable clash");
+                        else if (swapOutcome == 5)
+                            System.out.println("The swap could not be saved, please try again later.");
                         
                         // display registered courses
                         System.out.println("These are the courses you are enrolled in, along with their indexes:");
@@ -380,6 +423,23 @@ public class StudentMenu {
                     }       
                     break;
                 }
+
+                case 9 -> {
+                    // plan a timetable without enrolling in anything
+                    System.out.println("Please enter the courses you wish to plan, separated by spaces e.g. CZ2001 CZ2002: ");
+                    List<String> chosenCourses = Arrays.asList(sc.nextLine().trim().split("\\s+"));
+                    List<TimetablePlanner.Plan> plans = sm.planTimetable(chosenCourses, 5);
+                    if (plans.isEmpty()) {
+                        System.out.println("No combination of indexes with vacancies fits your timetable within " + Student.AU_LIMIT + " Academic Units.");
+                        break;
+                    }
+                    System.out.println("Best combinations, fewest days with lessons first:");
+                    for (int i = 0; i < plans.size(); i++) {
+                        TimetablePlanner.Plan plan = plans.get(i);
+                        System.out.println((i + 1) + ": " + plan + " (" + plan.getDays() + " days, " + plan.getIdleHalfHours() + " free half hours between lessons)");
+                    }
+                    break;
+                }
             }
 	        System.out.println();
         }
@@ -390,13 +450,13 @@ public class StudentMenu {
     /**
      * Guard for user input when selecting which operation they would like to perform
      * 
-     * @return                  user choice, from 1-9
+     * @return                  user choice, from 1-10
      */
     public static int selectFunction() {
         Scanner sc = new Scanner(System.in);
         System.out.println("Enter your choice:\n1: Add a course\n2: Drop a course\n" +
                 "3: Display registered courses\n4: Check vacancies in a course\n5: Change index number in a registered course\n" +
-                "6: Swop Index with another student\n7: View timetable\n8: Change password\n9: Logout");
+                "6: Swop Index with another student\n7: View timetable\n8: Change password\n9: Plan a timetable\n10: Logout");
         
         int userInput = -1;
         try {
@@ -404,8 +464,8 @@ public class StudentMenu {
         } catch (NumberFormatException e) {
 
         }
-        if (userInput < 1 || userInput > 9) {
-            while(userInput < 1 || userInput > 9) {
+        if (userInput < 1 || userInput > 10) {
+            while(userInput < 1 || userInput > 10) {
                 System.out.println("Invalid choice. Please select again: \n");
                 try {
                     userInput = Integer.parseInt(sc.nextLine());